@@ -0,0 +1,142 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * File size and full scan time of the pets with their breed stored inline, as before the
+ * {@link BreedDictionary}, and by breed_id, on a device.
+ * <p>
+ * A scratch database of the version 3 schema is filled with {@link #ROWS} pets of {@link #BREEDS}
+ * breeds, measured, migrated by {@link PetDbHelper#upgradeSchema} and measured again through the
+ * pets view. The real database is not touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetBreedStorageBenchmarkTest {
+
+    private static final String LOG_TAG = PetBreedStorageBenchmarkTest.class.getSimpleName();
+
+    private static final int ROWS = 100000;
+    private static final int ROWS_PER_TRANSACTION = 1000;
+    private static final int BREEDS = 300;
+    private static final int SCANS = 5;
+
+    private static final String SCRATCH_NAME = "breed-benchmark.db";
+
+    /**
+     * The pets table before the breed dictionary, of the schema versions 1 to 3
+     */
+    private static final String SQL_CREATE_INLINE_PETS =
+            "CREATE TABLE " + PetEntry.TABLE_NAME + " (" +
+                    PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    PetEntry.COLUMN_PET_NAME + " TEXT," +
+                    PetEntry.COLUMN_PET_BREED + " TEXT," +
+                    PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL DEFAULT 0," +
+                    PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0)";
+
+    private Context mContext;
+    private File mFile;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(SCRATCH_NAME);
+        mFile = mContext.getDatabasePath(SCRATCH_NAME);
+        mDb = mContext.openOrCreateDatabase(SCRATCH_NAME, Context.MODE_PRIVATE, null);
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+        mContext.deleteDatabase(SCRATCH_NAME);
+    }
+
+    @Test
+    public void inlineBreedsAgainstBreedIds() {
+        mDb.execSQL(SQL_CREATE_INLINE_PETS);
+        ContentValues values = new ContentValues();
+        for (int from = 0; from < ROWS; from += ROWS_PER_TRANSACTION) {
+            mDb.beginTransaction();
+            try {
+                for (int i = from; i < from + ROWS_PER_TRANSACTION; i++) {
+                    values.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+                    values.put(PetEntry.COLUMN_PET_BREED, i % 10 == 0 ? null : "Breed of pet number " + i % BREEDS);
+                    values.put(PetEntry.COLUMN_PET_GENDER, i % 3);
+                    values.put(PetEntry.COLUMN_PET_WEIGHT, i % 40);
+                    mDb.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+                }
+                mDb.setTransactionSuccessful();
+            } finally {
+                mDb.endTransaction();
+            }
+        }
+        long inlineBytes = compactedBytes();
+        long inlineNanos = scan(PetEntry.TABLE_NAME);
+
+        mDb.beginTransaction();
+        try {
+            PetDbHelper.upgradeSchema(new FrameworkPetDatabase(mDb), 3, PetDbHelper.DATABASE_VERSION);
+            // Take back the content hashes of version 5, so only the storage of the breeds differs
+            mDb.execSQL("DROP INDEX pets_content_hash");
+            mDb.execSQL("UPDATE " + PetEntry.TABLE_NAME + " SET " + PetEntry.COLUMN_PET_CONTENT_HASH + " = NULL");
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        long idBytes = compactedBytes();
+        long idNanos = scan(PetEntry.VIEW_NAME);
+
+        Log.i(LOG_TAG, ROWS + " pets of " + BREEDS + " breeds, inline breeds: " + inlineBytes / 1024 + "KB, scan "
+                + inlineNanos / 1000 + "us; breed ids: " + idBytes / 1024 + "KB, scan " + idNanos / 1000 + "us");
+    }
+
+    /**
+     * @return Size of the database file without free pages
+     */
+    private long compactedBytes() {
+        mDb.execSQL("VACUUM");
+        return mFile.length();
+    }
+
+    /**
+     * @return The shortest of {@link #SCANS} full scans of the names and breeds
+     */
+    private long scan(String table) {
+        long best = Long.MAX_VALUE;
+        for (int scan = 0; scan < SCANS; scan++) {
+            long start = System.nanoTime();
+            Cursor cursor = mDb.query(table, new String[]{PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED},
+                    null, null, null, null, null);
+            int rows = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getString(0);
+                    cursor.getString(1);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+            best = Math.min(best, System.nanoTime() - start);
+            assertEquals(ROWS, rows);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Debug;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+import android.view.View;
+
+import com.example.android.pets.R;
+import com.example.android.pets.adapter.PetCursorAdapter;
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.model.PetSchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The allocations of the catalog and editor flows of PetFlowTest, which Robolectric cannot count,
+ * against the pets_flow_*_allocations budgets of config.xml.
+ * <p>
+ * A scratch database is seeded with {@link #ROWS} pets, one in {@link #NULL_BREED_EVERY} without
+ * a breed. Each flow counts the allocations of the test thread with {@link Debug}, and fails once
+ * it goes over its budget. The real database is not touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetFlowAllocationTest {
+
+    private static final String LOG_TAG = PetFlowAllocationTest.class.getSimpleName();
+
+    private static final int ROWS = 5000;
+    private static final int NULL_BREED_EVERY = 10;
+    private static final int BREEDS = 50;
+    private static final int EDITOR_SAMPLES = 100;
+    /**
+     * Views a list recycles, about one screen of rows
+     */
+    private static final int VISIBLE_ROWS = 12;
+
+    private static final String SCRATCH_NAME = "flow-allocation.db";
+    private static final String SCRATCH_ENCRYPTED_NAME = "flow-allocation-encrypted.db";
+
+    private Context mContext;
+    private PetDbHelper mHelper;
+    private PetDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(SCRATCH_NAME);
+        mHelper = new PetDbHelper(mContext, SCRATCH_NAME, SCRATCH_ENCRYPTED_NAME, false, null);
+        mDb = mHelper.getWritableDatabase();
+        seed();
+        Debug.startAllocCounting();
+    }
+
+    @After
+    public void tearDown() {
+        Debug.stopAllocCounting();
+        mHelper.close();
+        mContext.deleteDatabase(SCRATCH_NAME);
+    }
+
+    @Test
+    public void scroll() {
+        Debug.resetThreadAllocCount();
+        Cursor cursor = new PrefetchingCursor(mDb.query(PetEntry.VIEW_NAME, PetEntry.SUMMARY_PROJECTION,
+                null, null, null, null, null));
+        try {
+            PetCursorAdapter adapter = new PetCursorAdapter(mContext, cursor);
+            View[] recycled = new View[VISIBLE_ROWS];
+            for (int position = 0; position < adapter.getCount(); position++) {
+                int slot = position % VISIBLE_ROWS;
+                recycled[slot] = adapter.getView(position, recycled[slot], null);
+            }
+        } finally {
+            cursor.close();
+        }
+        assertWithinBudget("scroll", Debug.getThreadAllocCount(),
+                ROWS * budget(R.integer.pets_flow_scroll_allocations_per_row));
+    }
+
+    @Test
+    public void openEditor() {
+        long[] ids = samples();
+        Debug.resetThreadAllocCount();
+        for (long id : ids) {
+            read(id);
+        }
+        assertWithinBudget("open editor", Debug.getThreadAllocCount(),
+                ids.length * budget(R.integer.pets_flow_editor_allocations_per_pet));
+    }
+
+    @Test
+    public void save() {
+        long[] ids = samples();
+        String[] args = new String[1];
+        ContentValues values = new ContentValues();
+        Debug.resetThreadAllocCount();
+        for (int i = 0; i < ids.length; i++) {
+            values.put(PetEntry.COLUMN_PET_NAME, "Saved pet " + i);
+            values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, i);
+            PetSchema.validate(values, false);
+            args[0] = String.valueOf(ids[i]);
+            mDb.update(PetEntry.TABLE_NAME, values, PetEntry._ID + "=?", args);
+            // As the editor's observer does
+            read(ids[i]);
+        }
+        assertWithinBudget("save", Debug.getThreadAllocCount(),
+                ids.length * budget(R.integer.pets_flow_editor_allocations_per_pet));
+    }
+
+    private void seed() {
+        long[] breedIds = new long[BREEDS];
+        ContentValues values = new ContentValues();
+        mDb.beginTransaction();
+        try {
+            for (int i = 0; i < BREEDS; i++) {
+                values.put(BreedEntry.COLUMN_BREED_NAME, "Breed " + i);
+                breedIds[i] = mDb.insertOrThrow(BreedEntry.TABLE_NAME, null, values);
+            }
+            values.clear();
+            for (int i = 0; i < ROWS; i++) {
+                values.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+                if (i % NULL_BREED_EVERY == 0) {
+                    values.putNull(PetEntry.COLUMN_PET_BREED_ID);
+                } else {
+                    values.put(PetEntry.COLUMN_PET_BREED_ID, breedIds[i % BREEDS]);
+                }
+                values.put(PetEntry.COLUMN_PET_GENDER, i % 3);
+                values.put(PetEntry.COLUMN_PET_WEIGHT, i % 50);
+                mDb.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    private void read(long id) {
+        Cursor cursor = mDb.query(PetEntry.VIEW_NAME, PetSchema.PROJECTION, PetEntry._ID + "=?",
+                new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertNotNull(PetSchema.fromCursor(cursor));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return Ids of pets spread over the whole table, numbered from 1 in the scratch database
+     */
+    private static long[] samples() {
+        long[] ids = new long[EDITOR_SAMPLES];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + i * (ROWS / EDITOR_SAMPLES);
+        }
+        return ids;
+    }
+
+    private long budget(int id) {
+        return mContext.getResources().getInteger(id);
+    }
+
+    private static void assertWithinBudget(String flow, long allocations, long budget) {
+        Log.i(LOG_TAG, flow + ": " + allocations + " allocations, budget " + budget);
+        assertTrue(flow + " allocations " + allocations + " over the budget of " + budget, allocations <= budget);
+    }
+}
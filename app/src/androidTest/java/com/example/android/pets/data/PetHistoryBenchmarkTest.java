@@ -0,0 +1,103 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetHistoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * What the {@link PetHistory} costs the writes that record it, on the SQLite of a device.
+ * <p>
+ * The provider's writes run against a scratch database twice, once with their history and once
+ * without: {@link #ROWS} pets inserted and then updated by id, a transaction each. The real
+ * database is not touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetHistoryBenchmarkTest {
+
+    private static final String LOG_TAG = PetHistoryBenchmarkTest.class.getSimpleName();
+
+    private static final int ROWS = 2000;
+
+    private static final String SCRATCH_NAME = "history-benchmark.db";
+    private static final String SCRATCH_ENCRYPTED_NAME = "history-benchmark-encrypted.db";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(SCRATCH_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        mContext.deleteDatabase(SCRATCH_NAME);
+    }
+
+    @Test
+    public void historyOverhead() {
+        long without = run(false);
+        mContext.deleteDatabase(SCRATCH_NAME);
+        long with = run(true);
+        Log.i(LOG_TAG, ROWS + " inserts and updates: " + without / 1000000 + "ms without history, "
+                + with / 1000000 + "ms with, " + (with - without) * 100 / without + "% overhead");
+    }
+
+    /**
+     * @return Nanoseconds the writes took
+     */
+    private long run(boolean history) {
+        PetDbHelper helper = new PetDbHelper(mContext, SCRATCH_NAME, SCRATCH_ENCRYPTED_NAME, false, null);
+        try {
+            PetDatabase db = helper.getWritableDatabase();
+            ContentValues values = new ContentValues();
+            ContentValues heavier = new ContentValues();
+            long[] id = new long[1];
+            long start = System.nanoTime();
+            for (int i = 0; i < ROWS; i++) {
+                db.beginTransaction();
+                try {
+                    values.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+                    values.put(PetEntry.COLUMN_PET_GENDER, i % 3);
+                    values.put(PetEntry.COLUMN_PET_WEIGHT, i % 50);
+                    id[0] = db.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+                    if (history) {
+                        PetHistory.recordRows(db, PetHistoryEntry.OPERATION_INSERT, System.currentTimeMillis(), id);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                db.beginTransaction();
+                try {
+                    heavier.put(PetEntry.COLUMN_PET_WEIGHT, i % 50 + 1);
+                    db.update(PetEntry.TABLE_NAME, heavier, PetEntry._ID + "=" + id[0], null);
+                    if (history) {
+                        PetHistory.recordRows(db, PetHistoryEntry.OPERATION_UPDATE, System.currentTimeMillis(), id);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+            long nanos = System.nanoTime() - start;
+            assertEquals(history ? 2 * ROWS : 0,
+                    db.longForQuery("SELECT COUNT(*) FROM " + PetHistoryEntry.TABLE_NAME, null));
+            return nanos;
+        } finally {
+            helper.close();
+        }
+    }
+}
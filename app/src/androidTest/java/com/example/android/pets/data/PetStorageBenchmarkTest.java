@@ -0,0 +1,134 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.SecureRandom;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Overhead of the encrypted mode of {@link PetDbHelper} on a device, SQLCipher does not run on the
+ * JVM.
+ * <p>
+ * The same workload runs against a scratch plaintext database and a scratch encrypted one: pets
+ * inserted in transactions of {@link #ROWS_PER_TRANSACTION}, looked up one by one by id and
+ * scanned through the pets view. The real database is not touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetStorageBenchmarkTest {
+
+    private static final int ROWS = 10000;
+    private static final int ROWS_PER_TRANSACTION = 100;
+
+    private static final String SCRATCH_NAME = "benchmark.db";
+    private static final String SCRATCH_ENCRYPTED_NAME = "benchmark-encrypted.db";
+
+    private Context mContext;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        deleteScratch();
+    }
+
+    @After
+    public void tearDown() {
+        deleteScratch();
+    }
+
+    @Test
+    public void plaintext() {
+        long nanos = run(false);
+        System.out.println("plaintext storage, " + ROWS + " rows: " + nanos / 1000000 + "ms");
+    }
+
+    @Test
+    public void encrypted() {
+        long plaintext = run(false);
+        deleteScratch();
+        long encrypted = run(true);
+        System.out.println("encrypted storage, " + ROWS + " rows: " + encrypted / 1000000 + "ms, "
+                + encrypted * 100 / plaintext + "% of plaintext");
+    }
+
+    /**
+     * @return Nanoseconds the workload took, without opening the database
+     */
+    private long run(boolean encrypted) {
+        final byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        PetDbHelper helper = new PetDbHelper(mContext, SCRATCH_NAME, SCRATCH_ENCRYPTED_NAME, encrypted,
+                new PetDbKeyProvider() {
+                    @Override
+                    public byte[] getKey(Context context) {
+                        return key;
+                    }
+                });
+        try {
+            PetDatabase db = helper.getWritableDatabase();
+            assertEquals(encrypted, helper.isEncrypted());
+            assertFalse(helper.isEncryptionUnavailable());
+
+            long start = System.nanoTime();
+            ContentValues values = new ContentValues();
+            for (int from = 0; from < ROWS; from += ROWS_PER_TRANSACTION) {
+                db.beginTransaction();
+                try {
+                    for (int i = from; i < Math.min(ROWS, from + ROWS_PER_TRANSACTION); i++) {
+                        values.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+                        values.put(PetEntry.COLUMN_PET_GENDER, i % 3);
+                        values.put(PetEntry.COLUMN_PET_WEIGHT, i % 50);
+                        db.insert(PetEntry.TABLE_NAME, null, values);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+
+            String[] args = new String[1];
+            for (int i = 1; i <= ROWS; i++) {
+                args[0] = String.valueOf(i);
+                Cursor cursor = db.query(PetEntry.VIEW_NAME, null, PetEntry._ID + "=?", args, null, null, null);
+                try {
+                    assertTrue(cursor.moveToFirst());
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            Cursor cursor = db.query(PetEntry.VIEW_NAME, null, null, null, null, null, null);
+            int scanned = 0;
+            try {
+                while (cursor.moveToNext()) {
+                    cursor.getString(1);
+                    scanned++;
+                }
+            } finally {
+                cursor.close();
+            }
+            assertEquals(ROWS, scanned);
+            return System.nanoTime() - start;
+        } finally {
+            helper.close();
+        }
+    }
+
+    private void deleteScratch() {
+        mContext.deleteDatabase(SCRATCH_NAME);
+        mContext.deleteDatabase(SCRATCH_ENCRYPTED_NAME);
+    }
+}
@@ -0,0 +1,170 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The same inserts, lookups, scan, updates and deletes against the {@link SqlitePetStore} and the
+ * {@link MemoryPetStore}, on a device.
+ * <p>
+ * {@link #ROWS} pets are inserted, looked up one by one, scanned, then updated and deleted by id
+ * {@link #ROWS_PER_TRANSACTION} at a time, the SQLite store in a transaction per chunk as the
+ * provider writes. The real database is not touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetStoreBenchmarkTest {
+
+    private static final String LOG_TAG = PetStoreBenchmarkTest.class.getSimpleName();
+
+    private static final int ROWS = 20000;
+    private static final int ROWS_PER_TRANSACTION = 500;
+
+    private static final String SCRATCH_NAME = "store-benchmark.db";
+    private static final String SCRATCH_ENCRYPTED_NAME = "store-benchmark-encrypted.db";
+
+    private Context mContext;
+    private PetDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(SCRATCH_NAME);
+        mHelper = new PetDbHelper(mContext, SCRATCH_NAME, SCRATCH_ENCRYPTED_NAME, false, null);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(SCRATCH_NAME);
+    }
+
+    @Test
+    public void sqlite() {
+        run("sqlite", new SqlitePetStore(mHelper), mHelper.getWritableDatabase());
+    }
+
+    @Test
+    public void memory() {
+        run("memory", new MemoryPetStore(), null);
+    }
+
+    /**
+     * @param transactions Database to write each chunk in a transaction of, or null
+     */
+    private static void run(String name, PetStore store, PetDatabase transactions) {
+        ContentValues pet = new ContentValues();
+        long[] ids = new long[ROWS];
+        long start = System.nanoTime();
+        for (int from = 0; from < ROWS; from += ROWS_PER_TRANSACTION) {
+            begin(transactions);
+            try {
+                for (int i = from; i < Math.min(ROWS, from + ROWS_PER_TRANSACTION); i++) {
+                    pet.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+                    pet.put(PetEntry.COLUMN_PET_BREED_ID, (long) (i % 50 + 1));
+                    pet.put(PetEntry.COLUMN_PET_GENDER, i % 3);
+                    pet.put(PetEntry.COLUMN_PET_WEIGHT, i % 50);
+                    ids[i] = store.insert(pet);
+                }
+                succeed(transactions);
+            } finally {
+                end(transactions);
+            }
+        }
+        long inserts = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long[] id = new long[1];
+        for (int i = 0; i < ROWS; i++) {
+            id[0] = ids[i];
+            Cursor cursor = store.query(null, id);
+            try {
+                cursor.moveToFirst();
+            } finally {
+                cursor.close();
+            }
+        }
+        long lookups = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Cursor cursor = store.query(new String[]{PetEntry._ID, PetEntry.COLUMN_PET_NAME}, null);
+        int scanned = 0;
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getString(1);
+                scanned++;
+            }
+        } finally {
+            cursor.close();
+        }
+        long scan = System.nanoTime() - start;
+        assertEquals(ROWS, scanned);
+
+        ContentValues heavier = new ContentValues();
+        heavier.put(PetEntry.COLUMN_PET_WEIGHT, 51);
+        start = System.nanoTime();
+        for (int from = 0; from < ROWS; from += ROWS_PER_TRANSACTION) {
+            begin(transactions);
+            try {
+                store.update(Arrays.copyOfRange(ids, from, Math.min(ROWS, from + ROWS_PER_TRANSACTION)), heavier);
+                succeed(transactions);
+            } finally {
+                end(transactions);
+            }
+        }
+        long updates = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int from = 0; from < ROWS; from += ROWS_PER_TRANSACTION) {
+            begin(transactions);
+            try {
+                store.delete(Arrays.copyOfRange(ids, from, Math.min(ROWS, from + ROWS_PER_TRANSACTION)));
+                succeed(transactions);
+            } finally {
+                end(transactions);
+            }
+        }
+        long deletes = System.nanoTime() - start;
+        assertEquals(0, store.count());
+
+        Log.i(LOG_TAG, name + " store, " + ROWS + " pets per second: " + perSecond(ROWS, inserts) + " inserts, "
+                + perSecond(ROWS, lookups) + " lookups, " + perSecond(ROWS, scan) + " scanned, "
+                + perSecond(ROWS, updates) + " updates, " + perSecond(ROWS, deletes) + " deletes");
+    }
+
+    private static void begin(PetDatabase transactions) {
+        if (transactions != null) {
+            transactions.beginTransaction();
+        }
+    }
+
+    private static void succeed(PetDatabase transactions) {
+        if (transactions != null) {
+            transactions.setTransactionSuccessful();
+        }
+    }
+
+    private static void end(PetDatabase transactions) {
+        if (transactions != null) {
+            transactions.endTransaction();
+        }
+    }
+
+    private static long perSecond(int count, long nanos) {
+        return nanos == 0 ? 0 : count * 1000000000L / nanos;
+    }
+}
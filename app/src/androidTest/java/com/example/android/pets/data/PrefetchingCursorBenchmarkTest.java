@@ -0,0 +1,152 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Frame times of a fling through a 100k-row pets table, read through a {@link PrefetchingCursor}
+ * and through the plain cursor of the query, on a device.
+ * <p>
+ * Each frame reads the summary columns of {@link #ROWS_PER_FRAME} rows and leaves the rest of the
+ * frame to the fill thread, as a list would. The pets are written to a scratch database, the real
+ * database is not touched.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PrefetchingCursorBenchmarkTest {
+
+    private static final String LOG_TAG = PrefetchingCursorBenchmarkTest.class.getSimpleName();
+
+    private static final int ROWS = 100000;
+    private static final int ROWS_PER_TRANSACTION = 1000;
+    private static final int BREEDS = 50;
+    /**
+     * A fling, about 25k rows a second
+     */
+    private static final int ROWS_PER_FRAME = 400;
+    private static final long FRAME_MILLIS = 16;
+
+    private static final String SCRATCH_NAME = "scroll-benchmark.db";
+    private static final String SCRATCH_ENCRYPTED_NAME = "scroll-benchmark-encrypted.db";
+
+    private Context mContext;
+    private PetDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mContext.deleteDatabase(SCRATCH_NAME);
+        mHelper = new PetDbHelper(mContext, SCRATCH_NAME, SCRATCH_ENCRYPTED_NAME, false, null);
+        PetDatabase db = mHelper.getWritableDatabase();
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (int i = 1; i <= BREEDS; i++) {
+                values.put(BreedEntry._ID, i);
+                values.put(BreedEntry.COLUMN_BREED_NAME, "Breed " + i);
+                db.insertOrThrow(BreedEntry.TABLE_NAME, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        values.clear();
+        for (int from = 0; from < ROWS; from += ROWS_PER_TRANSACTION) {
+            db.beginTransaction();
+            try {
+                for (int i = from; i < from + ROWS_PER_TRANSACTION; i++) {
+                    values.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+                    // Every tenth pet without a breed
+                    if (i % 10 == 0) {
+                        values.putNull(PetEntry.COLUMN_PET_BREED_ID);
+                    } else {
+                        values.put(PetEntry.COLUMN_PET_BREED_ID, 1 + i % BREEDS);
+                    }
+                    values.put(PetEntry.COLUMN_PET_GENDER, i % 3);
+                    values.put(PetEntry.COLUMN_PET_WEIGHT, i % 40);
+                    db.insertOrThrow(PetEntry.TABLE_NAME, null, values);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        mContext.deleteDatabase(SCRATCH_NAME);
+    }
+
+    @Test
+    public void prefetching() {
+        report("prefetching cursor", fling(new PrefetchingCursor(query())));
+    }
+
+    @Test
+    public void plain() {
+        report("plain cursor", fling(query()));
+    }
+
+    private Cursor query() {
+        Cursor cursor = mHelper.getReadableDatabase().query(PetEntry.VIEW_NAME, PetEntry.SUMMARY_PROJECTION,
+                null, null, null, null, PetEntry._ID);
+        // The provider fills the first window before it returns the cursor
+        assertEquals(ROWS, cursor.getCount());
+        return cursor;
+    }
+
+    /**
+     * @return Nanoseconds each frame spent reading its rows
+     */
+    private static long[] fling(Cursor cursor) {
+        long[] frameNanos = new long[ROWS / ROWS_PER_FRAME];
+        int columns = cursor.getColumnCount();
+        try {
+            for (int frame = 0; frame < frameNanos.length; frame++) {
+                long start = System.nanoTime();
+                for (int position = frame * ROWS_PER_FRAME; position < (frame + 1) * ROWS_PER_FRAME; position++) {
+                    assertTrue(cursor.moveToPosition(position));
+                    for (int column = 0; column < columns; column++) {
+                        if (cursor.getType(column) == Cursor.FIELD_TYPE_STRING) {
+                            cursor.getString(column);
+                        }
+                    }
+                }
+                frameNanos[frame] = System.nanoTime() - start;
+                SystemClock.sleep(Math.max(0, FRAME_MILLIS - frameNanos[frame] / 1000000));
+            }
+            assertFalse(cursor.moveToNext());
+        } finally {
+            cursor.close();
+        }
+        return frameNanos;
+    }
+
+    private static void report(String cursor, long[] frameNanos) {
+        Arrays.sort(frameNanos);
+        Log.i(LOG_TAG, cursor + ", fling over " + ROWS + " rows, frame time p50 "
+                + frameNanos[frameNanos.length / 2] / 1000 + "us, p99 "
+                + frameNanos[frameNanos.length * 99 / 100] / 1000 + "us, max "
+                + frameNanos[frameNanos.length - 1] / 1000 + "us");
+    }
+}
@@ -1,5 +1,6 @@
 package com.example.android.pets.adapter;
 
+import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.view.LayoutInflater;
@@ -9,7 +10,10 @@ import android.widget.CursorAdapter;
 import android.widget.TextView;
 
 import com.example.android.pets.R;
+import com.example.android.pets.data.BreedDictionary;
 import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetDetailCache;
+import com.example.android.pets.model.PetSchema;
 
 /**
  * {@link PetCursorAdapter} is an adapter for a list or grid view
@@ -18,6 +22,8 @@ import com.example.android.pets.data.PetContract;
  */
 public class PetCursorAdapter extends CursorAdapter {
 
+    private PetDetailCache detailCache;
+
     /**
      * Constructs a new {@link PetCursorAdapter}.
      *
@@ -28,6 +34,13 @@ public class PetCursorAdapter extends CursorAdapter {
         super(context, c, 0 /* flags */);
     }
 
+    /**
+     * @param detailCache Details shown once loaded, or null to only show the summary columns
+     */
+    public void setDetailCache(PetDetailCache detailCache) {
+        this.detailCache = detailCache;
+    }
+
     /**
      * Makes a new blank list item view. No data is set (or bound) to the views yet.
      *
@@ -59,20 +72,29 @@ public class PetCursorAdapter extends CursorAdapter {
         TextView tvName = view.findViewById(R.id.name);
         TextView tvSummary = view.findViewById(R.id.summary);
 
-        // Note: 11/25/2018 by sagar  Get the column indices for values
-        int columnName = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_NAME);
-        int columnBreed = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_BREED);
-
         // Note: 11/25/2018 by sagar  Use column indices to retrieve values
-        String petName = cursor.getString(columnName);
-        String petBreed = cursor.getString(columnBreed);
+        // The cursor is queried with the summary projection, so the columns are read by the
+        // positions generated with it. The other columns come from the detail cache.
+        String petName = cursor.getString(PetSchema.SUMMARY_INDEX_NAME);
+        // The rows only carry the breed id, every row of a breed shares the dictionary's name
+        String petBreed = cursor.isNull(PetSchema.SUMMARY_INDEX_BREED_ID)
+                ? null
+                : BreedDictionary.getInstance().getName(cursor.getLong(PetSchema.SUMMARY_INDEX_BREED_ID));
 
-        if (petBreed.isEmpty()){
+        if (petBreed == null || petBreed.isEmpty()){
             petBreed = context.getResources().getString(R.string.label_unknown_breed);
         }
 
+        // The weight is a detail, shown once the details of the row are loaded
+        ContentValues details = detailCache == null ? null : detailCache.get(cursor.getLong(PetSchema.SUMMARY_INDEX_ID));
+        Integer petWeight = details == null ? null : details.getAsInteger(PetContract.PetEntry.COLUMN_PET_WEIGHT);
+
         // Note: 11/25/2018 by sagar  set values to view
         tvName.setText(petName);
-        tvSummary.setText(petBreed);
+        if (petWeight == null) {
+            tvSummary.setText(petBreed);
+        } else {
+            tvSummary.setText(context.getString(R.string.catalog_summary_with_weight, petBreed, petWeight));
+        }
     }
 }
@@ -0,0 +1,188 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.support.v4.util.LongSparseArray;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory copy of the breeds table, shared by the whole process.
+ * <p>
+ * The pets table only stores the id of a breed. {@link PetProvider} translates breed names to ids
+ * through this dictionary when it writes, and lists resolve the ids of their rows back to names
+ * through {@link #getName(long)}, so every row of a breed shares one String instead of carrying
+ * its own copy through the cursor window and the heap. The names are also indexed by prefix for
+ * the breed autocomplete of the editor, see {@link #suggest(PetDatabase, String, int)}, which only
+ * suggests the breeds pets have. The provider keeps the number of pets of each breed up to date
+ * from the rows it inserts, updates and deletes, see {@link #countPets(long, int)}, so the pets
+ * table is only counted once, when the dictionary is loaded.
+ */
+public final class BreedDictionary {
+
+    private static final BreedDictionary sInstance = new BreedDictionary();
+
+    private final Map<String, Long> mIdsByName = new HashMap<>();
+    private final LongSparseArray<String> mNamesById = new LongSparseArray<>();
+    private final BreedPrefixIndex mPrefixIndex = new BreedPrefixIndex();
+    /**
+     * Breeds added by the running transaction, dropped again if it rolls back
+     */
+    private final List<String> mPendingNames = new ArrayList<>();
+    /**
+     * Number of pets of each breed id as committed, breeds without pets have none or 0
+     */
+    private final LongSparseArray<Integer> mPetCounts = new LongSparseArray<>();
+    /**
+     * Changes of the numbers of pets by the running transaction, applied once it commits
+     */
+    private final LongSparseArray<Integer> mPendingCounts = new LongSparseArray<>();
+    private boolean mLoaded;
+
+    private BreedDictionary() {
+    }
+
+    public static BreedDictionary getInstance() {
+        return sInstance;
+    }
+
+    /**
+     * @return The shared name of the breed, or null if the id is unknown to this process
+     */
+    public synchronized String getName(long id) {
+        return mNamesById.get(id);
+    }
+
+    public synchronized int size() {
+        return mNamesById.size();
+    }
+
+    /**
+     * @return Up to limit names of breeds that pets have, starting with the prefix, ignoring case,
+     * in alphabetical order. The dictionary keeps the breeds no pet has any more, so their ids
+     * stay valid, but they are not suggested.
+     */
+    synchronized List<String> suggest(PetDatabase db, String prefix, int limit) {
+        ensureLoaded(db);
+        return mPrefixIndex.suggest(prefix, limit, new BreedPrefixIndex.Filter() {
+            @Override
+            public boolean accept(String name) {
+                return mPetCounts.get(mIdsByName.get(name), 0) > 0;
+            }
+        });
+    }
+
+    /**
+     * Loads the breeds table, and the number of pets of each breed, the first time it is called.
+     * {@link PetProvider} calls it before handing out rows that reference breeds, and when a write
+     * transaction begins, before the write changes the numbers.
+     */
+    synchronized void ensureLoaded(PetDatabase db) {
+        if (mLoaded) {
+            return;
+        }
+        Cursor cursor = db.query(BreedEntry.TABLE_NAME,
+                new String[]{BreedEntry._ID, BreedEntry.COLUMN_BREED_NAME}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                put(cursor.getLong(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        // A scan of the pets_breed_id index
+        cursor = db.rawQuery("SELECT " + PetEntry.COLUMN_PET_BREED_ID + ", COUNT(*) FROM " + PetEntry.TABLE_NAME +
+                " WHERE " + PetEntry.COLUMN_PET_BREED_ID + " IS NOT NULL GROUP BY 1", null);
+        try {
+            while (cursor.moveToNext()) {
+                mPetCounts.put(cursor.getLong(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        mLoaded = true;
+    }
+
+    /**
+     * Adds pets to, or with a negative delta takes them from, the number of pets of the breed.
+     * Must be called inside a write transaction that ends with {@link #commit()} or
+     * {@link #rollback()}, after the dictionary is loaded.
+     */
+    synchronized void countPets(long breedId, int delta) {
+        mPendingCounts.put(breedId, mPendingCounts.get(breedId, 0) + delta);
+    }
+
+    /**
+     * Forgets every breed, they are loaded again from the next database passed in.
+     */
+    synchronized void clear() {
+        mIdsByName.clear();
+        mNamesById.clear();
+        mPrefixIndex.clear();
+        mPendingNames.clear();
+        mPetCounts.clear();
+        mPendingCounts.clear();
+        mLoaded = false;
+    }
+
+    /**
+     * Returns the id of the breed, inserting it into the breeds table if it is new. Must be called
+     * inside a write transaction that ends with {@link #commit()} or {@link #rollback()}.
+     */
+    synchronized long getOrCreateId(PetDatabase db, String name) {
+        ensureLoaded(db);
+        Long id = mIdsByName.get(name);
+        if (id != null) {
+            return id;
+        }
+        ContentValues values = new ContentValues();
+        values.put(BreedEntry.COLUMN_BREED_NAME, name);
+        long newId = db.insertOrThrow(BreedEntry.TABLE_NAME, null, values);
+        put(newId, name);
+        mPendingNames.add(name);
+        return newId;
+    }
+
+    /**
+     * A write transaction has been committed, keeping the breeds it added and the numbers of pets
+     * it changed.
+     */
+    synchronized void commit() {
+        mPendingNames.clear();
+        for (int i = 0; i < mPendingCounts.size(); i++) {
+            long breedId = mPendingCounts.keyAt(i);
+            mPetCounts.put(breedId, mPetCounts.get(breedId, 0) + mPendingCounts.valueAt(i));
+        }
+        mPendingCounts.clear();
+    }
+
+    /**
+     * The transaction that added the pending breeds has been rolled back, forget them and the
+     * numbers of pets it changed
+     */
+    synchronized void rollback() {
+        mPendingCounts.clear();
+        for (String name : mPendingNames) {
+            Long id = mIdsByName.remove(name);
+            if (id != null) {
+                mNamesById.remove(id);
+            }
+            mPrefixIndex.remove(name);
+        }
+        mPendingNames.clear();
+    }
+
+    private void put(long id, String name) {
+        mIdsByName.put(name, id);
+        mNamesById.put(id, name);
+        if (!name.isEmpty()) {
+            mPrefixIndex.add(name);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.example.android.pets.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Case insensitive prefix index over the breed names, for autocomplete.
+ * <p>
+ * Names are kept in two parallel arrays sorted by their lower case key, so the suggestions for a
+ * prefix are a binary search for the first key at or after the prefix followed by a scan of the
+ * keys that start with it: O(log n + k), k including the names the filter skips, and no allocation
+ * besides the result. Adding a name is an array copy, which is cheap for the few thousands of
+ * breeds there are.
+ * Not thread safe, {@link BreedDictionary} guards it.
+ */
+final class BreedPrefixIndex {
+
+    private String[] mKeys = new String[16];
+    private String[] mNames = new String[16];
+    private int mSize;
+
+    void add(String name) {
+        String key = toKey(name);
+        int index = search(key, name);
+        if (index >= 0) {
+            return;
+        }
+        index = -index - 1;
+        if (mSize == mKeys.length) {
+            mKeys = Arrays.copyOf(mKeys, mSize * 2);
+            mNames = Arrays.copyOf(mNames, mSize * 2);
+        }
+        System.arraycopy(mKeys, index, mKeys, index + 1, mSize - index);
+        System.arraycopy(mNames, index, mNames, index + 1, mSize - index);
+        mKeys[index] = key;
+        mNames[index] = name;
+        mSize++;
+    }
+
+    void remove(String name) {
+        int index = search(toKey(name), name);
+        if (index < 0) {
+            return;
+        }
+        System.arraycopy(mKeys, index + 1, mKeys, index, mSize - index - 1);
+        System.arraycopy(mNames, index + 1, mNames, index, mSize - index - 1);
+        mSize--;
+        mKeys[mSize] = null;
+        mNames[mSize] = null;
+    }
+
+    void clear() {
+        Arrays.fill(mKeys, 0, mSize, null);
+        Arrays.fill(mNames, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * @return Up to limit names starting with the prefix, ignoring case, in alphabetical order,
+     * skipping those the filter does not accept
+     */
+    List<String> suggest(String prefix, int limit, Filter filter) {
+        String key = toKey(prefix);
+        int index = search(key, "");
+        if (index < 0) {
+            index = -index - 1;
+        }
+        List<String> suggestions = new ArrayList<>(Math.min(limit, 16));
+        while (index < mSize && suggestions.size() < limit && mKeys[index].startsWith(key)) {
+            if (filter.accept(mNames[index])) {
+                suggestions.add(mNames[index]);
+            }
+            index++;
+        }
+        return suggestions;
+    }
+
+    /**
+     * Binary search by key, then by name for names that only differ by case.
+     *
+     * @return Index of the name, or (-(insertion point) - 1) like {@link Arrays#binarySearch}
+     */
+    private int search(String key, String name) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int compare = mKeys[mid].compareTo(key);
+            if (compare == 0) {
+                compare = mNames[mid].compareTo(name);
+            }
+            if (compare < 0) {
+                low = mid + 1;
+            } else if (compare > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static String toKey(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    interface Filter {
+
+        boolean accept(String name);
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
+import net.sqlcipher.database.SQLiteTransactionListener;
+
+/**
+ * {@link PetDatabase} of the encrypted mode, backed by SQLCipher.
+ * <p>
+ * Unlike the framework SQLite, SQLCipher keeps a single connection per database, so readers are
+ * serialized with each other and with the writer. {@link PetDbMetrics} shows this in the
+ * execution time of the queries.
+ */
+final class CipherPetDatabase implements PetDatabase {
+
+    private final SQLiteDatabase mDb;
+
+    CipherPetDatabase(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    SQLiteDatabase unwrap() {
+        return mDb;
+    }
+
+    @Override
+    public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+                        String groupBy, String having, String orderBy) {
+        return mDb.query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
+    }
+
+    @Override
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        return mDb.rawQuery(sql, selectionArgs);
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        mDb.execSQL(sql);
+    }
+
+    @Override
+    public void execSQL(String sql, Object[] bindArgs) {
+        mDb.execSQL(sql, bindArgs);
+    }
+
+    @Override
+    public long insert(String table, String nullColumnHack, ContentValues values) {
+        return mDb.insert(table, nullColumnHack, values);
+    }
+
+    @Override
+    public long insertOrThrow(String table, String nullColumnHack, ContentValues values) {
+        return mDb.insertOrThrow(table, nullColumnHack, values);
+    }
+
+    @Override
+    public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+        return mDb.update(table, values, whereClause, whereArgs);
+    }
+
+    @Override
+    public int delete(String table, String whereClause, String[] whereArgs) {
+        return mDb.delete(table, whereClause, whereArgs);
+    }
+
+    @Override
+    public void beginTransaction() {
+        mDb.beginTransaction();
+    }
+
+    @Override
+    public void beginTransactionWithListener(final TransactionListener listener) {
+        mDb.beginTransactionWithListener(new SQLiteTransactionListener() {
+            @Override
+            public void onBegin() {
+            }
+
+            @Override
+            public void onCommit() {
+                listener.onCommit();
+            }
+
+            @Override
+            public void onRollback() {
+                listener.onRollback();
+            }
+        });
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        mDb.setTransactionSuccessful();
+    }
+
+    @Override
+    public void endTransaction() {
+        mDb.endTransaction();
+    }
+
+    @Override
+    public boolean inTransaction() {
+        return mDb.inTransaction();
+    }
+
+    @Override
+    public Statement compileStatement(String sql) {
+        final SQLiteStatement statement = mDb.compileStatement(sql);
+        return new Statement() {
+            @Override
+            public void bindLong(int index, long value) {
+                statement.bindLong(index, value);
+            }
+
+            @Override
+            public void bindString(int index, String value) {
+                statement.bindString(index, value);
+            }
+
+            @Override
+            public void bindNull(int index) {
+                statement.bindNull(index);
+            }
+
+            @Override
+            public void clearBindings() {
+                statement.clearBindings();
+            }
+
+            @Override
+            public long executeInsert() {
+                return statement.executeInsert();
+            }
+
+            @Override
+            public int executeUpdateDelete() {
+                return (int) statement.executeUpdateDelete();
+            }
+
+            @Override
+            public void close() {
+                statement.close();
+            }
+        };
+    }
+
+    @Override
+    public long longForQuery(String sql, String[] selectionArgs) {
+        Cursor cursor = mDb.rawQuery(sql, selectionArgs);
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public long getPageSize() {
+        return mDb.getPageSize();
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Default {@link PetDbKeyProvider}. The database key is random, and stored in shared preferences
+ * wrapped by an AES key that never leaves the Android keystore.
+ * <p>
+ * Needs Marshmallow for AES keys in the keystore; older devices get no key and keep the database
+ * in plaintext, which {@link PetContract#METHOD_GET_STORAGE_STATE} reports. If the keystore entry
+ * is lost (e.g. the app data is restored onto another device), the encrypted database can not be
+ * opened any more.
+ */
+public class KeystoreKeyProvider implements PetDbKeyProvider {
+
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String WRAPPING_KEY_ALIAS = "pets_db_wrapping_key";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int GCM_TAG_BITS = 128;
+    private static final int KEY_BYTES = 32;
+
+    private static final String PREFS_NAME = "pets_db_key";
+    private static final String PREF_WRAPPED_KEY = "wrapped_key";
+    private static final String PREF_IV = "iv";
+
+    @Override
+    public byte[] getKey(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return null;
+        }
+        try {
+            return getOrCreateKey(context);
+        } catch (GeneralSecurityException | IOException e) {
+            throw new IllegalStateException("Can not read the pets database key", e);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static byte[] getOrCreateKey(Context context) throws GeneralSecurityException, IOException {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        SharedPreferences preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String wrappedKey = preferences.getString(PREF_WRAPPED_KEY, null);
+
+        if (wrappedKey != null) {
+            SecretKey wrappingKey = (SecretKey) keyStore.getKey(WRAPPING_KEY_ALIAS, null);
+            if (wrappingKey == null) {
+                // A new key would silently make the existing database unreadable
+                throw new IllegalStateException("The pets database wrapping key is gone");
+            }
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, wrappingKey, new GCMParameterSpec(GCM_TAG_BITS,
+                    Base64.decode(preferences.getString(PREF_IV, ""), Base64.NO_WRAP)));
+            return cipher.doFinal(Base64.decode(wrappedKey, Base64.NO_WRAP));
+        }
+
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(new KeyGenParameterSpec.Builder(WRAPPING_KEY_ALIAS,
+                KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build());
+        SecretKey wrappingKey = generator.generateKey();
+
+        byte[] key = new byte[KEY_BYTES];
+        new SecureRandom().nextBytes(key);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, wrappingKey);
+        byte[] wrapped = cipher.doFinal(key);
+        // commit() rather than apply(): the key must be on disk before anything is encrypted with it
+        if (!preferences.edit()
+                .putString(PREF_WRAPPED_KEY, Base64.encodeToString(wrapped, Base64.NO_WRAP))
+                .putString(PREF_IV, Base64.encodeToString(cipher.getIV(), Base64.NO_WRAP))
+                .commit()) {
+            throw new IOException("Can not store the pets database key");
+        }
+        return key;
+    }
+}
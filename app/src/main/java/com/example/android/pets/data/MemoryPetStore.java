@@ -0,0 +1,274 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Arrays;
+
+/**
+ * {@link PetStore} in memory, for scratch data that does not outlive the process.
+ * <p>
+ * The pets are kept in one primitive array per column, sorted by id, rather than one object per
+ * pet: a lookup is a binary search over the ids, a scan reads the arrays in order, and 100k pets
+ * cost a handful of arrays for the garbage collector. The nullable numbers have a mask of their
+ * NULLs beside them, any long is a valid id or hash. Ids are never reused, like those of the
+ * AUTOINCREMENT pets table. Every method is synchronized.
+ */
+final class MemoryPetStore implements PetStore {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private String[] mNames = new String[INITIAL_CAPACITY];
+    private long[] mBreedIds = new long[INITIAL_CAPACITY];
+    private boolean[] mBreedNulls = new boolean[INITIAL_CAPACITY];
+    private int[] mGenders = new int[INITIAL_CAPACITY];
+    private int[] mWeights = new int[INITIAL_CAPACITY];
+    private long[] mHashes = new long[INITIAL_CAPACITY];
+    private boolean[] mHashNulls = new boolean[INITIAL_CAPACITY];
+    private long[] mShelterIds = new long[INITIAL_CAPACITY];
+    private boolean[] mShelterNulls = new boolean[INITIAL_CAPACITY];
+    private int mSize;
+    /**
+     * Largest id ever stored, the next new pet gets the one after
+     */
+    private long mLastId;
+
+    @Override
+    public synchronized long insert(ContentValues values) {
+        if (!isValid(values, true)) {
+            return -1;
+        }
+        Long requestedId = values.getAsLong(PetEntry._ID);
+        long id = requestedId == null ? mLastId + 1 : requestedId;
+        int index = indexOf(id);
+        if (id <= 0 || index >= 0) {
+            return -1;
+        }
+        index = -index - 1;
+        ensureCapacity(mSize + 1);
+        if (index < mSize) {
+            move(index, index + 1, mSize - index);
+        }
+        mSize++;
+        mIds[index] = id;
+        mNames[index] = null;
+        mBreedIds[index] = 0;
+        mBreedNulls[index] = true;
+        mGenders[index] = PetEntry.GENDER_UNKNOWN;
+        mWeights[index] = 0;
+        mHashes[index] = 0;
+        mHashNulls[index] = true;
+        mShelterIds[index] = 0;
+        mShelterNulls[index] = true;
+        set(index, values);
+        mLastId = Math.max(mLastId, id);
+        return id;
+    }
+
+    /**
+     * @throws IllegalArgumentException If a value is not one of a column of the store, or breaks
+     *                                  a NOT NULL constraint, as SQLite would
+     */
+    @Override
+    public synchronized int update(long[] ids, ContentValues values) {
+        if (!isValid(values, false)) {
+            throw new IllegalArgumentException("Invalid values for pets: " + values);
+        }
+        int updated = 0;
+        for (long id : ids) {
+            int index = indexOf(id);
+            if (index >= 0) {
+                set(index, values);
+                updated++;
+            }
+        }
+        return updated;
+    }
+
+    @Override
+    public synchronized int delete(long[] ids) {
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        // One pass that moves every kept pet down over the deleted ones
+        int kept = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (Arrays.binarySearch(sorted, mIds[i]) >= 0) {
+                continue;
+            }
+            if (kept != i) {
+                move(i, kept, 1);
+            }
+            kept++;
+        }
+        int deleted = mSize - kept;
+        // Let the names go
+        Arrays.fill(mNames, kept, mSize, null);
+        mSize = kept;
+        return deleted;
+    }
+
+    /**
+     * @throws IllegalArgumentException If a column is not one of {@link #COLUMNS}
+     */
+    @Override
+    public synchronized Cursor query(String[] columns, long[] ids) {
+        if (columns == null) {
+            columns = COLUMNS;
+        }
+        for (String column : columns) {
+            if (!Arrays.asList(COLUMNS).contains(column)) {
+                throw new IllegalArgumentException("The pets have no column " + column);
+            }
+        }
+        if (ids == null) {
+            MatrixCursor cursor = new MatrixCursor(columns, mSize);
+            for (int index = 0; index < mSize; index++) {
+                addRow(cursor, columns, index);
+            }
+            return cursor;
+        }
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        MatrixCursor cursor = new MatrixCursor(columns, sorted.length);
+        for (int i = 0; i < sorted.length; i++) {
+            int index = indexOf(sorted[i]);
+            if (index >= 0 && (i == 0 || sorted[i] != sorted[i - 1])) {
+                addRow(cursor, columns, index);
+            }
+        }
+        return cursor;
+    }
+
+    @Override
+    public synchronized int count() {
+        return mSize;
+    }
+
+    /**
+     * @return The index of the pet, or -(insertion point) - 1 if there is none with the id
+     */
+    private int indexOf(long id) {
+        return Arrays.binarySearch(mIds, 0, mSize, id);
+    }
+
+    private void addRow(MatrixCursor cursor, String[] columns, int index) {
+        Object[] row = new Object[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            row[i] = value(columns[i], index);
+        }
+        cursor.addRow(row);
+    }
+
+    /**
+     * @param column One of {@link #COLUMNS}
+     * @return The value of the column of the pet at the index, null for NULL
+     */
+    private Object value(String column, int index) {
+        switch (column) {
+            case PetEntry._ID:
+                return mIds[index];
+            case PetEntry.COLUMN_PET_NAME:
+                return mNames[index];
+            case PetEntry.COLUMN_PET_BREED_ID:
+                return mBreedNulls[index] ? null : mBreedIds[index];
+            case PetEntry.COLUMN_PET_GENDER:
+                return mGenders[index];
+            case PetEntry.COLUMN_PET_WEIGHT:
+                return mWeights[index];
+            case PetEntry.COLUMN_PET_CONTENT_HASH:
+                return mHashNulls[index] ? null : mHashes[index];
+            case PetEntry.COLUMN_PET_SHELTER_ID:
+                return mShelterNulls[index] ? null : mShelterIds[index];
+            default:
+                throw new IllegalArgumentException("The pets have no column " + column);
+        }
+    }
+
+    /**
+     * Copies the values, which must be valid, into the pet at the index.
+     */
+    private void set(int index, ContentValues values) {
+        if (values.containsKey(PetEntry.COLUMN_PET_NAME)) {
+            mNames[index] = values.getAsString(PetEntry.COLUMN_PET_NAME);
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_BREED_ID)) {
+            Long breedId = values.getAsLong(PetEntry.COLUMN_PET_BREED_ID);
+            mBreedNulls[index] = breedId == null;
+            mBreedIds[index] = breedId == null ? 0 : breedId;
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_GENDER)) {
+            mGenders[index] = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)) {
+            mWeights[index] = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_CONTENT_HASH)) {
+            Long hash = values.getAsLong(PetEntry.COLUMN_PET_CONTENT_HASH);
+            mHashNulls[index] = hash == null;
+            mHashes[index] = hash == null ? 0 : hash;
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_SHELTER_ID)) {
+            Long shelterId = values.getAsLong(PetEntry.COLUMN_PET_SHELTER_ID);
+            mShelterNulls[index] = shelterId == null;
+            mShelterIds[index] = shelterId == null ? 0 : shelterId;
+        }
+    }
+
+    /**
+     * Moves the pets from one index to another, in every column.
+     */
+    private void move(int from, int to, int count) {
+        System.arraycopy(mIds, from, mIds, to, count);
+        System.arraycopy(mNames, from, mNames, to, count);
+        System.arraycopy(mBreedIds, from, mBreedIds, to, count);
+        System.arraycopy(mBreedNulls, from, mBreedNulls, to, count);
+        System.arraycopy(mGenders, from, mGenders, to, count);
+        System.arraycopy(mWeights, from, mWeights, to, count);
+        System.arraycopy(mHashes, from, mHashes, to, count);
+        System.arraycopy(mHashNulls, from, mHashNulls, to, count);
+        System.arraycopy(mShelterIds, from, mShelterIds, to, count);
+        System.arraycopy(mShelterNulls, from, mShelterNulls, to, count);
+    }
+
+    /**
+     * @return true if every value is of a column of the store, the gender and weight, which are
+     * NOT NULL, are numbers, and only an insert gives an id
+     */
+    private static boolean isValid(ContentValues values, boolean insert) {
+        for (String key : values.keySet()) {
+            if (!Arrays.asList(COLUMNS).contains(key)) {
+                return false;
+            }
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_GENDER)
+                && values.getAsInteger(PetEntry.COLUMN_PET_GENDER) == null) {
+            return false;
+        }
+        if (values.containsKey(PetEntry.COLUMN_PET_WEIGHT)
+                && values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT) == null) {
+            return false;
+        }
+        return insert || !values.containsKey(PetEntry._ID);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length * 2);
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mNames = Arrays.copyOf(mNames, newCapacity);
+        mBreedIds = Arrays.copyOf(mBreedIds, newCapacity);
+        mBreedNulls = Arrays.copyOf(mBreedNulls, newCapacity);
+        mGenders = Arrays.copyOf(mGenders, newCapacity);
+        mWeights = Arrays.copyOf(mWeights, newCapacity);
+        mHashes = Arrays.copyOf(mHashes, newCapacity);
+        mHashNulls = Arrays.copyOf(mHashNulls, newCapacity);
+        mShelterIds = Arrays.copyOf(mShelterIds, newCapacity);
+        mShelterNulls = Arrays.copyOf(mShelterNulls, newCapacity);
+    }
+}
@@ -0,0 +1,161 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A query against {@link PetProvider} whose typed results can be observed, as a replacement for
+ * the framework {@link android.content.CursorLoader}.
+ * <p>
+ * Every subscription registers a {@link ContentObserver} on the query URI only, so a change to
+ * another pet row does not wake it up. The query is recomputed on a background thread, bursts of
+ * notifications are coalesced into one requery, and the observer is called back on the main
+ * thread only if the mapped result differs from the last one it received.
+ *
+ * @param <T> Type every row of the result is mapped to
+ */
+public final class ObservableQuery<T> {
+
+    /**
+     * Maps the current row of a cursor to a typed value.
+     */
+    public interface RowMapper<T> {
+        T map(Cursor cursor);
+    }
+
+    /**
+     * Receives the results of the query on the main thread.
+     */
+    public interface Observer<T> {
+        void onChanged(List<T> results);
+    }
+
+    /**
+     * Handle returned by {@link #subscribe(Observer)}.
+     */
+    public interface Subscription {
+        void unsubscribe();
+    }
+
+    /**
+     * All the queries share one worker, so recomputations never race each other
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final String[] mProjection;
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+    private final String mSortOrder;
+    private final RowMapper<T> mMapper;
+
+    public ObservableQuery(ContentResolver resolver, Uri uri, String[] projection, String selection,
+                           String[] selectionArgs, String sortOrder, RowMapper<T> mapper) {
+        mResolver = resolver;
+        mUri = uri;
+        mProjection = projection;
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+        mSortOrder = sortOrder;
+        mMapper = mapper;
+    }
+
+    /**
+     * Runs the query once right away and then again every time the data behind the query URI
+     * changes, until the returned subscription is unsubscribed.
+     */
+    public Subscription subscribe(Observer<T> observer) {
+        QuerySubscription subscription = new QuerySubscription(observer);
+        // Descendants are observed too, so a list query hears about changes of single rows
+        mResolver.registerContentObserver(mUri, true, subscription.mContentObserver);
+        subscription.requery();
+        return subscription;
+    }
+
+    private List<T> load() {
+        Cursor cursor = mResolver.query(mUri, mProjection, mSelection, mSelectionArgs, mSortOrder);
+        if (cursor == null) {
+            return Collections.emptyList();
+        }
+        try {
+            List<T> results = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                results.add(mMapper.map(cursor));
+            }
+            return results;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private final class QuerySubscription implements Subscription {
+
+        private final Observer<T> mObserver;
+        private final AtomicBoolean mRequeryPending = new AtomicBoolean();
+        private volatile boolean mUnsubscribed;
+        /**
+         * Last result delivered to the observer, only touched on the worker thread
+         */
+        private List<T> mLastResults;
+
+        private final ContentObserver mContentObserver = new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                requery();
+            }
+        };
+
+        private final Runnable mLoadTask = new Runnable() {
+            @Override
+            public void run() {
+                // Clear the flag before loading, so a change during the load schedules another one
+                mRequeryPending.set(false);
+                if (mUnsubscribed) {
+                    return;
+                }
+                final List<T> results = load();
+                if (results.equals(mLastResults)) {
+                    return;
+                }
+                mLastResults = results;
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!mUnsubscribed) {
+                            mObserver.onChanged(Collections.unmodifiableList(results));
+                        }
+                    }
+                });
+            }
+        };
+
+        QuerySubscription(Observer<T> observer) {
+            mObserver = observer;
+        }
+
+        void requery() {
+            if (!mUnsubscribed && mRequeryPending.compareAndSet(false, true)) {
+                sExecutor.execute(mLoadTask);
+            }
+        }
+
+        @Override
+        public void unsubscribe() {
+            mUnsubscribed = true;
+            mResolver.unregisterContentObserver(mContentObserver);
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package com.example.android.pets.data;
+
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+import android.support.v4.util.AtomicFile;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Read-only reference catalog of pets, in a compact binary file that is mapped into memory rather
+ * than loaded.
+ * <p>
+ * The file starts with a header, followed by the sorted ids of the pets, which are the index
+ * searched by id, then one fixed width record per pet in the same order, and a pool of the UTF-8
+ * bytes of the strings, each distinct string stored once. A record holds the gender, the weight,
+ * and the offset and length of the name and the breed in the pool:
+ * <pre>
+ * header   int magic, int version, int row count, int pool size
+ * ids      long[row count], ascending
+ * records  row count * (int name offset, int name length, int breed offset, int breed length,
+ *                       int gender, int weight)
+ * pool     byte[pool size]
+ * </pre>
+ * A null string has a length of -1. Every value is read in place from the mapped file, see
+ * {@link PetCatalogCursor}. The file is distributed to kiosks from outside the app, so opening it
+ * checks that every string of every record lies within the pool, and decoding a string never reads
+ * past its end whatever bytes it holds.
+ */
+final class PetCatalog {
+
+    /**
+     * Columns of the catalog, the same as those of the pets view
+     */
+    static final String[] COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT};
+
+    /**
+     * Name of the catalog file in the files directory, where kiosks install the distributed copy
+     */
+    static final String FILE_NAME = "pets.catalog";
+
+    static final int COLUMN_ID = 0;
+    static final int COLUMN_NAME = 1;
+    static final int COLUMN_BREED = 2;
+    static final int COLUMN_GENDER = 3;
+    static final int COLUMN_WEIGHT = 4;
+
+    private static final int MAGIC = 0x50455443;
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int RECORD_SIZE = 24;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    /**
+     * Decoded in place of a UTF-8 sequence cut short by the end of its string
+     */
+    private static final char REPLACEMENT_CHAR = '\ufffd';
+
+    private static final PetCatalog EMPTY = new PetCatalog(ByteBuffer.allocate(0), 0);
+
+    /**
+     * The mapped file. Only read with absolute gets, so the cursors of every thread share it.
+     */
+    private final ByteBuffer mBuffer;
+    private final int mRowCount;
+    private final int mRecordsOffset;
+    private final int mPoolOffset;
+
+    private PetCatalog(ByteBuffer buffer, int rowCount) {
+        mBuffer = buffer;
+        mRowCount = rowCount;
+        mRecordsOffset = HEADER_SIZE + rowCount * 8;
+        mPoolOffset = mRecordsOffset + rowCount * RECORD_SIZE;
+    }
+
+    /**
+     * @return The catalog without any pet, served when none has been exported yet
+     */
+    static PetCatalog empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Maps the catalog file. The mapping stays valid after the file is replaced, so the cursors
+     * of an old catalog keep working.
+     *
+     * @throws IOException If the file does not exist or is not a catalog
+     */
+    static PetCatalog open(AtomicFile file) throws IOException {
+        FileInputStream in = file.openRead();
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not a pets catalog");
+            }
+            if (buffer.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Unsupported pets catalog version " + buffer.getInt(4));
+            }
+            int rowCount = buffer.getInt(8);
+            int poolSize = buffer.getInt(12);
+            long expectedSize = HEADER_SIZE + (long) rowCount * (8 + RECORD_SIZE) + poolSize;
+            if (rowCount < 0 || poolSize < 0 || expectedSize != buffer.capacity()) {
+                throw new IOException("Truncated pets catalog");
+            }
+            PetCatalog catalog = new PetCatalog(buffer, rowCount);
+            for (int row = 0; row < rowCount; row++) {
+                catalog.checkString(row, 0, poolSize);
+                catalog.checkString(row, 2, poolSize);
+            }
+            return catalog;
+        } finally {
+            // The mapping does not need the stream
+            in.close();
+        }
+    }
+
+    /**
+     * @param first Field of the offset of the string in the record, followed by its length
+     * @throws IOException If the string is not null and does not lie within the pool
+     */
+    private void checkString(int row, int first, int poolSize) throws IOException {
+        int offset = mBuffer.getInt(field(row, first));
+        int length = mBuffer.getInt(field(row, first + 1));
+        if (length < -1 || length >= 0 && (offset < 0 || (long) offset + length > poolSize)) {
+            throw new IOException("Corrupt pets catalog, string out of the pool at row " + row);
+        }
+    }
+
+    /**
+     * @return The {@link #COLUMNS} of every pet, in the order {@link #write} takes them
+     */
+    static Cursor queryPets(PetDatabase db) {
+        return db.query(PetEntry.VIEW_NAME, COLUMNS, null, null, null, null, PetEntry._ID);
+    }
+
+    /**
+     * Writes every pet of the cursor to the catalog file, replacing it.
+     *
+     * @param pets The {@link #COLUMNS} of the pets, in this order, ascending by id
+     * @return The number of pets written
+     */
+    static int write(Cursor pets, AtomicFile file) throws IOException {
+        int rowCount = pets.getCount();
+        long[] ids = new long[rowCount];
+        int[] records = new int[rowCount * RECORD_SIZE / 4];
+        ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        Map<String, Integer> pooled = new HashMap<>();
+
+        int row = 0;
+        while (pets.moveToNext()) {
+            ids[row] = pets.getLong(COLUMN_ID);
+            int record = row * RECORD_SIZE / 4;
+            pool(pets.isNull(COLUMN_NAME) ? null : pets.getString(COLUMN_NAME), pool, pooled, records, record);
+            pool(pets.isNull(COLUMN_BREED) ? null : pets.getString(COLUMN_BREED), pool, pooled, records, record + 2);
+            records[record + 4] = pets.getInt(COLUMN_GENDER);
+            records[record + 5] = pets.getInt(COLUMN_WEIGHT);
+            row++;
+        }
+
+        FileOutputStream stream = file.startWrite();
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(rowCount);
+            out.writeInt(pool.size());
+            for (long id : ids) {
+                out.writeLong(id);
+            }
+            for (int value : records) {
+                out.writeInt(value);
+            }
+            pool.writeTo(out);
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            file.failWrite(stream);
+            throw e;
+        }
+        return rowCount;
+    }
+
+    /**
+     * Stores the offset and the length of the string in the pool at records[index] and
+     * records[index + 1], adding it to the pool if it is not there yet.
+     */
+    private static void pool(String value, ByteArrayOutputStream pool, Map<String, Integer> pooled,
+                             int[] records, int index) {
+        if (value == null) {
+            records[index + 1] = -1;
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        Integer offset = pooled.get(value);
+        if (offset == null) {
+            offset = pool.size();
+            pool.write(bytes, 0, bytes.length);
+            pooled.put(value, offset);
+        }
+        records[index] = offset;
+        records[index + 1] = bytes.length;
+    }
+
+    int getRowCount() {
+        return mRowCount;
+    }
+
+    /**
+     * @return The row of the pet, or -1 if it is not in the catalog
+     */
+    int indexOf(long id) {
+        int low = 0;
+        int high = mRowCount - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midId = mBuffer.getLong(HEADER_SIZE + mid * 8);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    long getId(int row) {
+        return mBuffer.getLong(HEADER_SIZE + row * 8);
+    }
+
+    /**
+     * @param column {@link #COLUMN_GENDER} or {@link #COLUMN_WEIGHT}
+     */
+    int getInt(int row, int column) {
+        return mBuffer.getInt(field(row, column == COLUMN_GENDER ? 4 : 5));
+    }
+
+    /**
+     * @param column {@link #COLUMN_NAME} or {@link #COLUMN_BREED}
+     */
+    boolean isNull(int row, int column) {
+        return mBuffer.getInt(field(row, column == COLUMN_NAME ? 1 : 3)) < 0;
+    }
+
+    /**
+     * @param column {@link #COLUMN_NAME} or {@link #COLUMN_BREED}
+     * @return Number of UTF-8 bytes of the string, which is at least its number of chars
+     */
+    int getUtf8Length(int row, int column) {
+        return Math.max(0, mBuffer.getInt(field(row, column == COLUMN_NAME ? 1 : 3)));
+    }
+
+    /**
+     * Decodes the string into the chars, which must have room for {@link #getUtf8Length} of them.
+     * A sequence cut short by the end of the string decodes to U+FFFD.
+     *
+     * @param column {@link #COLUMN_NAME} or {@link #COLUMN_BREED}
+     * @return The number of chars decoded
+     */
+    int getChars(int row, int column, char[] chars) {
+        int first = column == COLUMN_NAME ? 0 : 2;
+        int position = mPoolOffset + mBuffer.getInt(field(row, first));
+        int end = position + Math.max(0, mBuffer.getInt(field(row, first + 1)));
+        int count = 0;
+        while (position < end) {
+            int b = mBuffer.get(position++) & 0xff;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (position + (b < 0xe0 ? 1 : b < 0xf0 ? 2 : 3) > end) {
+                chars[count++] = REPLACEMENT_CHAR;
+                break;
+            } else if (b < 0xe0) {
+                chars[count++] = (char) (((b & 0x1f) << 6) | (mBuffer.get(position++) & 0x3f));
+            } else if (b < 0xf0) {
+                chars[count++] = (char) (((b & 0x0f) << 12) | ((mBuffer.get(position++) & 0x3f) << 6)
+                        | (mBuffer.get(position++) & 0x3f));
+            } else {
+                // Outside of the BMP, 4 bytes make 2 chars
+                int codePoint = ((b & 0x07) << 18) | ((mBuffer.get(position++) & 0x3f) << 12)
+                        | ((mBuffer.get(position++) & 0x3f) << 6) | (mBuffer.get(position++) & 0x3f);
+                chars[count++] = (char) (0xd800 + ((codePoint - 0x10000) >>> 10));
+                chars[count++] = (char) (0xdc00 + ((codePoint - 0x10000) & 0x3ff));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Decodes the string into the buffer, growing its array only when it is too small.
+     */
+    void copyChars(int row, int column, CharArrayBuffer buffer) {
+        int length = getUtf8Length(row, column);
+        if (buffer.data == null || buffer.data.length < length) {
+            buffer.data = new char[length];
+        }
+        buffer.sizeCopied = getChars(row, column, buffer.data);
+    }
+
+    /**
+     * @return The position of the column among the {@link #COLUMNS}, or -1 if it is not one of them
+     */
+    static int indexOfColumn(String name) {
+        return Arrays.asList(COLUMNS).indexOf(name);
+    }
+
+    private int field(int row, int field) {
+        return mRecordsOffset + row * RECORD_SIZE + field * 4;
+    }
+}
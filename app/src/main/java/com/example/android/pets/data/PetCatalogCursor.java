@@ -0,0 +1,148 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.CharArrayBuffer;
+import android.database.Cursor;
+
+/**
+ * Cursor over a range of the rows of a {@link PetCatalog}.
+ * <p>
+ * Values are read from the mapped file when they are asked for, nothing is copied when the cursor
+ * moves, so a list scrolling through the catalog does not allocate per row. Strings are decoded
+ * into a String by {@link #getString(int)}, or into the caller's buffer, without any allocation,
+ * by {@link #copyStringToBuffer(int, CharArrayBuffer)}.
+ */
+final class PetCatalogCursor extends AbstractCursor {
+
+    private final PetCatalog mCatalog;
+    private final int mFirst;
+    private final int mCount;
+    private final String[] mColumnNames;
+    /**
+     * Catalog column of each column of the cursor
+     */
+    private final int[] mColumns;
+    /**
+     * Reused by {@link #getString(int)} to decode the strings before they are copied into a String
+     */
+    private char[] mChars = new char[32];
+
+    /**
+     * @param projection Columns among {@link PetCatalog#COLUMNS}, or null for all of them
+     */
+    PetCatalogCursor(PetCatalog catalog, int first, int count, String[] projection) {
+        mCatalog = catalog;
+        mFirst = first;
+        mCount = count;
+        mColumnNames = projection == null ? PetCatalog.COLUMNS : projection;
+        mColumns = new int[mColumnNames.length];
+        for (int i = 0; i < mColumnNames.length; i++) {
+            mColumns[i] = PetCatalog.indexOfColumn(mColumnNames[i]);
+            if (mColumns[i] < 0) {
+                throw new IllegalArgumentException("The catalog has no column " + mColumnNames[i]);
+            }
+        }
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public int getType(int column) {
+        switch (mColumns[column]) {
+            case PetCatalog.COLUMN_NAME:
+            case PetCatalog.COLUMN_BREED:
+                return isNull(column) ? Cursor.FIELD_TYPE_NULL : Cursor.FIELD_TYPE_STRING;
+            default:
+                return Cursor.FIELD_TYPE_INTEGER;
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        int catalogColumn = mColumns[column];
+        return (catalogColumn == PetCatalog.COLUMN_NAME || catalogColumn == PetCatalog.COLUMN_BREED)
+                && mCatalog.isNull(row(), catalogColumn);
+    }
+
+    @Override
+    public String getString(int column) {
+        int catalogColumn = mColumns[column];
+        switch (catalogColumn) {
+            case PetCatalog.COLUMN_NAME:
+            case PetCatalog.COLUMN_BREED:
+                int row = row();
+                if (mCatalog.isNull(row, catalogColumn)) {
+                    return null;
+                }
+                int length = mCatalog.getUtf8Length(row, catalogColumn);
+                if (mChars.length < length) {
+                    mChars = new char[length];
+                }
+                return new String(mChars, 0, mCatalog.getChars(row, catalogColumn, mChars));
+            default:
+                return String.valueOf(getLong(column));
+        }
+    }
+
+    @Override
+    public void copyStringToBuffer(int column, CharArrayBuffer buffer) {
+        int catalogColumn = mColumns[column];
+        if (catalogColumn == PetCatalog.COLUMN_NAME || catalogColumn == PetCatalog.COLUMN_BREED) {
+            mCatalog.copyChars(row(), catalogColumn, buffer);
+        } else {
+            super.copyStringToBuffer(column, buffer);
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        switch (mColumns[column]) {
+            case PetCatalog.COLUMN_ID:
+                return mCatalog.getId(row());
+            case PetCatalog.COLUMN_GENDER:
+            case PetCatalog.COLUMN_WEIGHT:
+                return mCatalog.getInt(row(), mColumns[column]);
+            default:
+                // Like SQLite, a string that is not a number reads as 0
+                String value = getString(column);
+                try {
+                    return value == null ? 0 : Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+        }
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    private int row() {
+        checkPosition();
+        return mFirst + mPos;
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.pets.data;
+
+import java.util.Locale;
+
+/**
+ * Normalized content hash of a pet, used to find duplicates with one indexed lookup.
+ * <p>
+ * Two pets are duplicates when their name, breed, gender and weight are the same once the text
+ * is trimmed, lower cased and inner whitespace is collapsed. The hash is a 64 bit FNV-1a over the
+ * normalized fields; a match on the hash is confirmed by comparing the fields themselves.
+ */
+final class PetContentHash {
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private PetContentHash() {
+    }
+
+    static long compute(String name, String breed, int gender, int weight) {
+        long hash = FNV_OFFSET_BASIS;
+        hash = mix(hash, normalize(name));
+        hash = mix(hash, normalize(breed));
+        hash = mix(hash, gender);
+        hash = mix(hash, weight);
+        return hash;
+    }
+
+    /**
+     * @return The text trimmed, lower cased and with runs of whitespace collapsed to one space,
+     * "" for null
+     */
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder normalized = new StringBuilder(text.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+            } else {
+                if (pendingSpace) {
+                    normalized.append(' ');
+                    pendingSpace = false;
+                }
+                normalized.append(c);
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+
+    private static long mix(long hash, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            hash = (hash ^ (c & 0xff)) * FNV_PRIME;
+            hash = (hash ^ (c >>> 8)) * FNV_PRIME;
+        }
+        // Field separator, so ("ab", "c") and ("a", "bc") hash differently
+        return (hash ^ 0xff) * FNV_PRIME;
+    }
+
+    private static long mix(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash = (hash ^ ((value >>> shift) & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
@@ -1,9 +1,12 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
 
+import com.example.android.pets.model.PetSchema;
+
 // Note: 11/23/2018 by sagar  Inspiration:
 // store: https://gist.github.com/udacityandroid/ae83549fb0599bbdbb25ac179415b83c
 // pets: https://github.com/udacity/ud845-Pets/blob/631efa27c1/app/src/main/java/com/example/android/pets/data/PetContract.java
@@ -47,6 +50,175 @@ public final class PetContract implements BaseColumns {
      */
     public static final String PATH_PETS_ID = "pets/#";
 
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/pets/3/history is a valid path for
+     * looking at every recorded state of the pet with id 3.
+     */
+    public static final String PATH_PETS_ID_HISTORY = "pets/#/history";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/pets/duplicates is a valid path for
+     * looking at the groups of pets that are likely duplicates of each other.
+     */
+    public static final String PATH_PET_DUPLICATES = "pets/duplicates";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/pets/near?lat=52.37&lon=4.89 is a valid
+     * path for looking at the pets of the shelters nearest to a location, nearest first.
+     */
+    public static final String PATH_PETS_NEAR = "pets/near";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/pets/details?ids=3,4,5 is a valid path for
+     * looking at the detail columns of a batch of pets.
+     */
+    public static final String PATH_PET_DETAILS = "pets/details";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/shelters is a valid path for looking at
+     * the shelters the pets are kept in.
+     */
+    public static final String PATH_SHELTERS = "shelters";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/catalog is a valid path for looking at the
+     * pets of the read-only reference catalog.
+     */
+    public static final String PATH_CATALOG = "catalog";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/catalog/3 is a valid path for looking at
+     * the pet with id 3 of the read-only reference catalog.
+     */
+    public static final String PATH_CATALOG_ID = "catalog/#";
+
+    /**
+     * Last path segment of {@link #PATH_PETS_ID_HISTORY}
+     */
+    public static final String PATH_HISTORY = "history";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/rollups/weight?bucket=weekly is a valid
+     * path for looking at the weekly weight aggregates of every breed.
+     */
+    public static final String PATH_WEIGHT_ROLLUPS = "rollups/weight";
+
+    /**
+     * Possible path (appended to base content URI for possible URI's)
+     * For instance, content://com.example.android.pets/breeds/suggest?prefix=te is a valid path
+     * for looking at the known breeds starting with "te".
+     */
+    public static final String PATH_BREED_SUGGESTIONS = "breeds/suggest";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that returns the per-operation contention and latency metrics of the provider as a Bundle.
+     */
+    public static final String METHOD_GET_METRICS = "get_metrics";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that clears the provider metrics, e.g. before a stress run.
+     */
+    public static final String METHOD_RESET_METRICS = "reset_metrics";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that recomputes the weight rollups from the pet history, from the first week it has not
+     * compacted on.
+     */
+    public static final String METHOD_REBUILD_ROLLUPS = "rebuild_rollups";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that rewrites the {@link PetSummarySnapshot} in the background, e.g. when it does not exist yet.
+     */
+    public static final String METHOD_REFRESH_SUMMARY = "refresh_summary";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that runs the database maintenance (ANALYZE, incremental vacuum, integrity check) on the
+     * calling thread and returns its report, or null if a run is already in progress.
+     */
+    public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that stops the running maintenance after its current chunk.
+     */
+    public static final String METHOD_CANCEL_MAINTENANCE = "cancel_maintenance";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that returns the report of the last maintenance run: how long it took, how many bytes it
+     * reclaimed and the longest one of its chunks kept the writers out.
+     */
+    public static final String METHOD_GET_MAINTENANCE_REPORT = "get_maintenance_report";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that writes the pets table to the reference catalog file served by {@link CatalogEntry},
+     * replacing it, and returns the number of pets written. Not available when the database is
+     * encrypted, the catalog file is not.
+     */
+    public static final String METHOD_EXPORT_CATALOG = "export_catalog";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that undoes the last insert, update, delete or batch of pets, restoring the rows with their
+     * ids. Returns the number of pets changed and the {@link #METHOD_GET_UNDO_STATE} extras.
+     */
+    public static final String METHOD_UNDO = "undo";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that redoes the last undone change, with the same result as {@link #METHOD_UNDO}.
+     */
+    public static final String METHOD_REDO = "redo";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that tells whether there is something to undo and to redo, in {@link #EXTRA_CAN_UNDO} and
+     * {@link #EXTRA_CAN_REDO}.
+     */
+    public static final String METHOD_GET_UNDO_STATE = "get_undo_state";
+
+    /**
+     * Key of the number of pets in the Bundle returned by {@link #METHOD_EXPORT_CATALOG},
+     * {@link #METHOD_UNDO} and {@link #METHOD_REDO}
+     */
+    public static final String EXTRA_PET_COUNT = "pet_count";
+
+    public static final String EXTRA_CAN_UNDO = "can_undo";
+    public static final String EXTRA_CAN_REDO = "can_redo";
+
+    /**
+     * {@link android.content.ContentResolver#call(Uri, String, String, android.os.Bundle)} method
+     * that tells how the database is stored, in {@link #EXTRA_ENCRYPTED} and
+     * {@link #EXTRA_ENCRYPTION_UNAVAILABLE}. Opens the database, so not for the UI thread.
+     */
+    public static final String METHOD_GET_STORAGE_STATE = "get_storage_state";
+
+    public static final String EXTRA_ENCRYPTED = "encrypted";
+    /**
+     * True when the encrypted mode is turned on but this device has no key for it, so the pets
+     * are stored in plaintext
+     */
+    public static final String EXTRA_ENCRYPTION_UNAVAILABLE = "encryption_unavailable";
+
+    /**
+     * Broadcast sent within the app once the {@link PetSummarySnapshot} has been rewritten.
+     */
+    public static final String ACTION_SUMMARY_CHANGED = CONTENT_AUTHORITY + ".action.SUMMARY_CHANGED";
+
     /**
      * Helper class to identify requested query type for the database operation to ease validation process
      */
@@ -82,19 +254,352 @@ public final class PetContract implements BaseColumns {
         public static final String CONTENT_ITEM_TYPE =
                 ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS;
 
+        /** The content URI of the groups of likely duplicate pets */
+        public static final Uri DUPLICATES_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PET_DUPLICATES);
+
+        /**
+         * The MIME type of the {@link #DUPLICATES_URI}.
+         */
+        public static final String CONTENT_DUPLICATES_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PET_DUPLICATES;
+
+        /**
+         * Query parameter of the {@link #CONTENT_URI} for inserts, "true" or "false". When true, a
+         * pet with the same name, breed, gender and weight as an existing one is not inserted and
+         * the URI of the existing pet is returned instead. Off by default for
+         * {@link ContentResolver#insert}, on by default for {@link ContentResolver#bulkInsert}.
+         */
+        public static final String PARAM_SKIP_DUPLICATES = "skip_duplicates";
+
+        /** The content URI of the pets nearest to a location */
+        public static final Uri NEAR_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS_NEAR);
+
+        /**
+         * The MIME type of the {@link #NEAR_URI}.
+         */
+        public static final String CONTENT_NEAR_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PETS_NEAR;
+
+        /**
+         * Query parameters of the {@link #NEAR_URI}, the location in degrees
+         */
+        public static final String PARAM_LATITUDE = "lat";
+        public static final String PARAM_LONGITUDE = "lon";
+
+        /**
+         * Query parameter of the {@link #NEAR_URI}, maximum number of pets
+         */
+        public static final String PARAM_LIMIT = "limit";
+        public static final int DEFAULT_NEAR_LIMIT = 50;
+
+        /**
+         * Query parameter of the {@link #NEAR_URI}, pets of shelters farther away are left out
+         */
+        public static final String PARAM_RADIUS_KM = "radius_km";
+        public static final double DEFAULT_NEAR_RADIUS_KM = 50;
+
+        /** The content URI of the detail columns of a batch of pets */
+        public static final Uri DETAILS_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PET_DETAILS);
+
+        /**
+         * The MIME type of the {@link #DETAILS_URI}.
+         */
+        public static final String CONTENT_DETAILS_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PET_DETAILS;
+
+        /**
+         * Query parameter of the {@link #DETAILS_URI}, the comma separated ids of the pets
+         */
+        public static final String PARAM_IDS = "ids";
+        /**
+         * Most pets of one {@link #DETAILS_URI} query
+         */
+        public static final int MAX_DETAIL_IDS = 500;
 
         public static final String TABLE_NAME = "pets";
+        /**
+         * The pets with their breed name, as the provider serves them
+         */
+        public static final String VIEW_NAME = "pets_view";
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_PET_NAME = "name";
+        /**
+         * Name of the breed. Not stored in the pets table, which only keeps {@link #COLUMN_PET_BREED_ID}.
+         */
         public static final String COLUMN_PET_BREED = "breed";
+        /**
+         * Id of the breed in the breeds table. Lists should project this column and resolve it
+         * through {@link BreedDictionary} rather than project {@link #COLUMN_PET_BREED}.
+         */
+        public static final String COLUMN_PET_BREED_ID = "breed_id";
         public static final String COLUMN_PET_GENDER = "gender";
         public static final String COLUMN_PET_WEIGHT = "weight";
+        /**
+         * Hash of the normalized name, breed, gender and weight, maintained by the provider. Only
+         * in the pets table, not in the view.
+         */
+        public static final String COLUMN_PET_CONTENT_HASH = "content_hash";
+        /**
+         * Id of the shelter the pet is kept in, null if unknown
+         */
+        public static final String COLUMN_PET_SHELTER_ID = "shelter_id";
+        /**
+         * Column of the {@link #NEAR_URI}, name of the shelter of the pet
+         */
+        public static final String COLUMN_SHELTER_NAME = "shelter_name";
+        /**
+         * Column of the {@link #NEAR_URI}, distance from the location to the shelter of the pet
+         */
+        public static final String COLUMN_DISTANCE_KM = "distance_km";
+
+        /**
+         * Narrow columns every row of a list is loaded with, see {@link #DETAIL_PROJECTION}. Read
+         * back by the generated {@link PetSchema}.SUMMARY_INDEX_* positions.
+         */
+        public static final String[] SUMMARY_PROJECTION = PetSchema.SUMMARY_PROJECTION;
+        /**
+         * Columns of the {@link #DETAILS_URI}, loaded only for the pets on screen. Wide columns
+         * belong here rather than in {@link #SUMMARY_PROJECTION}.
+         */
+        public static final String[] DETAIL_PROJECTION = {_ID, COLUMN_PET_GENDER, COLUMN_PET_WEIGHT};
+        /**
+         * Column of the {@link #DUPLICATES_URI}, the smallest pet id of the group the row belongs to
+         */
+        public static final String COLUMN_DUPLICATE_GROUP = "duplicate_group";
         public static final int GENDER_UNKNOWN = 0;
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
 
         private PetEntry() {
         }
+
+        /**
+         * @return content://com.example.android.pets/pets?skip_duplicates={skipDuplicates}
+         */
+        public static Uri buildInsertUri(boolean skipDuplicates) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(PARAM_SKIP_DUPLICATES, String.valueOf(skipDuplicates))
+                    .build();
+        }
+
+        /**
+         * @return content://com.example.android.pets/pets/details?ids={ids}
+         */
+        public static Uri buildDetailsUri(long[] ids) {
+            StringBuilder joined = new StringBuilder();
+            for (long id : ids) {
+                if (joined.length() > 0) {
+                    joined.append(',');
+                }
+                joined.append(id);
+            }
+            return DETAILS_URI.buildUpon().appendQueryParameter(PARAM_IDS, joined.toString()).build();
+        }
+
+        /**
+         * @return content://com.example.android.pets/pets/near?lat={latitude}&lon={longitude}&limit={limit}
+         */
+        public static Uri buildNearUri(double latitude, double longitude, int limit) {
+            return NEAR_URI.buildUpon()
+                    .appendQueryParameter(PARAM_LATITUDE, String.valueOf(latitude))
+                    .appendQueryParameter(PARAM_LONGITUDE, String.valueOf(longitude))
+                    .appendQueryParameter(PARAM_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+    }
+
+    /**
+     * Shelters the pets are kept in, with their location.
+     */
+    public static final class ShelterEntry implements BaseColumns {
+
+        /** The content URI to access the shelters in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SHELTERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SHELTERS;
+
+        public static final String TABLE_NAME = "shelters";
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_SHELTER_NAME = "name";
+        /**
+         * Latitude and longitude in degrees. An update has to change both together.
+         */
+        public static final String COLUMN_LATITUDE = "latitude";
+        public static final String COLUMN_LONGITUDE = "longitude";
+        /**
+         * Grid cell of the location, maintained by the provider, see {@link ShelterGrid}
+         */
+        public static final String COLUMN_CELL = "cell";
+
+        private ShelterEntry() {
+        }
+    }
+
+    /**
+     * Read-only reference catalog of adoptable pets, as distributed to kiosks.
+     * <p>
+     * It has the {@link PetEntry#_ID}, {@link PetEntry#COLUMN_PET_NAME},
+     * {@link PetEntry#COLUMN_PET_BREED}, {@link PetEntry#COLUMN_PET_GENDER} and
+     * {@link PetEntry#COLUMN_PET_WEIGHT} columns of the pets, in ascending id order. Queries take
+     * a projection but no selection or sort order; a single pet is queried by its URI.
+     */
+    public static final class CatalogEntry implements BaseColumns {
+
+        /** The content URI to access the catalog in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CATALOG);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CATALOG;
+
+        /**
+         * The MIME type of a single pet of the catalog.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CATALOG;
+
+        private CatalogEntry() {
+        }
+    }
+
+    /**
+     * Dictionary of the distinct breed names referenced by the pets table.
+     */
+    public static final class BreedEntry implements BaseColumns {
+
+        /** The content URI of the breed suggestions for autocomplete */
+        public static final Uri SUGGESTIONS_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_BREED_SUGGESTIONS);
+
+        /**
+         * The MIME type of the {@link #SUGGESTIONS_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_BREED_SUGGESTIONS;
+
+        /**
+         * Query parameter of the {@link #SUGGESTIONS_URI}, what the user typed so far
+         */
+        public static final String PARAM_PREFIX = "prefix";
+
+        /**
+         * Query parameter of the {@link #SUGGESTIONS_URI}, maximum number of suggestions
+         */
+        public static final String PARAM_LIMIT = "limit";
+        public static final int DEFAULT_SUGGESTION_LIMIT = 10;
+
+        public static final String TABLE_NAME = "breeds";
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_BREED_NAME = "name";
+
+        private BreedEntry() {
+        }
+
+        /**
+         * @return content://com.example.android.pets/breeds/suggest?prefix={prefix}
+         */
+        public static Uri buildSuggestionsUri(String prefix) {
+            return SUGGESTIONS_URI.buildUpon()
+                    .appendQueryParameter(PARAM_PREFIX, prefix)
+                    .build();
+        }
+    }
+
+    /**
+     * Append-only history of the pets table. A row is appended, in the same transaction, every
+     * time a pet is inserted, updated or deleted.
+     */
+    public static final class PetHistoryEntry implements BaseColumns {
+
+        /**
+         * The MIME type of the history of a single pet.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        /**
+         * Query parameter of the history URI, only entries changed at or after this time (millis)
+         */
+        public static final String PARAM_FROM = "from";
+
+        /**
+         * Query parameter of the history URI, only entries changed before this time (millis)
+         */
+        public static final String PARAM_TO = "to";
+
+        public static final String TABLE_NAME = "pet_history";
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_PET_NAME = "name";
+        public static final String COLUMN_PET_BREED = "breed";
+        public static final String COLUMN_PET_GENDER = "gender";
+        public static final String COLUMN_PET_WEIGHT = "weight";
+        public static final String COLUMN_CHANGED_AT = "changed_at";
+        public static final String COLUMN_OPERATION = "operation";
+        public static final int OPERATION_INSERT = 0;
+        public static final int OPERATION_UPDATE = 1;
+        public static final int OPERATION_DELETE = 2;
+
+        private PetHistoryEntry() {
+        }
+
+        /**
+         * @return content://com.example.android.pets/pets/{petId}/history
+         */
+        public static Uri buildHistoryUri(long petId) {
+            return ContentUris.withAppendedId(PetEntry.CONTENT_URI, petId).buildUpon()
+                    .appendPath(PATH_HISTORY)
+                    .build();
+        }
+    }
+
+    /**
+     * Daily and weekly weight aggregates per breed, updated incrementally on every write of a pet.
+     * The average is not stored, it is computed from the sum and the count as {@link #COLUMN_WEIGHT_AVG}.
+     */
+    public static final class WeightRollupEntry implements BaseColumns {
+
+        /** The content URI to access the weight rollups in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_WEIGHT_ROLLUPS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of rollups.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_WEIGHT_ROLLUPS;
+
+        /**
+         * Query parameter of the {@link #CONTENT_URI}, {@link #BUCKET_NAME_DAILY} (default) or
+         * {@link #BUCKET_NAME_WEEKLY}
+         */
+        public static final String PARAM_BUCKET = "bucket";
+        public static final String BUCKET_NAME_DAILY = "daily";
+        public static final String BUCKET_NAME_WEEKLY = "weekly";
+
+        public static final String TABLE_NAME = "weight_rollups";
+        public static final String VIEW_NAME = "weight_rollups_view";
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_BUCKET = "bucket";
+        public static final String COLUMN_BREED = "breed";
+        /**
+         * Start of the bucket in millis, UTC. Weekly buckets start on Monday.
+         */
+        public static final String COLUMN_BUCKET_START = "bucket_start";
+        public static final String COLUMN_SAMPLE_COUNT = "sample_count";
+        public static final String COLUMN_WEIGHT_SUM = "weight_sum";
+        public static final String COLUMN_WEIGHT_MIN = "weight_min";
+        public static final String COLUMN_WEIGHT_MAX = "weight_max";
+        public static final String COLUMN_WEIGHT_AVG = "weight_avg";
+        public static final int BUCKET_DAILY = 0;
+        public static final int BUCKET_WEEKLY = 1;
+
+        private WeightRollupEntry() {
+        }
     }
 
 
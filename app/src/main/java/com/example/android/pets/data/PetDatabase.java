@@ -0,0 +1,85 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * The operations the data layer needs from an open pets database.
+ * <p>
+ * {@link PetDbHelper} stores the pets either in a plaintext database, opened by the framework
+ * SQLite, or in an encrypted one, opened by SQLCipher. The two libraries have the same API in
+ * different classes, so {@link PetProvider} and its helpers are written against this interface
+ * and never see which one is behind it.
+ */
+interface PetDatabase {
+
+    Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+                 String groupBy, String having, String orderBy);
+
+    Cursor rawQuery(String sql, String[] selectionArgs);
+
+    void execSQL(String sql);
+
+    void execSQL(String sql, Object[] bindArgs);
+
+    long insert(String table, String nullColumnHack, ContentValues values);
+
+    long insertOrThrow(String table, String nullColumnHack, ContentValues values);
+
+    int update(String table, ContentValues values, String whereClause, String[] whereArgs);
+
+    int delete(String table, String whereClause, String[] whereArgs);
+
+    void beginTransaction();
+
+    /**
+     * Begins a transaction whose listener is told, before it commits or rolls back and while no
+     * other writer can start, how it ends.
+     */
+    void beginTransactionWithListener(TransactionListener listener);
+
+    void setTransactionSuccessful();
+
+    void endTransaction();
+
+    boolean inTransaction();
+
+    Statement compileStatement(String sql);
+
+    /**
+     * @return The value of the first column of the first row of the query
+     */
+    long longForQuery(String sql, String[] selectionArgs);
+
+    long getPageSize();
+
+    /**
+     * Told how a transaction ends, see {@link #beginTransactionWithListener}.
+     */
+    interface TransactionListener {
+
+        void onCommit();
+
+        void onRollback();
+    }
+
+    /**
+     * A precompiled statement, to be closed once done.
+     */
+    interface Statement {
+
+        void bindLong(int index, long value);
+
+        void bindString(int index, String value);
+
+        void bindNull(int index);
+
+        void clearBindings();
+
+        long executeInsert();
+
+        int executeUpdateDelete();
+
+        void close();
+    }
+}
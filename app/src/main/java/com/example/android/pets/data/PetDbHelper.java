@@ -3,39 +3,523 @@ package com.example.android.pets.data;
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.os.SystemClock;
 import android.support.annotation.Nullable;
+import android.util.Log;
 
+import com.example.android.pets.R;
+import com.example.android.pets.model.PetSchema;
+import com.example.android.pets.model.ShelterSchema;
 
-public class PetDbHelper extends SQLiteOpenHelper {
+import java.io.File;
+
+import static android.util.Log.d;
+
+
+/**
+ * Opens the pets database, in plaintext or encrypted mode, and owns its schema.
+ * <p>
+ * The plaintext mode uses the framework SQLite with write-ahead logging. The encrypted mode,
+ * turned on by the pets_db_encrypted resource, uses SQLCipher: every page of the file is encrypted
+ * with AES-256 under the key of the {@link PetDbKeyProvider}. The first time the encrypted mode
+ * opens, an existing plaintext database is exported into the encrypted file and then deleted.
+ * Once the encrypted file exists it stays in use, turning the mode off does not decrypt it.
+ * Either way callers get a {@link PetDatabase} and do not depend on the mode.
+ */
+public class PetDbHelper {
 
     private static final String DATABASE_NAME = "pets.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final String ENCRYPTED_DATABASE_NAME = "pets-encrypted.db";
+    static final int DATABASE_VERSION = 6;
+
+    private static final String LOG_TAG = PetDbHelper.class.getSimpleName();
+
+    private static final String SQL_CREATE_BREEDS =
+            "CREATE TABLE " + PetContract.BreedEntry.TABLE_NAME + " (" +
+                    PetContract.BreedEntry._ID + " INTEGER PRIMARY KEY," +
+                    PetContract.BreedEntry.COLUMN_BREED_NAME + " TEXT NOT NULL UNIQUE)";
+
+    /**
+     * Generated from the annotations of the Pet model. The breed is stored as the id of a row of
+     * the breeds table, see {@link BreedDictionary}
+     */
+    private static final String SQL_CREATE_ENTRIES = PetSchema.SQL_CREATE_TABLE;
+
+    private static final String SQL_CREATE_BREED_ID_INDEX =
+            "CREATE INDEX pets_breed_id ON " + PetContract.PetEntry.TABLE_NAME +
+                    " (" + PetContract.PetEntry.COLUMN_PET_BREED_ID + ")";
+
+    /**
+     * Serves the duplicate check of every insert, see {@link PetDuplicates}
+     */
+    private static final String SQL_CREATE_CONTENT_HASH_INDEX =
+            "CREATE INDEX pets_content_hash ON " + PetContract.PetEntry.TABLE_NAME +
+                    " (" + PetContract.PetEntry.COLUMN_PET_CONTENT_HASH + ")";
+
+    /**
+     * Generated from the annotations of the Shelter model
+     */
+    private static final String SQL_CREATE_SHELTERS = ShelterSchema.SQL_CREATE_TABLE;
+
+    /**
+     * The grid index of the shelter locations, see {@link ShelterGrid}
+     */
+    private static final String SQL_CREATE_SHELTER_CELL_INDEX =
+            "CREATE INDEX shelters_cell ON " + PetContract.ShelterEntry.TABLE_NAME +
+                    " (" + PetContract.ShelterEntry.COLUMN_CELL + ")";
+
+    private static final String SQL_CREATE_SHELTER_ID_INDEX =
+            "CREATE INDEX pets_shelter_id ON " + PetContract.PetEntry.TABLE_NAME +
+                    " (" + PetContract.PetEntry.COLUMN_PET_SHELTER_ID + ")";
+
+    /**
+     * The pets as the provider serves them, with the breed name joined back in
+     */
+    private static final String SQL_CREATE_PETS_VIEW =
+            "CREATE VIEW " + PetContract.PetEntry.VIEW_NAME + " AS SELECT " +
+                    "p." + PetContract.PetEntry._ID + " AS " + PetContract.PetEntry._ID + ", " +
+                    "p." + PetContract.PetEntry.COLUMN_PET_NAME + " AS " + PetContract.PetEntry.COLUMN_PET_NAME + ", " +
+                    "p." + PetContract.PetEntry.COLUMN_PET_BREED_ID + " AS " + PetContract.PetEntry.COLUMN_PET_BREED_ID + ", " +
+                    "b." + PetContract.BreedEntry.COLUMN_BREED_NAME + " AS " + PetContract.PetEntry.COLUMN_PET_BREED + ", " +
+                    "p." + PetContract.PetEntry.COLUMN_PET_GENDER + " AS " + PetContract.PetEntry.COLUMN_PET_GENDER + ", " +
+                    "p." + PetContract.PetEntry.COLUMN_PET_WEIGHT + " AS " + PetContract.PetEntry.COLUMN_PET_WEIGHT + ", " +
+                    "p." + PetContract.PetEntry.COLUMN_PET_SHELTER_ID + " AS " + PetContract.PetEntry.COLUMN_PET_SHELTER_ID +
+                    " FROM " + PetContract.PetEntry.TABLE_NAME + " p LEFT JOIN " + PetContract.BreedEntry.TABLE_NAME +
+                    " b ON p." + PetContract.PetEntry.COLUMN_PET_BREED_ID + " = b." + PetContract.BreedEntry._ID;
+
+    private static final String SQL_CREATE_HISTORY =
+            "CREATE TABLE " + PetContract.PetHistoryEntry.TABLE_NAME + " (" +
+                    PetContract.PetHistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    PetContract.PetHistoryEntry.COLUMN_PET_ID + " INTEGER NOT NULL," +
+                    PetContract.PetHistoryEntry.COLUMN_PET_NAME + " TEXT," +
+                    PetContract.PetHistoryEntry.COLUMN_PET_BREED + " TEXT," +
+                    PetContract.PetHistoryEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL DEFAULT 0," +
+                    PetContract.PetHistoryEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0," +
+                    PetContract.PetHistoryEntry.COLUMN_CHANGED_AT + " INTEGER NOT NULL," +
+                    PetContract.PetHistoryEntry.COLUMN_OPERATION + " INTEGER NOT NULL)";
+
+    /**
+     * Serves the time range queries of the history of one pet
+     */
+    private static final String SQL_CREATE_HISTORY_INDEX =
+            "CREATE INDEX pet_history_pet_id_changed_at ON " + PetContract.PetHistoryEntry.TABLE_NAME +
+                    " (" + PetContract.PetHistoryEntry.COLUMN_PET_ID + ", " +
+                    PetContract.PetHistoryEntry.COLUMN_CHANGED_AT + ")";
+
+    private static final String SQL_CREATE_WEIGHT_ROLLUPS =
+            "CREATE TABLE " + PetContract.WeightRollupEntry.TABLE_NAME + " (" +
+                    PetContract.WeightRollupEntry._ID + " INTEGER PRIMARY KEY," +
+                    PetContract.WeightRollupEntry.COLUMN_BUCKET + " INTEGER NOT NULL," +
+                    PetContract.WeightRollupEntry.COLUMN_BREED + " TEXT NOT NULL," +
+                    PetContract.WeightRollupEntry.COLUMN_BUCKET_START + " INTEGER NOT NULL," +
+                    PetContract.WeightRollupEntry.COLUMN_SAMPLE_COUNT + " INTEGER NOT NULL," +
+                    PetContract.WeightRollupEntry.COLUMN_WEIGHT_SUM + " INTEGER NOT NULL," +
+                    PetContract.WeightRollupEntry.COLUMN_WEIGHT_MIN + " INTEGER NOT NULL," +
+                    PetContract.WeightRollupEntry.COLUMN_WEIGHT_MAX + " INTEGER NOT NULL," +
+                    "UNIQUE (" + PetContract.WeightRollupEntry.COLUMN_BUCKET + ", " +
+                    PetContract.WeightRollupEntry.COLUMN_BREED + ", " +
+                    PetContract.WeightRollupEntry.COLUMN_BUCKET_START + "))";
 
-    private static final String SQL_CREATE_ENTRIES =
-            "CREATE TABLE " + PetContract.PetEntry.TABLE_NAME + " (" +
-                    PetContract.PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
-                    PetContract.PetEntry.COLUMN_PET_NAME + " TEXT," +
-                    PetContract.PetEntry.COLUMN_PET_BREED + " TEXT," +
-                    PetContract.PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL DEFAULT 0," +
-                    PetContract.PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0)";
+    private static final String SQL_CREATE_WEIGHT_ROLLUPS_VIEW =
+            "CREATE VIEW " + PetContract.WeightRollupEntry.VIEW_NAME + " AS SELECT *, CAST(" +
+                    PetContract.WeightRollupEntry.COLUMN_WEIGHT_SUM + " AS REAL) / " +
+                    PetContract.WeightRollupEntry.COLUMN_SAMPLE_COUNT + " AS " +
+                    PetContract.WeightRollupEntry.COLUMN_WEIGHT_AVG +
+                    " FROM " + PetContract.WeightRollupEntry.TABLE_NAME;
 
-    private static final String SQL_DELETE_ENTRIES =
-            "DROP TABLE IF EXISTS " + PetContract.PetEntry.TABLE_NAME;
+    /**
+     * Seeds the history with the current state of every pet, as if they had just been inserted
+     */
+    private static final String SQL_SEED_HISTORY =
+            "INSERT INTO " + PetContract.PetHistoryEntry.TABLE_NAME + " (" +
+                    PetContract.PetHistoryEntry.COLUMN_PET_ID + ", " +
+                    PetContract.PetHistoryEntry.COLUMN_PET_NAME + ", " +
+                    PetContract.PetHistoryEntry.COLUMN_PET_BREED + ", " +
+                    PetContract.PetHistoryEntry.COLUMN_PET_GENDER + ", " +
+                    PetContract.PetHistoryEntry.COLUMN_PET_WEIGHT + ", " +
+                    PetContract.PetHistoryEntry.COLUMN_CHANGED_AT + ", " +
+                    PetContract.PetHistoryEntry.COLUMN_OPERATION + ") " +
+                    "SELECT " + PetContract.PetEntry._ID + ", " +
+                    PetContract.PetEntry.COLUMN_PET_NAME + ", " +
+                    PetContract.PetEntry.COLUMN_PET_BREED + ", " +
+                    PetContract.PetEntry.COLUMN_PET_GENDER + ", " +
+                    PetContract.PetEntry.COLUMN_PET_WEIGHT + ", ?, " +
+                    PetContract.PetHistoryEntry.OPERATION_INSERT +
+                    " FROM " + PetContract.PetEntry.TABLE_NAME;
 
-    private Context context;
+    private final Context mContext;
+    private final String mName;
+    private final String mEncryptedName;
+    private final boolean mEncryptionEnabled;
+    private PetDbKeyProvider mKeyProvider;
+
+    /**
+     * Helper of the mode in use, only one of them is set once {@link #selectMode()} has run
+     */
+    private PlainOpenHelper mPlainHelper;
+    private EncryptedOpenHelper mEncryptedHelper;
+    /**
+     * Set when the encrypted mode is turned on but the device has no key for it
+     */
+    private boolean mEncryptionUnavailable;
+    /**
+     * SQLCipher passphrase of the encrypted mode, the raw key in x'..' form so no key derivation
+     * runs on open
+     */
+    private String mPassphrase;
+    private PetDatabase mDatabase;
 
     public PetDbHelper(@Nullable Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, ENCRYPTED_DATABASE_NAME,
+                context.getResources().getBoolean(R.bool.pets_db_encrypted), null);
+    }
+
+    /**
+     * @param keyProvider Key provider of the encrypted mode, or null for the one named by the
+     *                    pets_db_key_provider resource
+     */
+    PetDbHelper(Context context, String name, String encryptedName, boolean encryptionEnabled,
+                PetDbKeyProvider keyProvider) {
+        mContext = context.getApplicationContext();
+        mName = name;
+        mEncryptedName = encryptedName;
+        mEncryptionEnabled = encryptionEnabled;
+        mKeyProvider = keyProvider;
+    }
+
+    /**
+     * Opens the database the first time, which may migrate it, so it must not be called on the
+     * UI thread.
+     */
+    public synchronized PetDatabase getWritableDatabase() {
+        return open(true);
+    }
+
+    /**
+     * @see #getWritableDatabase()
+     */
+    public synchronized PetDatabase getReadableDatabase() {
+        return open(false);
     }
 
-    @Override
-    public void onCreate(SQLiteDatabase db) {
+    public synchronized boolean isEncrypted() {
+        selectMode();
+        return mEncryptedHelper != null;
+    }
+
+    /**
+     * @return true if the encrypted mode is turned on, but the database is kept in plaintext
+     * because the key provider has no key on this device, e.g. below Marshmallow
+     */
+    public synchronized boolean isEncryptionUnavailable() {
+        selectMode();
+        return mEncryptionUnavailable;
+    }
+
+    public synchronized void close() {
+        if (mPlainHelper != null) {
+            mPlainHelper.close();
+        }
+        if (mEncryptedHelper != null) {
+            mEncryptedHelper.close();
+        }
+        mDatabase = null;
+    }
+
+    private PetDatabase open(boolean writable) {
+        selectMode();
+        if (mEncryptedHelper != null) {
+            net.sqlcipher.database.SQLiteDatabase db = writable
+                    ? mEncryptedHelper.getWritableDatabase(mPassphrase)
+                    : mEncryptedHelper.getReadableDatabase(mPassphrase);
+            if (!(mDatabase instanceof CipherPetDatabase) || ((CipherPetDatabase) mDatabase).unwrap() != db) {
+                mDatabase = new CipherPetDatabase(db);
+            }
+        } else {
+            SQLiteDatabase db = writable ? mPlainHelper.getWritableDatabase() : mPlainHelper.getReadableDatabase();
+            if (!(mDatabase instanceof FrameworkPetDatabase) || ((FrameworkPetDatabase) mDatabase).unwrap() != db) {
+                mDatabase = new FrameworkPetDatabase(db);
+            }
+        }
+        return mDatabase;
+    }
+
+    /**
+     * Picks the mode on first use: encrypted if it is turned on or an encrypted file already
+     * exists, and a key is available.
+     */
+    private void selectMode() {
+        if (mPlainHelper != null || mEncryptedHelper != null) {
+            return;
+        }
+        File encryptedFile = mContext.getDatabasePath(mEncryptedName);
+        byte[] key = null;
+        if (mEncryptionEnabled || encryptedFile.exists()) {
+            key = getKeyProvider().getKey(mContext);
+            if (key == null) {
+                if (encryptedFile.exists()) {
+                    throw new IllegalStateException("No key for the encrypted pets database");
+                }
+                Log.w(LOG_TAG, "No database key on this device, the pets database stays in plaintext");
+                mEncryptionUnavailable = true;
+            }
+        }
+        if (key == null) {
+            mPlainHelper = new PlainOpenHelper(mContext, mName);
+            return;
+        }
+        net.sqlcipher.database.SQLiteDatabase.loadLibs(mContext);
+        mPassphrase = toPassphrase(key);
+        migrateToEncrypted();
+        mEncryptedHelper = new EncryptedOpenHelper(mContext, mEncryptedName);
+    }
+
+    private PetDbKeyProvider getKeyProvider() {
+        if (mKeyProvider == null) {
+            String className = mContext.getString(R.string.pets_db_key_provider);
+            try {
+                mKeyProvider = (PetDbKeyProvider) Class.forName(className).newInstance();
+            } catch (ClassNotFoundException | InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException("Can not create the key provider " + className, e);
+            }
+        }
+        return mKeyProvider;
+    }
+
+    private static String toPassphrase(byte[] key) {
+        StringBuilder passphrase = new StringBuilder(key.length * 2 + 3).append("x'");
+        for (byte b : key) {
+            passphrase.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return passphrase.append('\'').toString();
+    }
+
+    /**
+     * Exports the plaintext database, if there is one, into the encrypted file. The export goes to
+     * a temporary file renamed once complete, and the plaintext database is deleted only after
+     * that, so a crash at any point leaves one complete copy to start from again.
+     */
+    private void migrateToEncrypted() {
+        File plainFile = mContext.getDatabasePath(mName);
+        File encryptedFile = mContext.getDatabasePath(mEncryptedName);
+        if (!plainFile.exists()) {
+            return;
+        }
+        if (encryptedFile.exists()) {
+            // The last migration stopped after the rename
+            mContext.deleteDatabase(mName);
+            return;
+        }
+        long start = SystemClock.elapsedRealtime();
+        // sqlcipher_export() copies the schema as it is, so bring it to the current version first.
+        // Closing the last connection also checkpoints the write-ahead log into the file.
+        PlainOpenHelper plainHelper = new PlainOpenHelper(mContext, mName);
+        plainHelper.getWritableDatabase();
+        plainHelper.close();
+
+        File tempFile = new File(encryptedFile.getPath() + ".tmp");
+        if (tempFile.exists() && !tempFile.delete()) {
+            throw new IllegalStateException("Can not delete " + tempFile);
+        }
+        net.sqlcipher.database.SQLiteDatabase db = net.sqlcipher.database.SQLiteDatabase.openDatabase(
+                plainFile.getPath(), "", null, net.sqlcipher.database.SQLiteDatabase.OPEN_READWRITE);
+        try {
+            db.rawExecSQL("ATTACH DATABASE '" + tempFile.getPath() + "' AS encrypted KEY \"" + mPassphrase + "\"");
+            db.rawExecSQL("SELECT sqlcipher_export('encrypted')");
+            db.rawExecSQL("PRAGMA encrypted.user_version = " + DATABASE_VERSION);
+            db.rawExecSQL("DETACH DATABASE encrypted");
+        } finally {
+            db.close();
+        }
+        if (!tempFile.renameTo(encryptedFile)) {
+            throw new IllegalStateException("Can not rename " + tempFile + " to " + encryptedFile);
+        }
+        mContext.deleteDatabase(mName);
+        d(LOG_TAG, "migrated the pets database to encrypted mode in " +
+                (SystemClock.elapsedRealtime() - start) + " ms");
+    }
+
+    static void createSchema(PetDatabase db) {
+        db.execSQL(SQL_CREATE_BREEDS);
+        db.execSQL(SQL_CREATE_SHELTERS);
+        db.execSQL(SQL_CREATE_SHELTER_CELL_INDEX);
         db.execSQL(SQL_CREATE_ENTRIES);
+        db.execSQL(SQL_CREATE_BREED_ID_INDEX);
+        db.execSQL(SQL_CREATE_CONTENT_HASH_INDEX);
+        db.execSQL(SQL_CREATE_SHELTER_ID_INDEX);
+        db.execSQL(SQL_CREATE_PETS_VIEW);
+        db.execSQL(SQL_CREATE_HISTORY);
+        db.execSQL(SQL_CREATE_HISTORY_INDEX);
+        db.execSQL(SQL_CREATE_WEIGHT_ROLLUPS);
+        db.execSQL(SQL_CREATE_WEIGHT_ROLLUPS_VIEW);
+    }
+
+    /**
+     * Migrates step by step from the old version, keeping the existing pets.
+     */
+    static void upgradeSchema(PetDatabase db, int oldVersion, int newVersion) {
+        if (oldVersion < 2) {
+            db.execSQL(SQL_CREATE_HISTORY);
+            db.execSQL(SQL_CREATE_HISTORY_INDEX);
+            db.execSQL(SQL_SEED_HISTORY, new Object[]{System.currentTimeMillis()});
+        }
+        if (oldVersion < 3) {
+            db.execSQL(SQL_CREATE_WEIGHT_ROLLUPS);
+            db.execSQL(SQL_CREATE_WEIGHT_ROLLUPS_VIEW);
+            PetRollups.rebuild(db, 0);
+        }
+        if (oldVersion < 4) {
+            migrateToBreedDictionary(db);
+        }
+        if (oldVersion < 5) {
+            db.execSQL("ALTER TABLE " + PetContract.PetEntry.TABLE_NAME + " ADD COLUMN " +
+                    PetContract.PetEntry.COLUMN_PET_CONTENT_HASH + " INTEGER");
+            PetDuplicates.updateAllHashes(db);
+            db.execSQL(SQL_CREATE_CONTENT_HASH_INDEX);
+        }
+        if (oldVersion < 6) {
+            db.execSQL(SQL_CREATE_SHELTERS);
+            db.execSQL(SQL_CREATE_SHELTER_CELL_INDEX);
+            db.execSQL("ALTER TABLE " + PetContract.PetEntry.TABLE_NAME + " ADD COLUMN " +
+                    PetContract.PetEntry.COLUMN_PET_SHELTER_ID + " INTEGER REFERENCES " +
+                    PetContract.ShelterEntry.TABLE_NAME + "(" + PetContract.ShelterEntry._ID + ")");
+            db.execSQL(SQL_CREATE_SHELTER_ID_INDEX);
+            db.execSQL("DROP VIEW IF EXISTS " + PetContract.PetEntry.VIEW_NAME);
+            db.execSQL(SQL_CREATE_PETS_VIEW);
+        }
+    }
+
+    /**
+     * Moves the free text breeds of the pets table into the breeds table. SQLite can not drop a
+     * column, so the pets table is rebuilt with a breed_id column instead of the breed column.
+     * <p>
+     * The table and the view are created as they were at version 4, the later steps add their
+     * columns to them. The generated {@link PetSchema#SQL_CREATE_TABLE} changes with the model.
+     */
+    private static void migrateToBreedDictionary(PetDatabase db) {
+        long bytesBefore = usedBytes(db);
+        String pets = PetContract.PetEntry.TABLE_NAME;
+        String oldPets = pets + "_old";
+        String createPets = "CREATE TABLE " + pets + " (" +
+                PetContract.PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                PetContract.PetEntry.COLUMN_PET_NAME + " TEXT, " +
+                PetContract.PetEntry.COLUMN_PET_BREED_ID + " INTEGER REFERENCES " +
+                PetContract.BreedEntry.TABLE_NAME + "(" + PetContract.BreedEntry._ID + "), " +
+                PetContract.PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL DEFAULT 0, " +
+                PetContract.PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL DEFAULT 0)";
+        String createPetsView = "CREATE VIEW " + PetContract.PetEntry.VIEW_NAME + " AS SELECT " +
+                "p." + PetContract.PetEntry._ID + " AS " + PetContract.PetEntry._ID + ", " +
+                "p." + PetContract.PetEntry.COLUMN_PET_NAME + " AS " + PetContract.PetEntry.COLUMN_PET_NAME + ", " +
+                "p." + PetContract.PetEntry.COLUMN_PET_BREED_ID + " AS " + PetContract.PetEntry.COLUMN_PET_BREED_ID + ", " +
+                "b." + PetContract.BreedEntry.COLUMN_BREED_NAME + " AS " + PetContract.PetEntry.COLUMN_PET_BREED + ", " +
+                "p." + PetContract.PetEntry.COLUMN_PET_GENDER + " AS " + PetContract.PetEntry.COLUMN_PET_GENDER + ", " +
+                "p." + PetContract.PetEntry.COLUMN_PET_WEIGHT + " AS " + PetContract.PetEntry.COLUMN_PET_WEIGHT +
+                " FROM " + pets + " p LEFT JOIN " + PetContract.BreedEntry.TABLE_NAME +
+                " b ON p." + PetContract.PetEntry.COLUMN_PET_BREED_ID + " = b." + PetContract.BreedEntry._ID;
+
+        db.execSQL(SQL_CREATE_BREEDS);
+        db.execSQL("INSERT INTO " + PetContract.BreedEntry.TABLE_NAME + " (" + PetContract.BreedEntry.COLUMN_BREED_NAME +
+                ") SELECT DISTINCT " + PetContract.PetEntry.COLUMN_PET_BREED + " FROM " + pets +
+                " WHERE " + PetContract.PetEntry.COLUMN_PET_BREED + " IS NOT NULL");
+        db.execSQL("ALTER TABLE " + pets + " RENAME TO " + oldPets);
+        db.execSQL(createPets);
+        db.execSQL("INSERT INTO " + pets + " (" +
+                PetContract.PetEntry._ID + ", " +
+                PetContract.PetEntry.COLUMN_PET_NAME + ", " +
+                PetContract.PetEntry.COLUMN_PET_BREED_ID + ", " +
+                PetContract.PetEntry.COLUMN_PET_GENDER + ", " +
+                PetContract.PetEntry.COLUMN_PET_WEIGHT + ") SELECT " +
+                "o." + PetContract.PetEntry._ID + ", " +
+                "o." + PetContract.PetEntry.COLUMN_PET_NAME + ", " +
+                "b." + PetContract.BreedEntry._ID + ", " +
+                "o." + PetContract.PetEntry.COLUMN_PET_GENDER + ", " +
+                "o." + PetContract.PetEntry.COLUMN_PET_WEIGHT +
+                " FROM " + oldPets + " o LEFT JOIN " + PetContract.BreedEntry.TABLE_NAME +
+                " b ON o." + PetContract.PetEntry.COLUMN_PET_BREED + " = b." + PetContract.BreedEntry.COLUMN_BREED_NAME);
+        // Keep the AUTOINCREMENT counter, ids of deleted pets must not come back: their history is
+        // still keyed by them
+        db.execSQL("UPDATE sqlite_sequence SET seq = (SELECT seq FROM sqlite_sequence WHERE name = '" +
+                oldPets + "') WHERE name = '" + pets + "' AND EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = '" +
+                oldPets + "')");
+        db.execSQL("DROP TABLE " + oldPets);
+        db.execSQL(SQL_CREATE_BREED_ID_INDEX);
+        db.execSQL(createPetsView);
+
+        d(LOG_TAG, "breed dictionary migration: " + db.longForQuery(
+                "SELECT COUNT(*) FROM " + PetContract.BreedEntry.TABLE_NAME, null) + " breeds, used bytes " + bytesBefore + " -> " + usedBytes(db));
+    }
+
+    /**
+     * @return Bytes of the database file in use, i.e. without the pages on the free list
+     */
+    private static long usedBytes(PetDatabase db) {
+        long pageCount = db.longForQuery("PRAGMA page_count", null);
+        long freePages = db.longForQuery("PRAGMA freelist_count", null);
+        return (pageCount - freePages) * db.getPageSize();
+    }
+
+    /**
+     * Plaintext mode, the framework SQLite with write-ahead logging.
+     */
+    private static final class PlainOpenHelper extends SQLiteOpenHelper {
+
+        PlainOpenHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+            // Write-ahead logging lets the framework keep a pool of read connections next to the single
+            // write connection, so readers no longer serialize behind writers.
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                setWriteAheadLoggingEnabled(true);
+            }
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            createSchema(new FrameworkPetDatabase(db));
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            upgradeSchema(new FrameworkPetDatabase(db), oldVersion, newVersion);
+        }
+
+        @Override
+        public void onOpen(SQLiteDatabase db) {
+            super.onOpen(db);
+            // setWriteAheadLoggingEnabled() is not available before Jelly Bean
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN && !db.isReadOnly()) {
+                db.enableWriteAheadLogging();
+            }
+        }
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL(SQL_DELETE_ENTRIES);
-        onCreate(db);
+    /**
+     * Encrypted mode, SQLCipher.
+     */
+    private static final class EncryptedOpenHelper extends net.sqlcipher.database.SQLiteOpenHelper {
+
+        EncryptedOpenHelper(Context context, String name) {
+            super(context, name, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(net.sqlcipher.database.SQLiteDatabase db) {
+            createSchema(new CipherPetDatabase(db));
+        }
+
+        @Override
+        public void onUpgrade(net.sqlcipher.database.SQLiteDatabase db, int oldVersion, int newVersion) {
+            upgradeSchema(new CipherPetDatabase(db), oldVersion, newVersion);
+        }
+
+        @Override
+        public void onOpen(net.sqlcipher.database.SQLiteDatabase db) {
+            super.onOpen(db);
+            // SQLCipher has a single connection, but the log still saves a sync of the
+            // database file per transaction
+            if (!db.isReadOnly()) {
+                db.rawExecSQL("PRAGMA journal_mode = WAL");
+            }
+        }
     }
 }
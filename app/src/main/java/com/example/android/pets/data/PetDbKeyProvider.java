@@ -0,0 +1,21 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+
+/**
+ * Supplies the key of the encrypted pets database.
+ * <p>
+ * {@link PetDbHelper} instantiates the class named by the pets_db_key_provider resource, through
+ * its public no argument constructor, the first time the database is opened in encrypted mode.
+ * The default is {@link KeystoreKeyProvider}.
+ */
+public interface PetDbKeyProvider {
+
+    /**
+     * Called on a background thread, once per process.
+     *
+     * @return The 32 byte key of the database, the same on every call, or null if this device can
+     * not provide one, in which case a new database is kept in plaintext
+     */
+    byte[] getKey(Context context);
+}
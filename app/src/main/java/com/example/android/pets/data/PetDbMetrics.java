@@ -0,0 +1,158 @@
+package com.example.android.pets.data;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Per-operation contention and latency metrics for the {@link PetProvider}.
+ * <p>
+ * Every write records how long it waited for SQLite to let it begin its transaction, behind the
+ * other writer, and how long it took to execute. Reads record their execution only: the framework
+ * borrows a read connection inside the query itself, so any wait for one is part of it. The last
+ * {@link #SAMPLE_SIZE} latencies of each operation are kept in a ring buffer so that p50/p99 can
+ * be reported without keeping every sample around.
+ */
+public final class PetDbMetrics {
+
+    public static final int OP_QUERY = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_UPDATE = 2;
+    public static final int OP_DELETE = 3;
+    /**
+     * Overhead of the history rows written along with inserts, updates and deletes
+     */
+    public static final int OP_HISTORY = 4;
+    public static final int OP_COMPACT = 5;
+    /**
+     * Overhead of the incremental weight rollups written along with inserts and updates
+     */
+    public static final int OP_ROLLUP = 6;
+    /**
+     * Chunks of the {@link PetMaintenance}, each a write transaction of its own
+     */
+    public static final int OP_MAINTENANCE = 7;
+    public static final int OP_UNDO = 8;
+
+    private static final String[] OP_NAMES = {"query", "insert", "update", "delete", "history", "compact", "rollup",
+            "maintenance", "undo"};
+
+    /**
+     * Number of latency samples kept per operation for percentile calculation
+     */
+    private static final int SAMPLE_SIZE = 1024;
+
+    private final OpStats[] mStats = new OpStats[OP_NAMES.length];
+
+    public PetDbMetrics() {
+        for (int i = 0; i < mStats.length; i++) {
+            mStats[i] = new OpStats();
+        }
+    }
+
+    /**
+     * Records one finished operation.
+     *
+     * @param op        One of the OP_* constants
+     * @param waitNanos Time spent waiting to begin the write transaction, 0 for reads
+     * @param execNanos Time spent executing once it began
+     */
+    public void record(int op, long waitNanos, long execNanos) {
+        mStats[op].record(waitNanos, execNanos);
+    }
+
+    /**
+     * @return p-th percentile (0..100) of the total latency (wait + exec) of the operation, in nanos
+     */
+    public long getLatencyPercentile(int op, int percentile) {
+        return mStats[op].percentile(percentile);
+    }
+
+    public void reset() {
+        for (OpStats stats : mStats) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * @return A snapshot of all the metrics, one nested bundle per operation, suitable for
+     * returning from {@link PetProvider#call(String, String, Bundle)} to other processes.
+     */
+    public Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        for (int i = 0; i < mStats.length; i++) {
+            bundle.putBundle(OP_NAMES[i], mStats[i].toBundle());
+        }
+        return bundle;
+    }
+
+    public void log(String tag) {
+        for (int i = 0; i < mStats.length; i++) {
+            Log.d(tag, OP_NAMES[i] + ": " + mStats[i]);
+        }
+    }
+
+    private static final class OpStats {
+
+        private long mCount;
+        private long mTotalWaitNanos;
+        private long mMaxWaitNanos;
+        private long mTotalExecNanos;
+        private final long[] mSamples = new long[SAMPLE_SIZE];
+        private int mNextSample;
+
+        synchronized void record(long waitNanos, long execNanos) {
+            mCount++;
+            mTotalWaitNanos += waitNanos;
+            mTotalExecNanos += execNanos;
+            if (waitNanos > mMaxWaitNanos) {
+                mMaxWaitNanos = waitNanos;
+            }
+            mSamples[mNextSample] = waitNanos + execNanos;
+            mNextSample = (mNextSample + 1) % SAMPLE_SIZE;
+        }
+
+        synchronized long percentile(int percentile) {
+            int size = (int) Math.min(mCount, SAMPLE_SIZE);
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(mSamples, size);
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+            return sorted[Math.max(0, Math.min(size - 1, index))];
+        }
+
+        synchronized void reset() {
+            mCount = 0;
+            mTotalWaitNanos = 0;
+            mMaxWaitNanos = 0;
+            mTotalExecNanos = 0;
+            mNextSample = 0;
+        }
+
+        Bundle toBundle() {
+            Bundle bundle = new Bundle();
+            synchronized (this) {
+                bundle.putLong("count", mCount);
+                bundle.putLong("total_wait_nanos", mTotalWaitNanos);
+                bundle.putLong("max_wait_nanos", mMaxWaitNanos);
+                bundle.putLong("total_exec_nanos", mTotalExecNanos);
+            }
+            bundle.putLong("p50_nanos", percentile(50));
+            bundle.putLong("p99_nanos", percentile(99));
+            return bundle;
+        }
+
+        @Override
+        public String toString() {
+            synchronized (this) {
+                long avgWait = mCount == 0 ? 0 : mTotalWaitNanos / mCount;
+                return "count=" + mCount + " avgWaitUs=" + avgWait / 1000
+                        + " maxWaitUs=" + mMaxWaitNanos / 1000
+                        + " p50Us=" + percentile(50) / 1000 + " p99Us=" + percentile(99) / 1000;
+            }
+        }
+    }
+}
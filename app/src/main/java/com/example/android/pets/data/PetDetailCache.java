@@ -0,0 +1,217 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Detail columns of the pets shown by a list, loaded lazily from {@link PetEntry#DETAILS_URI}.
+ * <p>
+ * The list itself is only queried with {@link PetEntry#SUMMARY_PROJECTION}. The details of a pet
+ * are asked for when its row is bound; the pets asked for while a frame is laid out are loaded
+ * together, in one query, on a background thread, and kept in a bounded LRU cache, so the memory
+ * of a list stays the same whatever the number of pets and of detail columns. Nothing is loaded
+ * while {@link #setPaused paused}, during a fling. A change of a pet drops its details, a change
+ * of the whole table drops them all.
+ * <p>
+ * Everything but the loading runs on the main thread.
+ */
+public final class PetDetailCache {
+
+    /**
+     * Told on the main thread that details were loaded or dropped, so the rows on screen should
+     * be bound again.
+     */
+    public interface Listener {
+        void onDetailsChanged();
+    }
+
+    /**
+     * All the caches share one worker, loads are short
+     */
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+
+    private final ContentResolver mResolver;
+    private final Listener mListener;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<Long, ContentValues> mDetails;
+    /**
+     * Pets whose details are waiting for the next batch or being loaded
+     */
+    private final Set<Long> mRequested = new HashSet<>();
+    private final List<Long> mPending = new ArrayList<>();
+    /**
+     * Bumped when details are dropped, so a load started before is not cached
+     */
+    private int mGeneration;
+    private boolean mFlushPosted;
+    private boolean mPaused;
+
+    private final ContentObserver mObserver = new ContentObserver(mMainHandler) {
+        @Override
+        public void onChange(boolean selfChange) {
+            invalidate(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            invalidate(uri);
+        }
+    };
+
+    private final Runnable mFlushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    /**
+     * @param capacity Most pets whose details are kept, a few screens of rows
+     */
+    public PetDetailCache(ContentResolver resolver, int capacity, Listener listener) {
+        mResolver = resolver;
+        mDetails = new LruCache<>(capacity);
+        mListener = listener;
+    }
+
+    /**
+     * Starts dropping the details of the pets that change.
+     */
+    public void start() {
+        mResolver.registerContentObserver(PetEntry.CONTENT_URI, true, mObserver);
+    }
+
+    public void stop() {
+        mResolver.unregisterContentObserver(mObserver);
+        mGeneration++;
+        mRequested.clear();
+        mPending.clear();
+        mDetails.evictAll();
+    }
+
+    /**
+     * @return The {@link PetEntry#DETAIL_PROJECTION} columns of the pet, or null until they are
+     * loaded, in which case they are asked for
+     */
+    public ContentValues get(long id) {
+        ContentValues details = mDetails.get(id);
+        if (details == null && !mPaused && mRequested.add(id)) {
+            mPending.add(id);
+            if (!mFlushPosted) {
+                mFlushPosted = true;
+                mMainHandler.post(mFlushTask);
+            }
+        }
+        return details;
+    }
+
+    /**
+     * Stops loading details while the list flings through rows nobody reads. Resuming binds the
+     * rows on screen again, which asks for theirs.
+     */
+    public void setPaused(boolean paused) {
+        if (mPaused && !paused) {
+            mListener.onDetailsChanged();
+        }
+        mPaused = paused;
+    }
+
+    private void flush() {
+        mFlushPosted = false;
+        for (int from = 0; from < mPending.size(); from += PetEntry.MAX_DETAIL_IDS) {
+            List<Long> batch = mPending.subList(from, Math.min(mPending.size(), from + PetEntry.MAX_DETAIL_IDS));
+            long[] ids = new long[batch.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = batch.get(i);
+            }
+            load(ids, mGeneration);
+        }
+        mPending.clear();
+    }
+
+    private void load(final long[] ids, final int generation) {
+        sExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Map<Long, ContentValues> details = new HashMap<>(ids.length);
+                Cursor cursor = mResolver.query(PetEntry.buildDetailsUri(ids), PetEntry.DETAIL_PROJECTION,
+                        null, null, null);
+                if (cursor != null) {
+                    try {
+                        while (cursor.moveToNext()) {
+                            ContentValues values = new ContentValues();
+                            DatabaseUtils.cursorRowToContentValues(cursor, values);
+                            details.put(values.getAsLong(PetEntry._ID), values);
+                        }
+                    } finally {
+                        cursor.close();
+                    }
+                }
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver(ids, details, generation);
+                    }
+                });
+            }
+        });
+    }
+
+    private void deliver(long[] ids, Map<Long, ContentValues> details, int generation) {
+        if (generation != mGeneration) {
+            // Dropped while loading, the rows are bound again and ask anew
+            return;
+        }
+        if (details.isEmpty()) {
+            return;
+        }
+        // Pets that are gone stay requested, so they are not asked for again until a change
+        for (Map.Entry<Long, ContentValues> entry : details.entrySet()) {
+            mRequested.remove(entry.getKey());
+            mDetails.put(entry.getKey(), entry.getValue());
+        }
+        mListener.onDetailsChanged();
+    }
+
+    /**
+     * @param uri The changed pet or pets, null if unknown
+     */
+    private void invalidate(Uri uri) {
+        long id = -1;
+        if (uri != null && uri.getPathSegments().size() == 2) {
+            try {
+                id = ContentUris.parseId(uri);
+            } catch (NumberFormatException e) {
+                // Not a single pet
+            }
+        }
+        if (id >= 0) {
+            mDetails.remove(id);
+        } else {
+            mDetails.evictAll();
+        }
+        mGeneration++;
+        mRequested.clear();
+        mPending.clear();
+        mListener.onDetailsChanged();
+    }
+}
@@ -0,0 +1,340 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Duplicate detection for the pets table.
+ * <p>
+ * Exact duplicates are caught as they are written: every row stores its {@link PetContentHash}
+ * in the indexed content_hash column, so checking a new pet is one index lookup. Near-duplicates
+ * (a typo in the name, a weight off by one) are found by the batch job {@link #findGroups}, which
+ * only compares pets that share a blocking key instead of every pair of the table.
+ */
+final class PetDuplicates {
+
+    /**
+     * Number of following pets, in name order within a block, each pet is compared to
+     */
+    private static final int WINDOW = 16;
+
+    /**
+     * Number of name characters of the blocking keys
+     */
+    private static final int KEY_CHARS = 2;
+
+    private static final int MAX_WEIGHT_DIFFERENCE = 1;
+    private static final int MAX_NAME_EDITS = 1;
+
+    private static final int MAX_ARGS_PER_STATEMENT = 900;
+
+    private static final String SQL_SELECT_BY_HASH =
+            "SELECT p." + PetEntry._ID + ", p." + PetEntry.COLUMN_PET_NAME + ", b." + BreedEntry.COLUMN_BREED_NAME +
+                    ", p." + PetEntry.COLUMN_PET_GENDER + ", p." + PetEntry.COLUMN_PET_WEIGHT +
+                    " FROM " + PetEntry.TABLE_NAME + " p LEFT JOIN " + BreedEntry.TABLE_NAME +
+                    " b ON p." + PetEntry.COLUMN_PET_BREED_ID + " = b." + BreedEntry._ID +
+                    " WHERE p." + PetEntry.COLUMN_PET_CONTENT_HASH + " = ?";
+
+    private static final String SQL_UPDATE_HASH =
+            "UPDATE " + PetEntry.TABLE_NAME + " SET " + PetEntry.COLUMN_PET_CONTENT_HASH + " = ? WHERE " +
+                    PetEntry._ID + " = ?";
+
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT};
+
+    private PetDuplicates() {
+    }
+
+    /**
+     * @return Content hash of the pet described by the values of an insert
+     */
+    static long hash(ContentValues values) {
+        return PetContentHash.compute(
+                values.getAsString(PetEntry.COLUMN_PET_NAME),
+                values.getAsString(PetEntry.COLUMN_PET_BREED),
+                genderOf(values),
+                weightOf(values));
+    }
+
+    /**
+     * Looks up an existing pet with the same normalized content, through the content_hash index.
+     * A hash match is confirmed by comparing the fields, so a collision is never reported.
+     *
+     * @return Id of the existing pet, or -1 if there is none
+     */
+    static long findDuplicate(PetDatabase db, long hash, ContentValues values) {
+        String name = PetContentHash.normalize(values.getAsString(PetEntry.COLUMN_PET_NAME));
+        String breed = PetContentHash.normalize(values.getAsString(PetEntry.COLUMN_PET_BREED));
+        int gender = genderOf(values);
+        int weight = weightOf(values);
+        Cursor cursor = db.rawQuery(SQL_SELECT_BY_HASH, new String[]{String.valueOf(hash)});
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(3) == gender
+                        && cursor.getInt(4) == weight
+                        && PetContentHash.normalize(cursor.getString(1)).equals(name)
+                        && PetContentHash.normalize(cursor.getString(2)).equals(breed)) {
+                    return cursor.getLong(0);
+                }
+            }
+            return -1;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return The gender of the values, or the column default the insert stores when there is none
+     */
+    private static int genderOf(ContentValues values) {
+        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        return gender == null ? PetEntry.GENDER_UNKNOWN : gender;
+    }
+
+    /**
+     * @return The weight of the values, or the column default the insert stores when there is none
+     */
+    private static int weightOf(ContentValues values) {
+        Integer weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+        return weight == null ? 0 : weight;
+    }
+
+    /**
+     * Recomputes the content hash of the given pets from their current state. Called after an
+     * update, inside its transaction.
+     */
+    static void updateHashes(PetDatabase db, long[] ids) {
+        PetDatabase.Statement update = db.compileStatement(SQL_UPDATE_HASH);
+        try {
+            for (int from = 0; from < ids.length; from += MAX_ARGS_PER_STATEMENT) {
+                int to = Math.min(ids.length, from + MAX_ARGS_PER_STATEMENT);
+                StringBuilder selection = new StringBuilder(PetEntry._ID).append(" IN (");
+                String[] selectionArgs = new String[to - from];
+                for (int i = from; i < to; i++) {
+                    selection.append(i == from ? "?" : ",?");
+                    selectionArgs[i - from] = String.valueOf(ids[i]);
+                }
+                selection.append(')');
+                updateHashes(db, update, selection.toString(), selectionArgs);
+            }
+        } finally {
+            update.close();
+        }
+    }
+
+    /**
+     * Computes the content hash of every pet, for the migration that adds the column.
+     */
+    static void updateAllHashes(PetDatabase db) {
+        PetDatabase.Statement update = db.compileStatement(SQL_UPDATE_HASH);
+        try {
+            updateHashes(db, update, null, null);
+        } finally {
+            update.close();
+        }
+    }
+
+    private static void updateHashes(PetDatabase db, PetDatabase.Statement update,
+                                     String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(PetEntry.VIEW_NAME, PROJECTION, selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                update.bindLong(1, PetContentHash.compute(
+                        cursor.getString(1), cursor.getString(2), cursor.getInt(3), cursor.getInt(4)));
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Groups the pets that are likely duplicates: same breed and gender, names at most
+     * {@link #MAX_NAME_EDITS} edit apart and weights at most {@link #MAX_WEIGHT_DIFFERENCE} apart.
+     * <p>
+     * Comparing every pair would be quadratic. Instead the pets are blocked twice, by breed, gender
+     * and the first {@link #KEY_CHARS} characters of the name, then by breed, gender and the last
+     * ones, so a single typo leaves at least one key intact for names of more than
+     * {@link #KEY_CHARS} characters. Within a block, pets sorted by name are compared to the next
+     * {@link #WINDOW} ones only, which bounds the job to O(n log n) however large a block gets.
+     * Matches are merged transitively with a union-find.
+     *
+     * @return {@link PetEntry#COLUMN_DUPLICATE_GROUP} and the pet columns of every pet that has
+     * at least one likely duplicate, ordered by group
+     */
+    static Cursor findGroups(PetDatabase db) {
+        Cursor cursor = db.query(PetEntry.VIEW_NAME, PROJECTION, null, null, null, null, null);
+        int count = cursor.getCount();
+        long[] ids = new long[count];
+        String[] names = new String[count];
+        String[] rawNames = new String[count];
+        String[] breeds = new String[count];
+        String[] rawBreeds = new String[count];
+        int[] genders = new int[count];
+        int[] weights = new int[count];
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+                rawNames[i] = cursor.getString(1);
+                names[i] = PetContentHash.normalize(rawNames[i]);
+                rawBreeds[i] = cursor.getString(2);
+                breeds[i] = PetContentHash.normalize(rawBreeds[i]);
+                genders[i] = cursor.getInt(3);
+                weights[i] = cursor.getInt(4);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        int[] parents = new int[count];
+        for (int i = 0; i < count; i++) {
+            parents[i] = i;
+        }
+        for (int pass = 0; pass < 2; pass++) {
+            Map<String, List<Integer>> blocks = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                String name = names[i];
+                String nameKey = pass == 0
+                        ? name.substring(0, Math.min(KEY_CHARS, name.length()))
+                        : name.substring(Math.max(0, name.length() - KEY_CHARS));
+                String key = breeds[i] + '\u0000' + genders[i] + '\u0000' + nameKey;
+                List<Integer> block = blocks.get(key);
+                if (block == null) {
+                    block = new ArrayList<>();
+                    blocks.put(key, block);
+                }
+                block.add(i);
+            }
+            for (List<Integer> block : blocks.values()) {
+                compareBlock(block, names, weights, parents);
+            }
+        }
+
+        return toGroupCursor(ids, rawNames, rawBreeds, genders, weights, parents);
+    }
+
+    private static void compareBlock(List<Integer> block, final String[] names, int[] weights, int[] parents) {
+        if (block.size() < 2) {
+            return;
+        }
+        Collections.sort(block, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return names[a].compareTo(names[b]);
+            }
+        });
+        for (int i = 0; i < block.size(); i++) {
+            int a = block.get(i);
+            int end = Math.min(block.size(), i + 1 + WINDOW);
+            for (int j = i + 1; j < end; j++) {
+                int b = block.get(j);
+                if (Math.abs(weights[a] - weights[b]) <= MAX_WEIGHT_DIFFERENCE
+                        && withinOneEdit(names[a], names[b])) {
+                    union(parents, a, b);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the strings are equal or one insertion, deletion or substitution apart.
+     * Linear, unlike a full edit distance.
+     */
+    static boolean withinOneEdit(String a, String b) {
+        if (a.length() > b.length()) {
+            String swap = a;
+            a = b;
+            b = swap;
+        }
+        if (b.length() - a.length() > MAX_NAME_EDITS) {
+            return false;
+        }
+        int prefix = 0;
+        while (prefix < a.length() && a.charAt(prefix) == b.charAt(prefix)) {
+            prefix++;
+        }
+        if (prefix == a.length()) {
+            return true;
+        }
+        // Skip the differing character of b, and of a too if both have the same length
+        int aIndex = a.length() == b.length() ? prefix + 1 : prefix;
+        return a.regionMatches(aIndex, b, prefix + 1, a.length() - aIndex);
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parents, int a, int b) {
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        if (rootA != rootB) {
+            parents[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+
+    private static Cursor toGroupCursor(long[] ids, String[] names, String[] breeds, int[] genders,
+                                        int[] weights, int[] parents) {
+        int count = ids.length;
+        int[] sizes = new int[count];
+        long[] groupIds = new long[count];
+        Arrays.fill(groupIds, Long.MAX_VALUE);
+        for (int i = 0; i < count; i++) {
+            int root = find(parents, i);
+            sizes[root]++;
+            groupIds[root] = Math.min(groupIds[root], ids[i]);
+        }
+
+        // Sort key of every duplicate row: group id, then pet id
+        List<long[]> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int root = find(parents, i);
+            if (sizes[root] > 1) {
+                rows.add(new long[]{groupIds[root], ids[i], i});
+            }
+        }
+        Collections.sort(rows, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] a, long[] b) {
+                if (a[0] != b[0]) {
+                    return a[0] < b[0] ? -1 : 1;
+                }
+                return a[1] < b[1] ? -1 : (a[1] == b[1] ? 0 : 1);
+            }
+        });
+
+        MatrixCursor cursor = new MatrixCursor(new String[]{
+                PetEntry.COLUMN_DUPLICATE_GROUP,
+                PetEntry._ID,
+                PetEntry.COLUMN_PET_NAME,
+                PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_WEIGHT}, rows.size());
+        for (long[] row : rows) {
+            int i = (int) row[2];
+            cursor.addRow(new Object[]{row[0], row[1], names[i], breeds[i], genders[i], weights[i]});
+        }
+        return cursor;
+    }
+}
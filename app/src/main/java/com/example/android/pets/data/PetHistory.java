@@ -0,0 +1,177 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetHistoryEntry;
+
+/**
+ * Writes and compacts the append-only pet history table.
+ * <p>
+ * All the methods expect to be called by {@link PetProvider} inside a write transaction, for the
+ * record methods the one of the pets table change they describe.
+ */
+final class PetHistory {
+
+    /**
+     * History younger than this is kept as is
+     */
+    static final long RETENTION_FULL_MILLIS = 90L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Older history is compacted down to the last entry of every pet per bucket of this size
+     */
+    static final long COMPACTION_BUCKET_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Upper bound of "?" arguments per statement, SQLite allows 999
+     */
+    private static final int MAX_ARGS_PER_STATEMENT = 900;
+
+    /**
+     * Entries removed per transaction of the compaction, so it never holds the writer for long
+     */
+    static final int COMPACTION_CHUNK_SIZE = 500;
+
+    private static final String SQL_INSERT_SELECT =
+            "INSERT INTO " + PetHistoryEntry.TABLE_NAME + " (" +
+                    PetHistoryEntry.COLUMN_PET_ID + ", " +
+                    PetHistoryEntry.COLUMN_PET_NAME + ", " +
+                    PetHistoryEntry.COLUMN_PET_BREED + ", " +
+                    PetHistoryEntry.COLUMN_PET_GENDER + ", " +
+                    PetHistoryEntry.COLUMN_PET_WEIGHT + ", " +
+                    PetHistoryEntry.COLUMN_CHANGED_AT + ", " +
+                    PetHistoryEntry.COLUMN_OPERATION + ") " +
+                    "SELECT " +
+                    PetEntry._ID + ", " +
+                    PetEntry.COLUMN_PET_NAME + ", " +
+                    PetEntry.COLUMN_PET_BREED + ", " +
+                    PetEntry.COLUMN_PET_GENDER + ", " +
+                    PetEntry.COLUMN_PET_WEIGHT + ", ?, ? " +
+                    "FROM " + PetEntry.VIEW_NAME;
+
+    /**
+     * Entries after the given id, older than the cutoff and not deletions, with a later entry of
+     * the same pet in the same bucket before the cutoff. The later entry is found through the
+     * (pet_id, changed_at) index.
+     */
+    private static final String SQL_SELECT_COMPACTABLE =
+            "SELECT " + PetHistoryEntry._ID + " FROM " + PetHistoryEntry.TABLE_NAME + " h" +
+                    " WHERE h." + PetHistoryEntry._ID + " > ?" +
+                    " AND h." + PetHistoryEntry.COLUMN_CHANGED_AT + " < ?" +
+                    " AND h." + PetHistoryEntry.COLUMN_OPERATION + " != " + PetHistoryEntry.OPERATION_DELETE +
+                    " AND EXISTS (SELECT 1 FROM " + PetHistoryEntry.TABLE_NAME + " later" +
+                    " WHERE later." + PetHistoryEntry.COLUMN_PET_ID + " = h." + PetHistoryEntry.COLUMN_PET_ID +
+                    " AND later." + PetHistoryEntry.COLUMN_CHANGED_AT + " >= h." +
+                    PetHistoryEntry.COLUMN_CHANGED_AT + " / " + COMPACTION_BUCKET_MILLIS + " * " +
+                    COMPACTION_BUCKET_MILLIS +
+                    " AND later." + PetHistoryEntry.COLUMN_CHANGED_AT + " < MIN(CAST(? AS INTEGER), (h." +
+                    PetHistoryEntry.COLUMN_CHANGED_AT + " / " + COMPACTION_BUCKET_MILLIS + " + 1) * " +
+                    COMPACTION_BUCKET_MILLIS + ")" +
+                    " AND later." + PetHistoryEntry._ID + " > h." + PetHistoryEntry._ID + ")" +
+                    " ORDER BY h." + PetHistoryEntry._ID + " LIMIT " + COMPACTION_CHUNK_SIZE;
+
+    private PetHistory() {
+    }
+
+    /**
+     * Appends the current state of the pets matching the selection to the history.
+     * Call it before a delete (to keep the last state) and after an insert.
+     */
+    static void recordRows(PetDatabase db, int operation, long changedAt,
+                           String selection, String[] selectionArgs) {
+        String sql = SQL_INSERT_SELECT;
+        if (selection != null && !selection.isEmpty()) {
+            sql += " WHERE " + selection;
+        }
+        int argCount = selectionArgs == null ? 0 : selectionArgs.length;
+        Object[] bindArgs = new Object[argCount + 2];
+        bindArgs[0] = changedAt;
+        bindArgs[1] = operation;
+        for (int i = 0; i < argCount; i++) {
+            bindArgs[i + 2] = selectionArgs[i];
+        }
+        db.execSQL(sql, bindArgs);
+    }
+
+    /**
+     * Appends the current state of the given pets to the history. Used after an update, when
+     * the caller's selection may no longer match the rows it changed.
+     */
+    static void recordRows(PetDatabase db, int operation, long changedAt, long[] ids) {
+        for (int from = 0; from < ids.length; from += MAX_ARGS_PER_STATEMENT) {
+            int to = Math.min(ids.length, from + MAX_ARGS_PER_STATEMENT);
+            StringBuilder selection = new StringBuilder(PetEntry._ID).append(" IN (");
+            String[] selectionArgs = new String[to - from];
+            for (int i = from; i < to; i++) {
+                selection.append(i == from ? "?" : ",?");
+                selectionArgs[i - from] = String.valueOf(ids[i]);
+            }
+            selection.append(')');
+            recordRows(db, operation, changedAt, selection.toString(), selectionArgs);
+        }
+    }
+
+    /**
+     * @return Ids of the pets matching the selection, which may reference any column of the view
+     */
+    static long[] queryIds(PetDatabase db, String selection, String[] selectionArgs) {
+        Cursor cursor = db.query(PetEntry.VIEW_NAME, new String[]{PetEntry._ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ids[i++] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Finds the next history entries that the retention policy removes: history younger than
+     * {@link #RETENTION_FULL_MILLIS} is kept, older history keeps only the last entry of each pet
+     * per {@link #COMPACTION_BUCKET_MILLIS}. Deletions are always kept, so the history of a pet
+     * never loses its end. An entry goes when a later one of the same pet falls in its bucket,
+     * which deleting entries never changes, so the history can be compacted a chunk at a time.
+     *
+     * @param afterId Id of the last entry of the previous chunk, 0 for the first
+     * @return Ids of at most {@link #COMPACTION_CHUNK_SIZE} entries to remove, ascending. Fewer
+     * means there are no more.
+     */
+    static long[] queryCompactable(PetDatabase db, long now, long afterId) {
+        String cutoff = String.valueOf(now - RETENTION_FULL_MILLIS);
+        Cursor cursor = db.rawQuery(SQL_SELECT_COMPACTABLE,
+                new String[]{String.valueOf(afterId), cutoff, cutoff});
+        try {
+            long[] ids = new long[cursor.getCount()];
+            int i = 0;
+            while (cursor.moveToNext()) {
+                ids[i++] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param ids At most {@link #MAX_ARGS_PER_STATEMENT} history entry ids
+     * @return Number of history entries removed
+     */
+    static int deleteEntries(PetDatabase db, long[] ids) {
+        if (ids.length == 0) {
+            return 0;
+        }
+        StringBuilder selection = new StringBuilder(PetHistoryEntry._ID).append(" IN (");
+        String[] selectionArgs = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = String.valueOf(ids[i]);
+        }
+        selection.append(')');
+        return db.delete(PetHistoryEntry.TABLE_NAME, selection.toString(), selectionArgs);
+    }
+}
@@ -0,0 +1,353 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static android.util.Log.d;
+
+/**
+ * Background maintenance of the pets database: ANALYZE, so the query planner knows the current
+ * shape of the tables, incremental vacuum, so the file gives back the pages freed by deletes, and
+ * a quick integrity check.
+ * <p>
+ * A run is cut into chunks that are each a write transaction of their own, so the writers of the
+ * {@link PetProvider}, which SQLite lets in one at a time, wait at most about one chunk: ANALYZE
+ * goes table by table, each bounded by PRAGMA analysis_limit where SQLite has it, and otherwise
+ * skipped if its estimated time does not fit in the lock budget. The vacuum frees as many pages
+ * per chunk as fit in the lock budget, measured from the previous chunk. The integrity check only
+ * reads, it runs outside of any write. The whole run stops at the run budget, or when cancelled,
+ * and the next run picks up where it left.
+ * <p>
+ * Started by {@link PetMaintenanceJobService} through {@link PetContract#METHOD_RUN_MAINTENANCE}.
+ */
+final class PetMaintenance {
+
+    static final String KEY_STARTED_AT = "started_at";
+    static final String KEY_DURATION_MILLIS = "duration_millis";
+    static final String KEY_ANALYZE_MILLIS = "analyze_millis";
+    static final String KEY_VACUUM_MILLIS = "vacuum_millis";
+    static final String KEY_CHECK_MILLIS = "check_millis";
+    static final String KEY_RECLAIMED_BYTES = "reclaimed_bytes";
+    static final String KEY_MAX_LOCK_HOLD_MILLIS = "max_lock_hold_millis";
+    /**
+     * Number of tables not analyzed because they are too large for the lock budget
+     */
+    static final String KEY_SKIPPED_TABLES = "skipped_tables";
+    /**
+     * "ok", the first problem reported by the integrity check, or absent if it did not run
+     */
+    static final String KEY_INTEGRITY = "integrity";
+    /**
+     * False if the run stopped at the run budget or was cancelled before all the tasks were done
+     */
+    static final String KEY_COMPLETED = "completed";
+
+    private static final String LOG_TAG = PetMaintenance.class.getSimpleName();
+    private static final String PREFS_NAME = "pets_maintenance";
+
+    /**
+     * Value of PRAGMA auto_vacuum once incremental vacuum is enabled
+     */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    /**
+     * Conservative VACUUM speed, to tell whether enabling incremental vacuum fits in the lock budget
+     */
+    private static final long VACUUM_BYTES_PER_MILLI = 4 * 1024;
+
+    private static final int FIRST_VACUUM_CHUNK_PAGES = 32;
+
+    /**
+     * Rows of each index ANALYZE looks at, on SQLite 3.32 and later. Enough for the planner to
+     * tell the selective indices apart.
+     */
+    static final int ANALYSIS_LIMIT = 1000;
+
+    /**
+     * Conservative ANALYZE speed, in index entries, until the first table measures the real one
+     */
+    private static final long ANALYZE_ENTRIES_PER_MILLI = 2000;
+
+    private final PetDbHelper mDbHelper;
+    private final PetDbMetrics mMetrics;
+    private final long mLockBudgetMillis;
+    private final long mRunBudgetMillis;
+    private final AtomicBoolean mCancelled;
+
+    private long mDeadline;
+    private long mMaxLockHoldNanos;
+    private long mLockWaitNanos;
+    private int mSkippedTables;
+
+    /**
+     * @param cancelled Set from another thread to stop the run after the current chunk
+     */
+    PetMaintenance(PetDbHelper dbHelper, PetDbMetrics metrics,
+                   long lockBudgetMillis, long runBudgetMillis, AtomicBoolean cancelled) {
+        mDbHelper = dbHelper;
+        mMetrics = metrics;
+        mLockBudgetMillis = lockBudgetMillis;
+        mRunBudgetMillis = runBudgetMillis;
+        mCancelled = cancelled;
+    }
+
+    /**
+     * Runs the tasks until they are done, the run budget is spent or the run is cancelled.
+     *
+     * @return The report of the run, also kept as the last report
+     */
+    Bundle run(Context context) {
+        long start = SystemClock.elapsedRealtime();
+        mDeadline = start + mRunBudgetMillis;
+        mMaxLockHoldNanos = 0;
+        mSkippedTables = 0;
+        PetDatabase database = mDbHelper.getWritableDatabase();
+        long bytesBefore = fileBytes(database);
+
+        Bundle report = new Bundle();
+        report.putLong(KEY_STARTED_AT, System.currentTimeMillis());
+
+        long taskStart = SystemClock.elapsedRealtime();
+        boolean completed = analyze(database);
+        report.putLong(KEY_ANALYZE_MILLIS, SystemClock.elapsedRealtime() - taskStart);
+
+        if (completed) {
+            taskStart = SystemClock.elapsedRealtime();
+            completed = vacuum(database);
+            report.putLong(KEY_VACUUM_MILLIS, SystemClock.elapsedRealtime() - taskStart);
+        }
+
+        if (completed && !isOver()) {
+            taskStart = SystemClock.elapsedRealtime();
+            report.putString(KEY_INTEGRITY, quickCheck(mDbHelper.getReadableDatabase()));
+            report.putLong(KEY_CHECK_MILLIS, SystemClock.elapsedRealtime() - taskStart);
+        } else {
+            completed = false;
+        }
+
+        report.putLong(KEY_RECLAIMED_BYTES, Math.max(0, bytesBefore - fileBytes(database)));
+        report.putLong(KEY_MAX_LOCK_HOLD_MILLIS, mMaxLockHoldNanos / 1000000);
+        report.putLong(KEY_SKIPPED_TABLES, mSkippedTables);
+        report.putLong(KEY_DURATION_MILLIS, SystemClock.elapsedRealtime() - start);
+        report.putBoolean(KEY_COMPLETED, completed);
+        saveReport(context, report);
+        d(LOG_TAG, "maintenance run: " + report);
+        return report;
+    }
+
+    /**
+     * @return false if the budget ran out or the run was cancelled before every table was analyzed
+     */
+    private boolean analyze(PetDatabase database) {
+        boolean limited = setAnalysisLimit(database);
+        long entriesPerMilli = ANALYZE_ENTRIES_PER_MILLI;
+        for (String table : userTables(database)) {
+            if (isOver()) {
+                return false;
+            }
+            // ANALYZE reads the table and every index of it, counted outside of the write
+            long entries = 0;
+            if (!limited) {
+                entries = database.longForQuery("SELECT COUNT(*) FROM " + table, null)
+                        * (1 + database.longForQuery("SELECT COUNT(*) FROM sqlite_master WHERE type = 'index'" +
+                        " AND tbl_name = ?", new String[]{table}));
+                if (entries / entriesPerMilli > mLockBudgetMillis) {
+                    d(LOG_TAG, "not analyzing " + table + ", " + entries + " entries do not fit in the lock budget");
+                    mSkippedTables++;
+                    continue;
+                }
+            }
+            long lockStart = lock(database);
+            long heldNanos;
+            try {
+                database.execSQL("ANALYZE " + table);
+                database.setTransactionSuccessful();
+            } finally {
+                heldNanos = unlock(database, lockStart);
+            }
+            if (entries >= ANALYZE_ENTRIES_PER_MILLI && heldNanos > 0) {
+                // Large enough to measure this device by
+                entriesPerMilli = Math.max(1, entries * 1000000 / heldNanos);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Older SQLite versions ignore the unknown pragma, and return no row.
+     *
+     * @return true if ANALYZE is bounded to {@link #ANALYSIS_LIMIT} rows per index
+     */
+    private static boolean setAnalysisLimit(PetDatabase database) {
+        Cursor cursor = database.rawQuery("PRAGMA analysis_limit = " + ANALYSIS_LIMIT, null);
+        try {
+            return cursor.moveToFirst() && cursor.getLong(0) == ANALYSIS_LIMIT;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Frees the pages on the free list, a chunk at a time.
+     *
+     * @return false if the budget ran out or the run was cancelled before the free list was empty
+     */
+    private boolean vacuum(PetDatabase database) {
+        if (database.longForQuery("PRAGMA auto_vacuum", null) != AUTO_VACUUM_INCREMENTAL
+                && !enableIncrementalVacuum(database)) {
+            // Too large to switch within the lock budget, the free pages are still reused by inserts
+            return true;
+        }
+
+        long pages = FIRST_VACUUM_CHUNK_PAGES;
+        while (database.longForQuery("PRAGMA freelist_count", null) > 0) {
+            if (isOver()) {
+                return false;
+            }
+            long lockStart = lock(database);
+            long chunkNanos;
+            try {
+                // The pragma frees one page per step, so the cursor has to be stepped to the end
+                Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + pages + ")", null);
+                try {
+                    while (cursor.moveToNext()) {
+                        // Nothing to read
+                    }
+                } finally {
+                    cursor.close();
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                chunkNanos = unlock(database, lockStart);
+            }
+            // Size the next chunk to fill the budget at the speed of this one
+            long budgetNanos = mLockBudgetMillis * 1000000;
+            pages = Math.max(1, Math.min(pages * 4, pages * budgetNanos / Math.max(1, chunkNanos)));
+        }
+        return true;
+    }
+
+    /**
+     * Incremental vacuum is a property of the database file, it only takes effect after a full
+     * VACUUM, which rewrites the whole file while writers wait. It can not run in a transaction,
+     * SQLite keeps the other writers out meanwhile all the same.
+     *
+     * @return false if that would not fit in the lock budget
+     */
+    private boolean enableIncrementalVacuum(PetDatabase database) {
+        long bytes = fileBytes(database);
+        if (bytes / VACUUM_BYTES_PER_MILLI > mLockBudgetMillis) {
+            d(LOG_TAG, "not enabling incremental vacuum, " + bytes + " bytes do not fit in the lock budget");
+            return false;
+        }
+        long lockStart = System.nanoTime();
+        database.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+        database.execSQL("VACUUM");
+        recordHold(0, System.nanoTime() - lockStart);
+        return true;
+    }
+
+    private static String quickCheck(PetDatabase database) {
+        Cursor cursor = database.rawQuery("PRAGMA quick_check(1)", null);
+        try {
+            return cursor.moveToFirst() ? cursor.getString(0) : "ok";
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static List<String> userTables(PetDatabase database) {
+        Cursor cursor = database.rawQuery("SELECT name FROM sqlite_master WHERE type = 'table'" +
+                " AND name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+        try {
+            List<String> tables = new ArrayList<>(cursor.getCount());
+            while (cursor.moveToNext()) {
+                tables.add(cursor.getString(0));
+            }
+            return tables;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long fileBytes(PetDatabase database) {
+        return database.longForQuery("PRAGMA page_count", null) * database.getPageSize();
+    }
+
+    private boolean isOver() {
+        return mCancelled.get() || SystemClock.elapsedRealtime() >= mDeadline;
+    }
+
+    /**
+     * Begins the write transaction of a chunk, once the running writer, if any, is done.
+     *
+     * @return The time it began
+     */
+    private long lock(PetDatabase database) {
+        long start = System.nanoTime();
+        database.beginTransaction();
+        long acquired = System.nanoTime();
+        mLockWaitNanos = acquired - start;
+        return acquired;
+    }
+
+    /**
+     * Ends the write transaction of a chunk.
+     *
+     * @return How long it kept the writers out
+     */
+    private long unlock(PetDatabase database, long acquired) {
+        database.endTransaction();
+        long held = System.nanoTime() - acquired;
+        recordHold(mLockWaitNanos, held);
+        return held;
+    }
+
+    private void recordHold(long waitNanos, long heldNanos) {
+        mMaxLockHoldNanos = Math.max(mMaxLockHoldNanos, heldNanos);
+        mMetrics.record(PetDbMetrics.OP_MAINTENANCE, waitNanos, heldNanos);
+    }
+
+    private static void saveReport(Context context, Bundle report) {
+        SharedPreferences.Editor editor = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit();
+        editor.clear();
+        for (String key : report.keySet()) {
+            Object value = report.get(key);
+            if (value instanceof Long) {
+                editor.putLong(key, (Long) value);
+            } else if (value instanceof Boolean) {
+                editor.putBoolean(key, (Boolean) value);
+            } else if (value instanceof String) {
+                editor.putString(key, (String) value);
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * @return The report of the last run, empty if there was none yet
+     */
+    static Bundle readLastReport(Context context) {
+        Bundle report = new Bundle();
+        for (Map.Entry<String, ?> entry : context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
+                .getAll().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Long) {
+                report.putLong(entry.getKey(), (Long) value);
+            } else if (value instanceof Boolean) {
+                report.putBoolean(entry.getKey(), (Boolean) value);
+            } else if (value instanceof String) {
+                report.putString(entry.getKey(), (String) value);
+            }
+        }
+        return report;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Runs the {@link PetMaintenance} of the pets database once a day, while the device is idle and
+ * charging, so it does not compete with the user for the disk or the battery.
+ * <p>
+ * The run itself happens in the {@link PetProvider}, which owns the database. When the system
+ * stops the job, because the device is no longer idle or charging, the run is cancelled after its
+ * current chunk and the job is rescheduled.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class PetMaintenanceJobService extends JobService {
+
+    private static final int JOB_ID = 1039;
+    private static final long INTERVAL_MILLIS = 24L * 60 * 60 * 1000;
+
+    /**
+     * Schedules the daily job, unless it is already scheduled. Does nothing before Lollipop, the
+     * {@link PetProvider} runs the maintenance along with the history compaction there.
+     */
+    static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return;
+        }
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, PetMaintenanceJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(INTERVAL_MILLIS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        // The run does disk I/O for seconds, keep it off the main thread
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Bundle report = getContentResolver().call(PetEntry.CONTENT_URI,
+                        PetContract.METHOD_RUN_MAINTENANCE, null, null);
+                // Null when another run was already in progress, which is as good as done
+                boolean completed = report == null || report.getBoolean(PetMaintenance.KEY_COMPLETED);
+                jobFinished(params, !completed);
+            }
+        }, "pets-maintenance").start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        getContentResolver().call(PetEntry.CONTENT_URI, PetContract.METHOD_CANCEL_MAINTENANCE, null, null);
+        return true;
+    }
+}
@@ -1,23 +1,85 @@
 package com.example.android.pets.data;
 
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.Resources;
 import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.net.Uri;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Bundle;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
 
+import com.example.android.pets.R;
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.CatalogEntry;
+import com.example.android.pets.data.PetContract.PetHistoryEntry;
 import com.example.android.pets.data.PetContract.QueryType;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+import com.example.android.pets.data.PetContract.WeightRollupEntry;
+import com.example.android.pets.model.PetSchema;
+import com.example.android.pets.model.ShelterSchema;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static android.util.Log.d;
+import static com.example.android.pets.data.PetContract.ACTION_SUMMARY_CHANGED;
 import static com.example.android.pets.data.PetContract.CONTENT_AUTHORITY;
+import static com.example.android.pets.data.PetContract.METHOD_CANCEL_MAINTENANCE;
+import static com.example.android.pets.data.PetContract.METHOD_EXPORT_CATALOG;
+import static com.example.android.pets.data.PetContract.METHOD_GET_MAINTENANCE_REPORT;
+import static com.example.android.pets.data.PetContract.METHOD_GET_METRICS;
+import static com.example.android.pets.data.PetContract.METHOD_GET_STORAGE_STATE;
+import static com.example.android.pets.data.PetContract.METHOD_GET_UNDO_STATE;
+import static com.example.android.pets.data.PetContract.METHOD_REBUILD_ROLLUPS;
+import static com.example.android.pets.data.PetContract.METHOD_REDO;
+import static com.example.android.pets.data.PetContract.METHOD_REFRESH_SUMMARY;
+import static com.example.android.pets.data.PetContract.METHOD_RESET_METRICS;
+import static com.example.android.pets.data.PetContract.METHOD_RUN_MAINTENANCE;
+import static com.example.android.pets.data.PetContract.METHOD_UNDO;
+import static com.example.android.pets.data.PetContract.PATH_BREED_SUGGESTIONS;
+import static com.example.android.pets.data.PetContract.PATH_CATALOG;
+import static com.example.android.pets.data.PetContract.PATH_CATALOG_ID;
 import static com.example.android.pets.data.PetContract.PATH_PETS;
+import static com.example.android.pets.data.PetContract.PATH_PET_DETAILS;
+import static com.example.android.pets.data.PetContract.PATH_PET_DUPLICATES;
 import static com.example.android.pets.data.PetContract.PATH_PETS_ID;
+import static com.example.android.pets.data.PetContract.PATH_PETS_ID_HISTORY;
+import static com.example.android.pets.data.PetContract.PATH_PETS_NEAR;
+import static com.example.android.pets.data.PetContract.PATH_SHELTERS;
+import static com.example.android.pets.data.PetContract.PATH_WEIGHT_ROLLUPS;
 import static com.example.android.pets.data.PetContract.QueryType.QUERY_TYPE_UPDATE;
 
 /**
  * {@link ContentProvider} for Pets app.
+ * <p>
+ * The provider is the single owner of the database for every process (the widget and the sync
+ * service reach it through the content resolver). Reads run on the pool of WAL read connections
+ * kept by {@link PetDbHelper}, the single connection in encrypted mode. Every write runs in a
+ * transaction, which SQLite lets one writer into at a time; the provider keeps no lock of its own.
+ * The time each operation spends waiting and executing is recorded in {@link PetDbMetrics}.
  */
 public class PetProvider extends ContentProvider {
 
@@ -33,6 +95,46 @@ public class PetProvider extends ContentProvider {
      * URI matcher code for the content URI for a single pet in the pets table
      */
     private static final int PET_ID = 101;
+    /**
+     * URI matcher code for the content URI for the history of a single pet
+     */
+    private static final int PET_HISTORY = 102;
+    /**
+     * URI matcher code for the content URI for the groups of likely duplicate pets
+     */
+    private static final int PET_DUPLICATES = 103;
+    /**
+     * URI matcher code for the content URI for the weight rollups
+     */
+    private static final int WEIGHT_ROLLUPS = 200;
+    /**
+     * URI matcher code for the content URI for the breed suggestions
+     */
+    private static final int BREED_SUGGESTIONS = 300;
+    /**
+     * URI matcher code for the content URI for the pets nearest to a location
+     */
+    private static final int PETS_NEAR = 104;
+    /**
+     * URI matcher code for the content URI for the detail columns of a batch of pets
+     */
+    private static final int PET_DETAILS = 105;
+    /**
+     * URI matcher code for the content URI for the shelters
+     */
+    private static final int SHELTERS = 400;
+    /**
+     * URI matcher code for the content URI for the reference catalog
+     */
+    private static final int CATALOG = 500;
+    /**
+     * URI matcher code for the content URI for a single pet of the reference catalog
+     */
+    private static final int CATALOG_ID = 501;
+    /**
+     * History compaction runs at most once per this interval
+     */
+    private static final long COMPACTION_INTERVAL_MILLIS = 24L * 60 * 60 * 1000;
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -48,6 +150,15 @@ public class PetProvider extends ContentProvider {
 
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS, 100);
         sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS_ID, 101);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS_ID_HISTORY, PET_HISTORY);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PET_DUPLICATES, PET_DUPLICATES);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PETS_NEAR, PETS_NEAR);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_PET_DETAILS, PET_DETAILS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_SHELTERS, SHELTERS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_WEIGHT_ROLLUPS, WEIGHT_ROLLUPS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_BREED_SUGGESTIONS, BREED_SUGGESTIONS);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_CATALOG, CATALOG);
+        sUriMatcher.addURI(CONTENT_AUTHORITY, PATH_CATALOG_ID, CATALOG_ID);
     }
 
     /**
@@ -55,6 +166,88 @@ public class PetProvider extends ContentProvider {
      */
     private PetDbHelper mPetDbHelper;
 
+    /**
+     * The rows of the pets table, written by id in the transactions of the provider, and captured
+     * and restored through it by the undo stack
+     */
+    private PetStore mPetStore;
+
+    /**
+     * Contention and latency metrics of every provider operation
+     */
+    private final PetDbMetrics mMetrics = new PetDbMetrics();
+
+    /**
+     * Breed names by id and ids by name, shared with the lists of this process
+     */
+    private final BreedDictionary mBreeds = BreedDictionary.getInstance();
+
+    /**
+     * Snapshots of the rows changed by the writes, to undo and redo them, only used inside a write
+     * transaction
+     */
+    private final PetUndoStack mUndo = new PetUndoStack();
+
+    /**
+     * Runs the history compaction and the summary snapshot off the binder threads
+     */
+    private final ExecutorService mBackgroundExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * URIs changed by the batch running on this thread, null outside of {@link #applyBatch}
+     */
+    private final ThreadLocal<Set<Uri>> mBatchChanges = new ThreadLocal<>();
+
+    /**
+     * Set while a rewrite of the {@link PetSummarySnapshot} is queued, so a burst of writes
+     * rewrites it once
+     */
+    private final AtomicBoolean mSnapshotPending = new AtomicBoolean();
+
+    /**
+     * Set while a {@link PetMaintenance} run is in progress, so the job and the compaction never
+     * run it twice at the same time
+     */
+    private final AtomicBoolean mMaintenanceRunning = new AtomicBoolean();
+
+    /**
+     * Stops the running {@link PetMaintenance} after its current chunk
+     */
+    private final AtomicBoolean mMaintenanceCancelled = new AtomicBoolean();
+
+    /**
+     * Checks the plans of the queries, null unless enabled in config.xml, as in debug builds
+     */
+    private PetQueryPlanGuard mQueryPlanGuard;
+
+    /**
+     * The mapped reference catalog, null until the first catalog query or after an export
+     */
+    private PetCatalog mCatalog;
+
+    /**
+     * Time of the last scheduled history compaction
+     */
+    private final AtomicLong mLastCompactionMillis = new AtomicLong();
+
+    /**
+     * Lets the breed dictionary and the undo stack keep, or forget, what the outermost write
+     * transaction added to them. Told before the transaction ends, while no other writer can start.
+     */
+    private final PetDatabase.TransactionListener mTransactionListener = new PetDatabase.TransactionListener() {
+        @Override
+        public void onCommit() {
+            mBreeds.commit();
+            mUndo.commit();
+        }
+
+        @Override
+        public void onRollback() {
+            mBreeds.rollback();
+            mUndo.rollback();
+        }
+    };
+
     /**
      * Initialize the provider and the database helper object.
      */
@@ -65,6 +258,20 @@ public class PetProvider extends ContentProvider {
         if (mPetDbHelper == null) {
             mPetDbHelper = new PetDbHelper(getContext());
         }
+        mPetStore = new SqlitePetStore(mPetDbHelper);
+        // The dictionary mirrors the database of this provider, never one opened before
+        mBreeds.clear();
+        Resources resources = getContext().getResources();
+        if (resources.getBoolean(R.bool.pets_query_plan_guard)) {
+            mQueryPlanGuard = newQueryPlanGuard(resources.getBoolean(R.bool.pets_query_plan_guard_strict));
+        }
+        // Talks to the system server, keep it off the main thread
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PetMaintenanceJobService.schedule(getContext());
+            }
+        });
         return true;
     }
 
@@ -74,20 +281,52 @@ public class PetProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long start = System.nanoTime();
+        Cursor cursor;
+        int match = sUriMatcher.match(uri);
+        if (match == CATALOG || match == CATALOG_ID) {
+            // Served from the mapped file, the catalog does not open the database
+            cursor = queryCatalog(uri, match, projection, selection, sortOrder);
+        } else {
+            cursor = queryDatabase(uri, match, projection, selection, selectionArgs, sortOrder);
+        }
+
+        // Fill the first cursor window here, so the read connection is borrowed from the pool and
+        // released on this thread and the measured latency includes the actual read, and the wait
+        // for the connection.
+        cursor.getCount();
+        mMetrics.record(PetDbMetrics.OP_QUERY, 0, System.nanoTime() - start);
+
+        // Note: 11/26/2018 by sagar  Notifies changes
+        if (getContext() != null) {
+            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        }
+        return cursor;
+    }
+
+    /**
+     * @param match The code of the URI, other than those of the catalog
+     */
+    private Cursor queryDatabase(Uri uri, int match, String[] projection, String selection,
+                                 String[] selectionArgs, String sortOrder) {
+        PetQueryPlanGuard guard = mQueryPlanGuard;
         // Get readable database
-        SQLiteDatabase database = mPetDbHelper.getReadableDatabase();
+        PetDatabase readable = mPetDbHelper.getReadableDatabase();
+        // The breed dictionary and the duplicates job read whole tables by design, they get the
+        // unchecked database
+        PetDatabase database = guard == null ? readable : guard.wrap(readable);
 
         // This cursor will hold the result of the query
         Cursor cursor;
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
         switch (match) {
             case PETS:
-                // For the PETS code, query the pets table directly with the given
+                // For the PETS code, query the pets view with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the pets table.
-                cursor = database.query(PetContract.PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                // The rows may reference breeds by id only, make sure this process can resolve them
+                mBreeds.ensureLoaded(readable);
+                cursor = database.query(PetContract.PetEntry.VIEW_NAME, projection, selection, selectionArgs, null, null, sortOrder);
                 break;
             case PET_ID:
                 // For the PET_ID code, extract out the ID from the URI.
@@ -103,17 +342,37 @@ public class PetProvider extends ContentProvider {
 
                 // This will perform a query on the pets table where the _id equals 3 to return a
                 // Cursor containing that row of the table.
-                cursor = database.query(PetContract.PetEntry.TABLE_NAME, projection, selection, selectionArgs,
+                mBreeds.ensureLoaded(readable);
+                cursor = database.query(PetContract.PetEntry.VIEW_NAME, projection, selection, selectionArgs,
                         null, null, sortOrder);
                 break;
+            case PET_HISTORY:
+                cursor = queryHistory(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case PET_DUPLICATES:
+                // A batch job over the whole table, callers run it off the UI thread like any query
+                cursor = PetDuplicates.findGroups(readable);
+                break;
+            case PETS_NEAR:
+                mBreeds.ensureLoaded(readable);
+                cursor = queryPetsNear(database, uri, projection, selection, selectionArgs);
+                break;
+            case PET_DETAILS:
+                cursor = queryPetDetails(database, uri, projection);
+                break;
+            case SHELTERS:
+                cursor = database.query(ShelterEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case WEIGHT_ROLLUPS:
+                cursor = queryWeightRollups(database, uri, projection, selection, selectionArgs, sortOrder);
+                break;
+            case BREED_SUGGESTIONS:
+                cursor = queryBreedSuggestions(readable, uri);
+                break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
-
-        // Note: 11/26/2018 by sagar  Notifies changes
-        if (getContext() != null) {
-            cursor.setNotificationUri(getContext().getContentResolver(), uri);
-        }
         return cursor;
     }
 
@@ -128,6 +387,24 @@ public class PetProvider extends ContentProvider {
                 return PetContract.PetEntry.CONTENT_LIST_TYPE;
             case PET_ID:
                 return PetContract.PetEntry.CONTENT_ITEM_TYPE;
+            case PET_HISTORY:
+                return PetHistoryEntry.CONTENT_LIST_TYPE;
+            case PET_DUPLICATES:
+                return PetContract.PetEntry.CONTENT_DUPLICATES_TYPE;
+            case PETS_NEAR:
+                return PetContract.PetEntry.CONTENT_NEAR_TYPE;
+            case PET_DETAILS:
+                return PetContract.PetEntry.CONTENT_DETAILS_TYPE;
+            case SHELTERS:
+                return ShelterEntry.CONTENT_LIST_TYPE;
+            case WEIGHT_ROLLUPS:
+                return WeightRollupEntry.CONTENT_LIST_TYPE;
+            case BREED_SUGGESTIONS:
+                return BreedEntry.CONTENT_LIST_TYPE;
+            case CATALOG:
+                return CatalogEntry.CONTENT_LIST_TYPE;
+            case CATALOG_ID:
+                return CatalogEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
@@ -139,69 +416,221 @@ public class PetProvider extends ContentProvider {
     @Override
     public Uri insert(Uri uri, ContentValues contentValues) {
         int uriCode = sUriMatcher.match(uri);
-        Uri uriResult;
         switch (uriCode) {
             case PETS:
-                uriResult = insertPet(uri, contentValues);
-                break;
+                return insertPet(uri, contentValues);
+            case SHELTERS:
+                return insertShelter(uri, contentValues);
 
             default:
                 throw new IllegalArgumentException("Cannot insert unknown URI " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
-        return uriResult;
     }
 
-    private Uri insertPet(Uri uri, ContentValues contentValues) {
+    private Uri insertPet(Uri uri, ContentValues insertValues) {
+        // The hash and the duplicate check see the values the row is stored with
+        ContentValues contentValues = PetSchema.withDefaults(insertValues);
         // Note: 11/25/2018 by sagar  Go ahead only after validation
         if (validation(contentValues, PetContract.QueryType.QUERY_TYPE_INSERT)) {
+            boolean skipDuplicates = Boolean.parseBoolean(
+                    uri.getQueryParameter(PetContract.PetEntry.PARAM_SKIP_DUPLICATES));
+            long start = System.nanoTime();
             // Note: 11/25/2018 by sagar  We need writable database for insert operation
-            SQLiteDatabase database = mPetDbHelper.getWritableDatabase();
-            long id = database.insert(PetContract.PetEntry.TABLE_NAME, null, contentValues);
+            PetDatabase database = mPetDbHelper.getWritableDatabase();
+            beginWrite(database);
+            long acquired = System.nanoTime();
+            long id;
+            boolean inserted = false;
+            boolean sheltered = contentValues.get(PetContract.PetEntry.COLUMN_PET_SHELTER_ID) != null;
+            try {
+                long hash = PetDuplicates.hash(contentValues);
+                id = skipDuplicates ? PetDuplicates.findDuplicate(database, hash, contentValues) : -1;
+                if (id == -1) {
+                    ContentValues row = toRow(database, contentValues, hash);
+                    id = mPetStore.insert(row);
+                    if (id != -1) {
+                        inserted = true;
+                        recordInserts(database, new long[]{id}, new ContentValues[]{row});
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+                mMetrics.record(PetDbMetrics.OP_INSERT, acquired - start, System.nanoTime() - acquired);
+            }
+            scheduleCompaction();
             // Note: 11/25/2018 by sagar  Once we know id of newly inserted row, return the new uri
             // that contains generated id
-            return ContentUris.withAppendedId(uri, id);
+            Uri uriResult = ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, id);
+            if (inserted) {
+                // Notify the URI of the new row, so only observers of the list or of that row requery
+                notifyPetsChange(uriResult, sheltered);
+                notifyChange(WeightRollupEntry.CONTENT_URI);
+                scheduleSummarySnapshot();
+            }
+            return uriResult;
         } else {
             return uri;
         }
     }
 
-    private boolean validation(ContentValues contentValues, int queryType) {
-        //Check the type of query to ease conditional validation process
-        boolean isInsertQuery = isInsertQuery(queryType);
-
-        // Check that the name is not null
-        if (isInsertQuery || contentValues.containsKey(PetContract.PetEntry.COLUMN_PET_NAME)) {
-            String name = contentValues.getAsString(PetContract.PetEntry.COLUMN_PET_NAME);
-            if (name == null) {
-                throw new IllegalArgumentException("Pet requires a name");
-            }
+    /**
+     * Inserts all the pets in one transaction, with one history and rollup write and one change
+     * notification for the whole batch. Pets that duplicate an existing pet, or an earlier pet of
+     * the batch, are skipped unless the URI has {@link PetContract.PetEntry#PARAM_SKIP_DUPLICATES}
+     * set to false.
+     *
+     * @return Number of pets inserted
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] insertValues) {
+        if (sUriMatcher.match(uri) != PETS) {
+            throw new IllegalArgumentException("Cannot insert unknown URI " + uri);
+        }
+        boolean skipDuplicates = !"false".equals(uri.getQueryParameter(PetContract.PetEntry.PARAM_SKIP_DUPLICATES));
+        // Validate the whole batch first, so an invalid pet does not leave half of it behind
+        ContentValues[] values = new ContentValues[insertValues.length];
+        boolean[] valid = new boolean[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = PetSchema.withDefaults(insertValues[i]);
+            valid[i] = validation(values[i], PetContract.QueryType.QUERY_TYPE_INSERT);
         }
 
-        if (isInsertQuery || contentValues.containsKey(PetContract.PetEntry.COLUMN_PET_BREED)) {
-            String breed = contentValues.getAsString(PetContract.PetEntry.COLUMN_PET_BREED);
-            if (breed == null) {
-                d("PetProvider: ", "PetProvider: validation: breed is null");
+        long start = System.nanoTime();
+        PetDatabase database = mPetDbHelper.getWritableDatabase();
+        beginWrite(database);
+        long acquired = System.nanoTime();
+        long[] ids = new long[values.length];
+        ContentValues[] rows = new ContentValues[values.length];
+        int inserted = 0;
+        try {
+            for (int i = 0; i < values.length; i++) {
+                if (!valid[i]) {
+                    continue;
+                }
+                long hash = PetDuplicates.hash(values[i]);
+                if (skipDuplicates && PetDuplicates.findDuplicate(database, hash, values[i]) != -1) {
+                    continue;
+                }
+                ContentValues row = toRow(database, values[i], hash);
+                long id = mPetStore.insert(row);
+                if (id != -1) {
+                    ids[inserted] = id;
+                    rows[inserted++] = row;
+                }
+            }
+            if (inserted > 0) {
+                recordInserts(database, Arrays.copyOf(ids, inserted), Arrays.copyOf(rows, inserted));
             }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mMetrics.record(PetDbMetrics.OP_INSERT, acquired - start, System.nanoTime() - acquired);
         }
+        scheduleCompaction();
+        if (inserted > 0) {
+            notifyChange(uri);
+            notifyChange(WeightRollupEntry.CONTENT_URI);
+            scheduleSummarySnapshot();
+        }
+        return inserted;
+    }
 
-        if (isInsertQuery || contentValues.containsKey(PetContract.PetEntry.COLUMN_PET_GENDER)) {
-            int gender = contentValues.getAsInteger(PetContract.PetEntry.COLUMN_PET_GENDER);
-            if (gender != PetContract.PetEntry.GENDER_UNKNOWN
-                    && gender != PetContract.PetEntry.GENDER_MALE
-                    && gender != PetContract.PetEntry.GENDER_FEMALE) {
-                throw new IllegalArgumentException("Invalid pet gender: " + gender);
-            }
+    /**
+     * @return The values of the pet by the columns of the pets table, with its content hash. Must
+     * be called inside the write transaction, it may add the breed.
+     */
+    private ContentValues toRow(PetDatabase database, ContentValues contentValues, long hash) {
+        ContentValues values = new ContentValues(toTableValues(database, contentValues));
+        values.put(PetContract.PetEntry.COLUMN_PET_CONTENT_HASH, hash);
+        return values;
+    }
+
+    /**
+     * Writes the history and the rollup samples of newly inserted pets, and keeps them to be undone.
+     *
+     * @param rows The values each pet was inserted with, as {@link #toRow} returned them
+     */
+    private void recordInserts(PetDatabase database, long[] ids, ContentValues[] rows) {
+        PetUndoStack.Rows inserted = PetUndoStack.inserted(ids, rows);
+        mUndo.record(PetUndoStack.Rows.EMPTY, inserted);
+        inserted.countBreeds(mBreeds, 1);
+        long now = System.currentTimeMillis();
+        long historyStart = System.nanoTime();
+        PetHistory.recordRows(database, PetHistoryEntry.OPERATION_INSERT, now, ids);
+        mMetrics.record(PetDbMetrics.OP_HISTORY, 0, System.nanoTime() - historyStart);
+        long rollupStart = System.nanoTime();
+        PetRollups.addSamples(database, now, ids);
+        mMetrics.record(PetDbMetrics.OP_ROLLUP, 0, System.nanoTime() - rollupStart);
+    }
+
+    private boolean validation(ContentValues contentValues, int queryType) {
+        // The rules are generated from the annotations of Pet
+        PetSchema.validate(contentValues, isInsertQuery(queryType));
+        return contentValues.size() > 0;
+    }
+
+    /**
+     * Inserts a shelter, with the grid cell of its location.
+     */
+    private Uri insertShelter(Uri uri, ContentValues contentValues) {
+        ShelterSchema.validate(contentValues, true);
+        ContentValues values = new ContentValues(contentValues);
+        values.put(ShelterEntry.COLUMN_CELL, ShelterGrid.cell(
+                values.getAsDouble(ShelterEntry.COLUMN_LATITUDE), values.getAsDouble(ShelterEntry.COLUMN_LONGITUDE)));
+        long start = System.nanoTime();
+        PetDatabase database = mPetDbHelper.getWritableDatabase();
+        beginWrite(database);
+        long acquired = System.nanoTime();
+        long id;
+        try {
+            id = database.insert(ShelterEntry.TABLE_NAME, null, values);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mMetrics.record(PetDbMetrics.OP_INSERT, acquired - start, System.nanoTime() - acquired);
+        }
+        if (id == -1) {
+            return null;
         }
+        notifyChange(uri);
+        return ContentUris.withAppendedId(ShelterEntry.CONTENT_URI, id);
+    }
 
-        if (isInsertQuery || contentValues.containsKey(PetContract.PetEntry.COLUMN_PET_WEIGHT)) {
-            int weight = contentValues.getAsInteger(PetContract.PetEntry.COLUMN_PET_WEIGHT);
-            if (weight < 0) {
-                throw new IllegalArgumentException("Pet weight cannot be negative: " + weight);
+    /**
+     * Updates shelters, moving them to the grid cell of their new location if they moved.
+     */
+    private int updateShelters(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        ShelterSchema.validate(contentValues, false);
+        ContentValues values = new ContentValues(contentValues);
+        boolean moved = values.containsKey(ShelterEntry.COLUMN_LATITUDE)
+                || values.containsKey(ShelterEntry.COLUMN_LONGITUDE);
+        if (moved) {
+            // The cell depends on both, so a move has to give both
+            if (!values.containsKey(ShelterEntry.COLUMN_LATITUDE) || !values.containsKey(ShelterEntry.COLUMN_LONGITUDE)) {
+                throw new IllegalArgumentException("A shelter moves with both latitude and longitude");
             }
+            values.put(ShelterEntry.COLUMN_CELL, ShelterGrid.cell(
+                    values.getAsDouble(ShelterEntry.COLUMN_LATITUDE), values.getAsDouble(ShelterEntry.COLUMN_LONGITUDE)));
         }
-
-        return contentValues.size() > 0;
+        long start = System.nanoTime();
+        PetDatabase database = mPetDbHelper.getWritableDatabase();
+        beginWrite(database);
+        long acquired = System.nanoTime();
+        int affectedRows;
+        try {
+            affectedRows = database.update(ShelterEntry.TABLE_NAME, values, selection, selectionArgs);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mMetrics.record(PetDbMetrics.OP_UPDATE, acquired - start, System.nanoTime() - acquired);
+        }
+        if (affectedRows != 0) {
+            notifyChange(uri);
+            // The pets near a location include the shelter names and distances
+            notifyChange(PetContract.PetEntry.NEAR_URI);
+        }
+        return affectedRows;
     }
 
     /**
@@ -226,11 +655,36 @@ public class PetProvider extends ContentProvider {
     }
 
     private int deletePet(Uri uri, String selection, String[] selectionArgs){
+        long start = System.nanoTime();
         // Get writeable database
-        SQLiteDatabase database = mPetDbHelper.getWritableDatabase();
-        int affectedRows = database.delete(PetContract.PetEntry.TABLE_NAME, selection, selectionArgs);
+        PetDatabase database = mPetDbHelper.getWritableDatabase();
+        beginWrite(database);
+        long acquired = System.nanoTime();
+        int affectedRows;
+        boolean sheltered;
+        try {
+            // Keep the last state of the pets before they are gone
+            long historyStart = System.nanoTime();
+            PetHistory.recordRows(database, PetHistoryEntry.OPERATION_DELETE,
+                    System.currentTimeMillis(), selection, selectionArgs);
+            mMetrics.record(PetDbMetrics.OP_HISTORY, 0, System.nanoTime() - historyStart);
+            // And the rows themselves, to put them back with their ids on undo. The selection
+            // is of the columns of the pets view, the store is written by id.
+            long[] ids = PetHistory.queryIds(database, selection, selectionArgs);
+            PetUndoStack.Rows deleted = PetUndoStack.capture(mPetStore, ids);
+            affectedRows = mPetStore.delete(ids);
+            mUndo.record(deleted, PetUndoStack.Rows.EMPTY);
+            deleted.countBreeds(mBreeds, -1);
+            sheltered = deleted.hasShelter();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mMetrics.record(PetDbMetrics.OP_DELETE, acquired - start, System.nanoTime() - acquired);
+        }
+        scheduleCompaction();
         if (affectedRows != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyPetsChange(uri, sheltered);
+            scheduleSummarySnapshot();
         }
         return affectedRows;
     }
@@ -240,10 +694,11 @@ public class PetProvider extends ContentProvider {
      */
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        if (sUriMatcher.match(uri) == SHELTERS) {
+            return updateShelters(uri, contentValues, selection, selectionArgs);
+        }
         // Note: 11/25/2018 by sagar  Go ahead only after validation
         if (validation(contentValues, QUERY_TYPE_UPDATE)) {
-//            SQLiteDatabase database = mPetDbHelper.getWritableDatabase();
-//            long id = database.update(PetContract.PetEntry.TABLE_NAME, contentValues, selection, selectionArgs);
             final int match = sUriMatcher.match(uri);
             switch (match) {
                 case PETS:
@@ -269,14 +724,590 @@ public class PetProvider extends ContentProvider {
      * Return the number of rows that were successfully updated.
      */
     private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        SQLiteDatabase database = mPetDbHelper.getWritableDatabase();
-        long affectedRows = database.update(PetContract.PetEntry.TABLE_NAME, values, selection, selectionArgs);
+        long start = System.nanoTime();
+        PetDatabase database = mPetDbHelper.getWritableDatabase();
+        beginWrite(database);
+        long acquired = System.nanoTime();
+        long affectedRows;
+        boolean sheltered;
+        try {
+            // Callers select by the columns of the pets view, and the selection may not match
+            // the rows any more once they are updated, so the store is written by the ids the
+            // selection matched before the update
+            long historyStart = System.nanoTime();
+            long[] ids = PetHistory.queryIds(database, selection, selectionArgs);
+            long historyNanos = System.nanoTime() - historyStart;
+            PetUndoStack.Rows before = PetUndoStack.capture(mPetStore, ids);
+            affectedRows = mPetStore.update(ids, toTableValues(database, values));
+            if (changesContent(values)) {
+                PetDuplicates.updateHashes(database, ids);
+            }
+            PetUndoStack.Rows after = PetUndoStack.capture(mPetStore, ids);
+            mUndo.record(before, after);
+            before.countBreeds(mBreeds, -1);
+            after.countBreeds(mBreeds, 1);
+            // Pets that moved in or out of a shelter, or changed while at one, change the near list
+            sheltered = before.hasShelter() || after.hasShelter();
+            long now = System.currentTimeMillis();
+            historyStart = System.nanoTime();
+            PetHistory.recordRows(database, PetHistoryEntry.OPERATION_UPDATE, now, ids);
+            historyNanos += System.nanoTime() - historyStart;
+            mMetrics.record(PetDbMetrics.OP_HISTORY, 0, historyNanos);
+            long rollupStart = System.nanoTime();
+            // Renames and the like are no weight samples
+            PetRollups.addSamples(database, now, after.weightChangedSince(before));
+            mMetrics.record(PetDbMetrics.OP_ROLLUP, 0, System.nanoTime() - rollupStart);
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mMetrics.record(PetDbMetrics.OP_UPDATE, acquired - start, System.nanoTime() - acquired);
+        }
+        scheduleCompaction();
         if (affectedRows != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyPetsChange(uri, sheltered);
+            notifyChange(WeightRollupEntry.CONTENT_URI);
+            scheduleSummarySnapshot();
         }
         return (int) affectedRows;
     }
 
+    /**
+     * Applies the operations in one transaction and sends one change notification per URI once
+     * the whole batch has committed. Used by the catalog for bulk edits and deletes of the
+     * selected pets.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        Set<Uri> changes = new LinkedHashSet<>();
+        ContentProviderResult[] results;
+        PetDatabase database = mPetDbHelper.getWritableDatabase();
+        beginWrite(database);
+        mBatchChanges.set(changes);
+        try {
+            // Every operation calls back into insert, update or delete, which nest their
+            // transactions in this one
+            results = super.applyBatch(operations);
+            database.setTransactionSuccessful();
+        } finally {
+            mBatchChanges.remove();
+            database.endTransaction();
+        }
+        for (Uri uri : changes) {
+            notifyChange(uri);
+        }
+        if (!changes.isEmpty()) {
+            scheduleSummarySnapshot();
+        }
+        return results;
+    }
+
+    /**
+     * @return true if the values change a column the content hash is computed from
+     */
+    private static boolean changesContent(ContentValues values) {
+        return values.containsKey(PetContract.PetEntry.COLUMN_PET_NAME)
+                || values.containsKey(PetContract.PetEntry.COLUMN_PET_BREED)
+                || values.containsKey(PetContract.PetEntry.COLUMN_PET_GENDER)
+                || values.containsKey(PetContract.PetEntry.COLUMN_PET_WEIGHT);
+    }
+
+    /**
+     * Translates the breed name of the values into the id of the breed in the {@link BreedDictionary},
+     * adding the breed if it is new. Must be called inside the write transaction.
+     */
+    private ContentValues toTableValues(PetDatabase database, ContentValues contentValues) {
+        if (!contentValues.containsKey(PetContract.PetEntry.COLUMN_PET_BREED)) {
+            return contentValues;
+        }
+        ContentValues values = new ContentValues(contentValues);
+        String breed = values.getAsString(PetContract.PetEntry.COLUMN_PET_BREED);
+        values.remove(PetContract.PetEntry.COLUMN_PET_BREED);
+        if (breed == null) {
+            values.putNull(PetContract.PetEntry.COLUMN_PET_BREED_ID);
+        } else {
+            values.put(PetContract.PetEntry.COLUMN_PET_BREED_ID, mBreeds.getOrCreateId(database, breed));
+        }
+        return values;
+    }
+
+    /**
+     * Begins a write transaction, waiting while another thread or process writes. The outermost
+     * one lets the breed dictionary keep, or forget, the breeds it added during the transaction
+     * and the numbers of pets it changed, and the undo stack the changes it recorded. A
+     * transaction nested in a batch leaves that to the outer one, so a batch is undone as a whole.
+     */
+    private void beginWrite(PetDatabase database) {
+        if (database.inTransaction()) {
+            database.beginTransaction();
+        } else {
+            // Counts the pets of each breed before any write changes them, the writes count
+            // their changes as they go
+            mBreeds.ensureLoaded(database);
+            database.beginTransactionWithListener(mTransactionListener);
+        }
+    }
+
+    /**
+     * Notifies the observers of the URI, or, during {@link #applyBatch}, defers the notification
+     * to the end of the batch.
+     */
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges == null) {
+            getContext().getContentResolver().notifyChange(uri, null);
+            return;
+        }
+        // One notification of the pets URI reaches the observers of every row of the batch
+        int match = sUriMatcher.match(uri);
+        batchChanges.add(match == PETS || match == PET_ID ? PetContract.PetEntry.CONTENT_URI : uri);
+    }
+
+    /**
+     * Notifies a change of pets. The list of pets near a location is below the pets URI, but not
+     * below the URI of a single pet, so it is notified as well if one of the pets is at a shelter.
+     */
+    private void notifyPetsChange(Uri uri, boolean sheltered) {
+        notifyChange(uri);
+        if (sheltered && sUriMatcher.match(uri) == PET_ID) {
+            notifyChange(PetContract.PetEntry.NEAR_URI);
+        }
+    }
+
+    /**
+     * Queries the history of the pet in the URI, optionally limited to the time range given by the
+     * {@link PetHistoryEntry#PARAM_FROM} and {@link PetHistoryEntry#PARAM_TO} query parameters.
+     * Served by the (pet_id, changed_at) index, oldest entry first unless a sort order is given.
+     */
+    private Cursor queryHistory(PetDatabase database, Uri uri, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        // content://com.example.android.pets/pets/3/history -> segments are pets, 3, history
+        String petId = uri.getPathSegments().get(1);
+        String historySelection = PetHistoryEntry.COLUMN_PET_ID + "=?";
+        String[] historyArgs = new String[]{petId};
+
+        String from = uri.getQueryParameter(PetHistoryEntry.PARAM_FROM);
+        if (from != null) {
+            historySelection += " AND " + PetHistoryEntry.COLUMN_CHANGED_AT + ">=?";
+            historyArgs = DatabaseUtils.appendSelectionArgs(historyArgs, new String[]{from});
+        }
+        String to = uri.getQueryParameter(PetHistoryEntry.PARAM_TO);
+        if (to != null) {
+            historySelection += " AND " + PetHistoryEntry.COLUMN_CHANGED_AT + "<?";
+            historyArgs = DatabaseUtils.appendSelectionArgs(historyArgs, new String[]{to});
+        }
+
+        if (sortOrder == null) {
+            sortOrder = PetHistoryEntry.COLUMN_CHANGED_AT + " ASC";
+        }
+        return database.query(PetHistoryEntry.TABLE_NAME, projection,
+                DatabaseUtils.concatenateWhere(historySelection, selection),
+                DatabaseUtils.appendSelectionArgs(historyArgs, selectionArgs),
+                null, null, sortOrder);
+    }
+
+    /**
+     * Queries the weight rollups of the bucket size given by the {@link WeightRollupEntry#PARAM_BUCKET}
+     * query parameter, daily by default. Callers narrow it down to breeds and time ranges with the
+     * selection; rows are ordered by breed and bucket start unless a sort order is given.
+     */
+    private Cursor queryWeightRollups(PetDatabase database, Uri uri, String[] projection,
+                                      String selection, String[] selectionArgs, String sortOrder) {
+        int bucket = WeightRollupEntry.BUCKET_NAME_WEEKLY.equals(uri.getQueryParameter(WeightRollupEntry.PARAM_BUCKET))
+                ? WeightRollupEntry.BUCKET_WEEKLY
+                : WeightRollupEntry.BUCKET_DAILY;
+        if (sortOrder == null) {
+            sortOrder = WeightRollupEntry.COLUMN_BREED + ", " + WeightRollupEntry.COLUMN_BUCKET_START;
+        }
+        return database.query(WeightRollupEntry.VIEW_NAME, projection,
+                DatabaseUtils.concatenateWhere(WeightRollupEntry.COLUMN_BUCKET + "=" + bucket, selection),
+                selectionArgs, null, null, sortOrder);
+    }
+
+    /**
+     * Serves the {@link PetContract.PetEntry#NEAR_URI} from the grid index of the shelters.
+     */
+    private Cursor queryPetsNear(PetDatabase database, Uri uri, String[] projection,
+                                 String selection, String[] selectionArgs) {
+        String latitude = uri.getQueryParameter(PetContract.PetEntry.PARAM_LATITUDE);
+        String longitude = uri.getQueryParameter(PetContract.PetEntry.PARAM_LONGITUDE);
+        if (latitude == null || longitude == null) {
+            throw new IllegalArgumentException("Pets near a location require lat and lon: " + uri);
+        }
+        String limit = uri.getQueryParameter(PetContract.PetEntry.PARAM_LIMIT);
+        String radiusKm = uri.getQueryParameter(PetContract.PetEntry.PARAM_RADIUS_KM);
+        double lat;
+        double lon;
+        int maxPets;
+        double radius;
+        try {
+            lat = Double.parseDouble(latitude);
+            lon = Double.parseDouble(longitude);
+            maxPets = limit == null ? PetContract.PetEntry.DEFAULT_NEAR_LIMIT : Math.max(1, Integer.parseInt(limit));
+            radius = radiusKm == null ? PetContract.PetEntry.DEFAULT_NEAR_RADIUS_KM : Double.parseDouble(radiusKm);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The location of pets near is not a number: " + uri, e);
+        }
+        // The comparisons are false for NaN, so NaN is rejected too
+        if (!(lat >= -90 && lat <= 90) || !(lon >= -180 && lon <= 180)) {
+            throw new IllegalArgumentException("Pets near a location out of range: " + uri);
+        }
+        if (!(radius > 0) || Double.isInfinite(radius)) {
+            throw new IllegalArgumentException("The radius of pets near is not a positive distance: " + uri);
+        }
+        return ShelterGrid.queryNearestPets(database, lat, lon, maxPets, radius, projection, selection, selectionArgs);
+    }
+
+    /**
+     * Serves the {@link PetContract.PetEntry#DETAILS_URI}: the detail columns of the pets of the
+     * ids parameter, in one query however many pets are on screen.
+     */
+    private Cursor queryPetDetails(PetDatabase database, Uri uri, String[] projection) {
+        String ids = uri.getQueryParameter(PetContract.PetEntry.PARAM_IDS);
+        String[] selectionArgs = ids == null || ids.isEmpty() ? new String[0] : ids.split(",");
+        if (selectionArgs.length > PetContract.PetEntry.MAX_DETAIL_IDS) {
+            throw new IllegalArgumentException("At most " + PetContract.PetEntry.MAX_DETAIL_IDS
+                    + " pets per details query: " + uri);
+        }
+        for (String id : selectionArgs) {
+            // Throws on anything but an id
+            Long.parseLong(id);
+        }
+        StringBuilder selection = new StringBuilder(PetContract.PetEntry._ID).append(" IN (");
+        for (int i = 0; i < selectionArgs.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        selection.append(')');
+        return database.query(PetContract.PetEntry.VIEW_NAME,
+                projection == null ? PetContract.PetEntry.DETAIL_PROJECTION : projection,
+                selection.toString(), selectionArgs, null, null, null);
+    }
+
+    /**
+     * Serves the breed autocomplete from the in-memory prefix index of the {@link BreedDictionary}
+     * rather than from a LIKE query. The index is kept up to date as breeds are added, and the
+     * number of pets of each breed as pets are written, so the database is only read to load the
+     * dictionary.
+     */
+    private Cursor queryBreedSuggestions(PetDatabase database, Uri uri) {
+        String prefix = uri.getQueryParameter(BreedEntry.PARAM_PREFIX);
+        String limit = uri.getQueryParameter(BreedEntry.PARAM_LIMIT);
+        int maxSuggestions;
+        try {
+            maxSuggestions = limit == null ? BreedEntry.DEFAULT_SUGGESTION_LIMIT : Math.max(1, Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("The limit of breed suggestions is not a number: " + uri, e);
+        }
+        List<String> suggestions = mBreeds.suggest(database, prefix == null ? "" : prefix.trim(), maxSuggestions);
+
+        // The row id is only there for CursorAdapter, which requires an _id column
+        MatrixCursor cursor = new MatrixCursor(
+                new String[]{BreedEntry._ID, BreedEntry.COLUMN_BREED_NAME}, suggestions.size());
+        for (int i = 0; i < suggestions.size(); i++) {
+            cursor.addRow(new Object[]{i, suggestions.get(i)});
+        }
+        return cursor;
+    }
+
+    /**
+     * Serves the {@link CatalogEntry} URIs from the mapped {@link PetCatalog}, without SQLite.
+     */
+    private Cursor queryCatalog(Uri uri, int match, String[] projection, String selection, String sortOrder) {
+        if (selection != null || sortOrder != null) {
+            throw new IllegalArgumentException("The catalog is only queried whole or by id " + uri);
+        }
+        PetCatalog catalog = getCatalog();
+        if (match == CATALOG) {
+            return new PetCatalogCursor(catalog, 0, catalog.getRowCount(), projection);
+        }
+        int row = catalog.indexOf(ContentUris.parseId(uri));
+        return new PetCatalogCursor(catalog, Math.max(0, row), row < 0 ? 0 : 1, projection);
+    }
+
+    /**
+     * @return The reference catalog, mapped on first use, or an empty one if there is none
+     */
+    private synchronized PetCatalog getCatalog() {
+        if (mCatalog == null) {
+            try {
+                mCatalog = PetCatalog.open(getCatalogFile());
+            } catch (FileNotFoundException e) {
+                // Not exported or installed yet, look again on the next query
+                return PetCatalog.empty();
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Can not open the catalog", e);
+                return PetCatalog.empty();
+            }
+        }
+        return mCatalog;
+    }
+
+    private AtomicFile getCatalogFile() {
+        return new AtomicFile(new File(getContext().getFilesDir(), PetCatalog.FILE_NAME));
+    }
+
+    /**
+     * Writes the pets table to the reference catalog and maps the new file for the next queries.
+     * Writers wait meanwhile, so the catalog is a consistent copy of the table.
+     */
+    private Bundle exportCatalog() {
+        if (mPetDbHelper.isEncrypted()) {
+            throw new IllegalStateException("The catalog can not be exported from an encrypted database");
+        }
+        int count;
+        PetDatabase database = mPetDbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            Cursor pets = PetCatalog.queryPets(database);
+            try {
+                count = PetCatalog.write(pets, getCatalogFile());
+            } finally {
+                pets.close();
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Can not write the catalog", e);
+        } finally {
+            database.endTransaction();
+        }
+        synchronized (this) {
+            mCatalog = null;
+        }
+        notifyChange(CatalogEntry.CONTENT_URI);
+
+        Bundle result = new Bundle();
+        result.putInt(PetContract.EXTRA_PET_COUNT, count);
+        return result;
+    }
+
+    /**
+     * Schedules the history compaction on the background executor, at most once per
+     * {@link #COMPACTION_INTERVAL_MILLIS}.
+     */
+    private void scheduleCompaction() {
+        long now = System.currentTimeMillis();
+        long last = mLastCompactionMillis.get();
+        if (now - last < COMPACTION_INTERVAL_MILLIS || !mLastCompactionMillis.compareAndSet(last, now)) {
+            return;
+        }
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                PetDatabase database = mPetDbHelper.getWritableDatabase();
+                long now = System.currentTimeMillis();
+                long afterId = 0;
+                int removed = 0;
+                long[] ids;
+                // A transaction per chunk, so writers wait for one chunk at most
+                do {
+                    long start = System.nanoTime();
+                    database.beginTransaction();
+                    long acquired = System.nanoTime();
+                    try {
+                        ids = PetHistory.queryCompactable(database, now, afterId);
+                        removed += PetHistory.deleteEntries(database, ids);
+                        database.setTransactionSuccessful();
+                    } finally {
+                        database.endTransaction();
+                        mMetrics.record(PetDbMetrics.OP_COMPACT, acquired - start, System.nanoTime() - acquired);
+                    }
+                    if (ids.length > 0) {
+                        afterId = ids[ids.length - 1];
+                    }
+                } while (ids.length == PetHistory.COMPACTION_CHUNK_SIZE);
+                d(LOG_TAG, "compacted history, removed " + removed + " entries");
+                // There is no job scheduler before Lollipop, the daily compaction stands in for it
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP && isCharging()) {
+                    runMaintenance();
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues a rewrite of the {@link PetSummarySnapshot} on the background executor, unless one
+     * is already queued. Called after a write has committed, so the rewrite reads it.
+     */
+    private void scheduleSummarySnapshot() {
+        // A batch schedules it once it has committed
+        if (mBatchChanges.get() != null || !mSnapshotPending.compareAndSet(false, true)) {
+            return;
+        }
+        mBackgroundExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                // Cleared first, so a write committed during the rewrite queues another one
+                mSnapshotPending.set(false);
+                try {
+                    PetSummarySnapshot.write(getContext(), mPetDbHelper.getReadableDatabase(),
+                            !mPetDbHelper.isEncrypted());
+                } catch (IOException e) {
+                    Log.w(LOG_TAG, "Can not write the summary snapshot", e);
+                    return;
+                }
+                getContext().sendBroadcast(new Intent(ACTION_SUMMARY_CHANGED)
+                        .setPackage(getContext().getPackageName()));
+            }
+        });
+    }
+
+    /**
+     * Runs the {@link PetMaintenance} within the budgets of config.xml.
+     *
+     * @return The report of the run, or null if a run is already in progress
+     */
+    private Bundle runMaintenance() {
+        if (!mMaintenanceRunning.compareAndSet(false, true)) {
+            return null;
+        }
+        try {
+            mMaintenanceCancelled.set(false);
+            Context context = getContext();
+            return new PetMaintenance(mPetDbHelper, mMetrics,
+                    context.getResources().getInteger(R.integer.pets_maintenance_lock_budget_ms),
+                    context.getResources().getInteger(R.integer.pets_maintenance_run_budget_ms),
+                    mMaintenanceCancelled).run(context);
+        } finally {
+            mMaintenanceRunning.set(false);
+        }
+    }
+
+    private PetQueryPlanGuard newQueryPlanGuard(boolean strict) {
+        return new PetQueryPlanGuard(getContext().getResources().getInteger(R.integer.pets_query_plan_guard_rows), strict);
+    }
+
+    /**
+     * Checks the plans of the queries with the guard from now on, or stops checking them if it is
+     * null. For the tests of the query shapes.
+     */
+    void setQueryPlanGuard(PetQueryPlanGuard guard) {
+        mQueryPlanGuard = guard;
+    }
+
+    private boolean isCharging() {
+        Intent battery = getContext().registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
+    /**
+     * Undoes the last write, or redoes the last undone one, in a single transaction.
+     *
+     * @return The number of pets changed, and whether there is more to undo and redo
+     */
+    private Bundle undo(boolean redo) {
+        long[] changed = null;
+        boolean sheltered = false;
+        long start = System.nanoTime();
+        PetDatabase database = mPetDbHelper.getWritableDatabase();
+        beginWrite(database);
+        long acquired = System.nanoTime();
+        try {
+            // Looked at inside the transaction, so no other write moves the stack meanwhile
+            PetUndoStack.Step step = redo ? mUndo.peekRedo() : mUndo.peekUndo();
+            if (step != null) {
+                sheltered = step.hasShelter();
+                long now = System.currentTimeMillis();
+                if (redo) {
+                    changed = PetUndoStack.redo(database, mPetStore, mBreeds, step, now);
+                    mUndo.recordRedo();
+                } else {
+                    changed = PetUndoStack.undo(database, mPetStore, mBreeds, step, now);
+                    mUndo.recordUndo();
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+            mMetrics.record(PetDbMetrics.OP_UNDO, acquired - start, System.nanoTime() - acquired);
+        }
+        if (changed != null && changed.length > 0) {
+            // A single pet only concerns the observers of the list and of that pet
+            notifyPetsChange(changed.length == 1
+                    ? ContentUris.withAppendedId(PetContract.PetEntry.CONTENT_URI, changed[0])
+                    : PetContract.PetEntry.CONTENT_URI, sheltered);
+            notifyChange(WeightRollupEntry.CONTENT_URI);
+            scheduleSummarySnapshot();
+        }
+        Bundle result = getUndoState();
+        result.putInt(PetContract.EXTRA_PET_COUNT, changed == null ? 0 : changed.length);
+        return result;
+    }
+
+    private Bundle getStorageState() {
+        Bundle state = new Bundle();
+        state.putBoolean(PetContract.EXTRA_ENCRYPTED, mPetDbHelper.isEncrypted());
+        state.putBoolean(PetContract.EXTRA_ENCRYPTION_UNAVAILABLE, mPetDbHelper.isEncryptionUnavailable());
+        return state;
+    }
+
+    private Bundle getUndoState() {
+        Bundle state = new Bundle();
+        state.putBoolean(PetContract.EXTRA_CAN_UNDO, mUndo.canUndo());
+        state.putBoolean(PetContract.EXTRA_CAN_REDO, mUndo.canRedo());
+        return state;
+    }
+
+    /**
+     * Replaces the weight rollups the history still has every sample of with a recomputation.
+     */
+    private void rebuildRollups() {
+        PetDatabase database = mPetDbHelper.getWritableDatabase();
+        beginWrite(database);
+        try {
+            PetRollups.rebuild(database, PetRollups.rebuildHorizon(System.currentTimeMillis()));
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+        notifyChange(WeightRollupEntry.CONTENT_URI);
+    }
+
+    /**
+     * Provider specific methods that do not map to a content URI.
+     * {@link PetContract#METHOD_GET_METRICS} returns the {@link PetDbMetrics} snapshot and
+     * {@link PetContract#METHOD_RESET_METRICS} clears it. {@link PetContract#METHOD_REBUILD_ROLLUPS}
+     * recomputes the recent weight rollups from the history. {@link PetContract#METHOD_GET_STORAGE_STATE}
+     * tells whether the database is encrypted. {@link PetContract#METHOD_REFRESH_SUMMARY} rewrites
+     * the {@link PetSummarySnapshot}. {@link PetContract#METHOD_RUN_MAINTENANCE} runs the
+     * {@link PetMaintenance} on the calling thread, {@link PetContract#METHOD_CANCEL_MAINTENANCE}
+     * stops it and {@link PetContract#METHOD_GET_MAINTENANCE_REPORT} returns the report of the last run.
+     * {@link PetContract#METHOD_EXPORT_CATALOG} writes the {@link PetCatalog}.
+     * {@link PetContract#METHOD_UNDO} and {@link PetContract#METHOD_REDO} go back and forth in the
+     * {@link PetUndoStack}, {@link PetContract#METHOD_GET_UNDO_STATE} tells whether they can.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (METHOD_GET_METRICS.equals(method)) {
+            return mMetrics.toBundle();
+        } else if (METHOD_RESET_METRICS.equals(method)) {
+            mMetrics.reset();
+            return null;
+        } else if (METHOD_REBUILD_ROLLUPS.equals(method)) {
+            rebuildRollups();
+            return null;
+        } else if (METHOD_REFRESH_SUMMARY.equals(method)) {
+            scheduleSummarySnapshot();
+            return null;
+        } else if (METHOD_GET_STORAGE_STATE.equals(method)) {
+            return getStorageState();
+        } else if (METHOD_RUN_MAINTENANCE.equals(method)) {
+            return runMaintenance();
+        } else if (METHOD_CANCEL_MAINTENANCE.equals(method)) {
+            mMaintenanceCancelled.set(true);
+            return null;
+        } else if (METHOD_GET_MAINTENANCE_REPORT.equals(method)) {
+            return PetMaintenance.readLastReport(getContext());
+        } else if (METHOD_EXPORT_CATALOG.equals(method)) {
+            return exportCatalog();
+        } else if (METHOD_UNDO.equals(method)) {
+            return undo(false);
+        } else if (METHOD_REDO.equals(method)) {
+            return undo(true);
+        } else if (METHOD_GET_UNDO_STATE.equals(method)) {
+            return getUndoState();
+        }
+        return super.call(method, arg, extras);
+    }
+
     /**
      * @param queryType Type of query {@link QueryType}
      * @return true if the query type is insert query
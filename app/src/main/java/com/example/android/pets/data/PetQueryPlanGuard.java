@@ -0,0 +1,302 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Debug check of the query plans of the {@link PetProvider}, enabled in config.xml, and the
+ * check of the query shapes of the app in the unit tests.
+ * <p>
+ * Callers pass their own selection and sort order, so a new screen can add a query the indexes do
+ * not cover without anybody noticing. The guard wraps the database used by a provider query and
+ * runs EXPLAIN QUERY PLAN on every query it has not seen before. It reports the query when the
+ * plan reads a whole table of more than the row threshold, where that is not what the query asks
+ * for, or sorts or groups that many rows in a temporary B-tree.
+ * <p>
+ * Plans are checked once per query shape: the SQL with every list of placeholders collapsed into
+ * one, so the IN lists of different lengths of the shelter grid are a single shape. A reported
+ * shape is logged the first time, or fails every time it runs in strict mode.
+ */
+final class PetQueryPlanGuard {
+
+    private static final String LOG_TAG = PetQueryPlanGuard.class.getSimpleName();
+
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(\\s*,\\s*\\?)+");
+    private static final Pattern WHERE = Pattern.compile("\\bWHERE\\b", Pattern.CASE_INSENSITIVE);
+    /**
+     * Table of a plan step, "SCAN TABLE pets AS p" until SQLite 3.36 and "SCAN p" after
+     */
+    private static final Pattern STEP = Pattern.compile("^(SCAN|SEARCH)(?: TABLE)? (\\w+)");
+    /**
+     * Table and alias of a FROM or JOIN clause, "pets p" or "pets AS p". The alias is only looked
+     * ahead at, it may be the JOIN of the next clause.
+     */
+    private static final Pattern ALIAS = Pattern.compile("\\b(?:FROM|JOIN)\\s+(\\w+)(?=\\s+(?:AS\\s+)?(\\w+))",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Problem found in the plan of each checked shape, empty when there is none
+     */
+    private final Map<String, String> mProblems = new ConcurrentHashMap<>();
+    private final long mRowThreshold;
+    private final boolean mStrict;
+
+    /**
+     * @param rowThreshold Tables of up to this many rows may be scanned and sorted
+     * @param strict       Fail the queries with a problem rather than logging it
+     */
+    PetQueryPlanGuard(long rowThreshold, boolean strict) {
+        mRowThreshold = rowThreshold;
+        mStrict = strict;
+    }
+
+    /**
+     * @return The database, checking the plan of its queries
+     */
+    PetDatabase wrap(PetDatabase database) {
+        return new GuardedDatabase(database);
+    }
+
+    /**
+     * @return The problem found in the plan of each checked shape that has one, by shape
+     */
+    Map<String, String> getProblems() {
+        Map<String, String> problems = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : mProblems.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                problems.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return problems;
+    }
+
+    private void check(PetDatabase database, String sql, String[] selectionArgs) {
+        String shape = PLACEHOLDER_LIST.matcher(sql).replaceAll("?");
+        String problem = mProblems.get(shape);
+        if (problem == null) {
+            problem = explain(database, sql, selectionArgs);
+            mProblems.put(shape, problem);
+            if (!problem.isEmpty() && !mStrict) {
+                Log.w(LOG_TAG, problem + ": " + shape);
+            }
+        }
+        if (!problem.isEmpty() && mStrict) {
+            throw new IllegalStateException(problem + ": " + shape);
+        }
+    }
+
+    /**
+     * @return The problem of the plan of the query, empty if there is none
+     */
+    private String explain(PetDatabase database, String sql, String[] selectionArgs) {
+        List<String> steps = new ArrayList<>();
+        Cursor plan = database.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            int detailIndex = plan.getColumnIndexOrThrow("detail");
+            while (plan.moveToNext()) {
+                steps.add(plan.getString(detailIndex));
+            }
+        } finally {
+            plan.close();
+        }
+
+        // A query without a filter reads the whole table it starts from anyway
+        boolean filtered = WHERE.matcher(sql).find();
+        Map<String, Long> rowCounts = null;
+        boolean firstTable = true;
+        long largestTable = 0;
+        String scanned = null;
+        boolean sorted = false;
+        for (String step : steps) {
+            if (step.startsWith("USE TEMP B-TREE")) {
+                sorted = true;
+                continue;
+            }
+            Matcher matcher = STEP.matcher(step);
+            if (!matcher.find() || "SUBQUERY".equals(matcher.group(2)) || "CONSTANT".equals(matcher.group(2))) {
+                continue;
+            }
+            if (rowCounts == null) {
+                rowCounts = rowCounts(database, sql);
+            }
+            long rows = rowCount(rowCounts, matcher.group(2));
+            largestTable = Math.max(largestTable, rows);
+            if ("SCAN".equals(matcher.group(1)) && (filtered || !firstTable) && rows > mRowThreshold
+                    && scanned == null) {
+                scanned = step;
+            }
+            firstTable = false;
+        }
+
+        if (scanned != null) {
+            return String.format(Locale.US, "full scan (%s)", scanned);
+        }
+        if (sorted && largestTable > mRowThreshold) {
+            return String.format(Locale.US, "temp B-tree over up to %d rows", largestTable);
+        }
+        return "";
+    }
+
+    /**
+     * @return The rows of every table, by table name and by the aliases the query and the views it
+     * may read give it, the names the plans of newer SQLite versions use
+     */
+    private static Map<String, Long> rowCounts(PetDatabase database, String sql) {
+        Map<String, Long> counts = new HashMap<>();
+        List<String> views = new ArrayList<>();
+        Cursor schema = database.rawQuery("SELECT type, name, sql FROM sqlite_master WHERE type IN ('table', 'view')", null);
+        try {
+            while (schema.moveToNext()) {
+                String name = schema.getString(1);
+                if ("table".equals(schema.getString(0))) {
+                    counts.put(name, database.longForQuery("SELECT COUNT(*) FROM \"" + name + "\"", null));
+                } else {
+                    views.add(schema.getString(2));
+                }
+            }
+        } finally {
+            schema.close();
+        }
+        Map<String, Long> tableCounts = new HashMap<>(counts);
+        for (String view : views) {
+            addAliases(counts, tableCounts, view);
+        }
+        // The aliases of the query itself win over those of the views
+        addAliases(counts, tableCounts, sql);
+        return counts;
+    }
+
+    private static void addAliases(Map<String, Long> counts, Map<String, Long> tableCounts, String sql) {
+        Matcher matcher = ALIAS.matcher(sql);
+        while (matcher.find()) {
+            Long rows = tableCounts.get(matcher.group(1));
+            // Keywords after a table without an alias, e.g. "FROM pets WHERE", are never plan names
+            if (rows != null && !tableCounts.containsKey(matcher.group(2))) {
+                counts.put(matcher.group(2), rows);
+            }
+        }
+    }
+
+    /**
+     * @return The rows of the table or alias, or of the largest table for a name that is neither
+     */
+    private static long rowCount(Map<String, Long> counts, String table) {
+        Long rows = counts.get(table);
+        if (rows != null) {
+            return rows;
+        }
+        long largest = 0;
+        for (long count : counts.values()) {
+            largest = Math.max(largest, count);
+        }
+        return largest;
+    }
+
+    /**
+     * Checks the queries, and passes everything on to the database.
+     */
+    private final class GuardedDatabase implements PetDatabase {
+
+        private final PetDatabase mDatabase;
+
+        GuardedDatabase(PetDatabase database) {
+            mDatabase = database;
+        }
+
+        @Override
+        public Cursor query(String table, String[] columns, String selection, String[] selectionArgs,
+                            String groupBy, String having, String orderBy) {
+            check(mDatabase, SQLiteQueryBuilder.buildQueryString(false, table, columns, selection,
+                    groupBy, having, orderBy, null), selectionArgs);
+            return mDatabase.query(table, columns, selection, selectionArgs, groupBy, having, orderBy);
+        }
+
+        @Override
+        public Cursor rawQuery(String sql, String[] selectionArgs) {
+            check(mDatabase, sql, selectionArgs);
+            return mDatabase.rawQuery(sql, selectionArgs);
+        }
+
+        @Override
+        public void execSQL(String sql) {
+            mDatabase.execSQL(sql);
+        }
+
+        @Override
+        public void execSQL(String sql, Object[] bindArgs) {
+            mDatabase.execSQL(sql, bindArgs);
+        }
+
+        @Override
+        public long insert(String table, String nullColumnHack, ContentValues values) {
+            return mDatabase.insert(table, nullColumnHack, values);
+        }
+
+        @Override
+        public long insertOrThrow(String table, String nullColumnHack, ContentValues values) {
+            return mDatabase.insertOrThrow(table, nullColumnHack, values);
+        }
+
+        @Override
+        public int update(String table, ContentValues values, String whereClause, String[] whereArgs) {
+            return mDatabase.update(table, values, whereClause, whereArgs);
+        }
+
+        @Override
+        public int delete(String table, String whereClause, String[] whereArgs) {
+            return mDatabase.delete(table, whereClause, whereArgs);
+        }
+
+        @Override
+        public void beginTransaction() {
+            mDatabase.beginTransaction();
+        }
+
+        @Override
+        public void beginTransactionWithListener(TransactionListener listener) {
+            mDatabase.beginTransactionWithListener(listener);
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            mDatabase.setTransactionSuccessful();
+        }
+
+        @Override
+        public void endTransaction() {
+            mDatabase.endTransaction();
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return mDatabase.inTransaction();
+        }
+
+        @Override
+        public Statement compileStatement(String sql) {
+            return mDatabase.compileStatement(sql);
+        }
+
+        @Override
+        public long longForQuery(String sql, String[] selectionArgs) {
+            return mDatabase.longForQuery(sql, selectionArgs);
+        }
+
+        @Override
+        public long getPageSize() {
+            return mDatabase.getPageSize();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetHistoryEntry;
+import com.example.android.pets.data.PetContract.WeightRollupEntry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maintains the time bucketed weight aggregates per breed.
+ * <p>
+ * The weight of an inserted pet, and every change of it, is a sample. Samples are folded
+ * into the daily and the weekly bucket of their breed as they are written, so a chart reads a
+ * few pre-aggregated rows instead of scanning the history. Buckets are in UTC, weeks start on
+ * Monday. Like {@link PetHistory}, the methods are called by {@link PetProvider} inside the
+ * transaction of the change.
+ */
+final class PetRollups {
+
+    static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    static final long WEEK_MILLIS = 7 * DAY_MILLIS;
+    /**
+     * 1970-01-01 was a Thursday, shifting by 3 days makes the weeks start on Monday
+     */
+    private static final long WEEK_OFFSET_MILLIS = 3 * DAY_MILLIS;
+
+    private static final int MAX_ARGS_PER_STATEMENT = 900;
+
+    private static final String SQL_UPDATE_BUCKET =
+            "UPDATE " + WeightRollupEntry.TABLE_NAME + " SET " +
+                    WeightRollupEntry.COLUMN_SAMPLE_COUNT + " = " + WeightRollupEntry.COLUMN_SAMPLE_COUNT + " + ?, " +
+                    WeightRollupEntry.COLUMN_WEIGHT_SUM + " = " + WeightRollupEntry.COLUMN_WEIGHT_SUM + " + ?, " +
+                    WeightRollupEntry.COLUMN_WEIGHT_MIN + " = MIN(" + WeightRollupEntry.COLUMN_WEIGHT_MIN + ", ?), " +
+                    WeightRollupEntry.COLUMN_WEIGHT_MAX + " = MAX(" + WeightRollupEntry.COLUMN_WEIGHT_MAX + ", ?) " +
+                    "WHERE " + WeightRollupEntry.COLUMN_BUCKET + " = ? AND " +
+                    WeightRollupEntry.COLUMN_BREED + " = ? AND " +
+                    WeightRollupEntry.COLUMN_BUCKET_START + " = ?";
+
+    private static final String SQL_INSERT_BUCKET =
+            "INSERT INTO " + WeightRollupEntry.TABLE_NAME + " (" +
+                    WeightRollupEntry.COLUMN_SAMPLE_COUNT + ", " +
+                    WeightRollupEntry.COLUMN_WEIGHT_SUM + ", " +
+                    WeightRollupEntry.COLUMN_WEIGHT_MIN + ", " +
+                    WeightRollupEntry.COLUMN_WEIGHT_MAX + ", " +
+                    WeightRollupEntry.COLUMN_BUCKET + ", " +
+                    WeightRollupEntry.COLUMN_BREED + ", " +
+                    WeightRollupEntry.COLUMN_BUCKET_START + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+    private PetRollups() {
+    }
+
+    /**
+     * @return Start of the bucket the time falls into
+     */
+    static long bucketStart(int bucket, long millis) {
+        // Same integer arithmetic as the SQL of rebuild(), timestamps are never negative
+        if (bucket == WeightRollupEntry.BUCKET_WEEKLY) {
+            return (millis + WEEK_OFFSET_MILLIS) / WEEK_MILLIS * WEEK_MILLIS - WEEK_OFFSET_MILLIS;
+        }
+        return millis / DAY_MILLIS * DAY_MILLIS;
+    }
+
+    /**
+     * Folds the current weight of the given pets, observed at changedAt, into their buckets. The
+     * caller passes the pets that were inserted and those whose weight changed, the samples that
+     * {@link #rebuild} finds in the history.
+     * Rows are aggregated per breed first, so a bulk update costs one upsert per breed and bucket
+     * instead of one per pet.
+     */
+    static void addSamples(PetDatabase db, long changedAt, long[] ids) {
+        Map<String, long[]> samplesByBreed = new HashMap<>();
+        for (int from = 0; from < ids.length; from += MAX_ARGS_PER_STATEMENT) {
+            int to = Math.min(ids.length, from + MAX_ARGS_PER_STATEMENT);
+            StringBuilder selection = new StringBuilder(PetEntry._ID).append(" IN (");
+            String[] selectionArgs = new String[to - from];
+            for (int i = from; i < to; i++) {
+                selection.append(i == from ? "?" : ",?");
+                selectionArgs[i - from] = String.valueOf(ids[i]);
+            }
+            selection.append(')');
+            Cursor cursor = db.rawQuery("SELECT COALESCE(" + PetEntry.COLUMN_PET_BREED + ", ''), COUNT(*), SUM(" +
+                    PetEntry.COLUMN_PET_WEIGHT + "), MIN(" + PetEntry.COLUMN_PET_WEIGHT + "), MAX(" +
+                    PetEntry.COLUMN_PET_WEIGHT + ") FROM " + PetEntry.VIEW_NAME +
+                    " WHERE " + selection + " GROUP BY 1", selectionArgs);
+            try {
+                while (cursor.moveToNext()) {
+                    long[] samples = samplesByBreed.get(cursor.getString(0));
+                    if (samples == null) {
+                        samplesByBreed.put(cursor.getString(0), new long[]{
+                                cursor.getLong(1), cursor.getLong(2), cursor.getLong(3), cursor.getLong(4)});
+                    } else {
+                        samples[0] += cursor.getLong(1);
+                        samples[1] += cursor.getLong(2);
+                        samples[2] = Math.min(samples[2], cursor.getLong(3));
+                        samples[3] = Math.max(samples[3], cursor.getLong(4));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        if (samplesByBreed.isEmpty()) {
+            return;
+        }
+
+        PetDatabase.Statement update = db.compileStatement(SQL_UPDATE_BUCKET);
+        PetDatabase.Statement insert = db.compileStatement(SQL_INSERT_BUCKET);
+        try {
+            for (Map.Entry<String, long[]> entry : samplesByBreed.entrySet()) {
+                upsert(update, insert, WeightRollupEntry.BUCKET_DAILY, entry.getKey(), changedAt, entry.getValue());
+                upsert(update, insert, WeightRollupEntry.BUCKET_WEEKLY, entry.getKey(), changedAt, entry.getValue());
+            }
+        } finally {
+            update.close();
+            insert.close();
+        }
+    }
+
+    private static void upsert(PetDatabase.Statement update, PetDatabase.Statement insert, int bucket, String breed,
+                               long changedAt, long[] samples) {
+        long bucketStart = bucketStart(bucket, changedAt);
+        // Both statements share the parameter order: count, sum, min, max, bucket, breed, start
+        PetDatabase.Statement[] statements = {update, insert};
+        for (PetDatabase.Statement statement : statements) {
+            statement.clearBindings();
+            statement.bindLong(1, samples[0]);
+            statement.bindLong(2, samples[1]);
+            statement.bindLong(3, samples[2]);
+            statement.bindLong(4, samples[3]);
+            statement.bindLong(5, bucket);
+            statement.bindString(6, breed);
+            statement.bindLong(7, bucketStart);
+        }
+        if (update.executeUpdateDelete() == 0) {
+            insert.executeInsert();
+        }
+    }
+
+    /**
+     * Recomputes the buckets from the samples in the history: the weight of every inserted pet,
+     * and every weight that differs from the previous entry of the pet. Older history is
+     * compacted, so only the buckets from {@link #rebuildHorizon} on are recomputed, the older
+     * ones keep the samples that were folded in as they were written.
+     *
+     * @param since Start of the first bucket to recompute, 0 to recompute them all, e.g. when the
+     *              history has never been compacted
+     */
+    static void rebuild(PetDatabase db, long since) {
+        db.delete(WeightRollupEntry.TABLE_NAME, WeightRollupEntry.COLUMN_BUCKET_START + " >= ?",
+                new String[]{String.valueOf(since)});
+        rebuildBucket(db, WeightRollupEntry.BUCKET_DAILY,
+                "(" + PetHistoryEntry.COLUMN_CHANGED_AT + " / " + DAY_MILLIS + ") * " + DAY_MILLIS, since);
+        rebuildBucket(db, WeightRollupEntry.BUCKET_WEEKLY,
+                "((" + PetHistoryEntry.COLUMN_CHANGED_AT + " + " + WEEK_OFFSET_MILLIS + ") / " + WEEK_MILLIS +
+                        ") * " + WEEK_MILLIS + " - " + WEEK_OFFSET_MILLIS, since);
+    }
+
+    /**
+     * @return Start of the first week, and so of the first day, whose history has never been
+     * compacted
+     */
+    static long rebuildHorizon(long now) {
+        return bucketStart(WeightRollupEntry.BUCKET_WEEKLY, now - PetHistory.RETENTION_FULL_MILLIS) + WEEK_MILLIS;
+    }
+
+    private static void rebuildBucket(PetDatabase db, int bucket, String bucketStartExpression, long since) {
+        db.execSQL("INSERT INTO " + WeightRollupEntry.TABLE_NAME + " (" +
+                WeightRollupEntry.COLUMN_BUCKET + ", " +
+                WeightRollupEntry.COLUMN_BREED + ", " +
+                WeightRollupEntry.COLUMN_BUCKET_START + ", " +
+                WeightRollupEntry.COLUMN_SAMPLE_COUNT + ", " +
+                WeightRollupEntry.COLUMN_WEIGHT_SUM + ", " +
+                WeightRollupEntry.COLUMN_WEIGHT_MIN + ", " +
+                WeightRollupEntry.COLUMN_WEIGHT_MAX + ") " +
+                "SELECT " + bucket + ", COALESCE(" + PetHistoryEntry.COLUMN_PET_BREED + ", ''), " +
+                bucketStartExpression + ", COUNT(*), SUM(" + PetHistoryEntry.COLUMN_PET_WEIGHT + "), MIN(" +
+                PetHistoryEntry.COLUMN_PET_WEIGHT + "), MAX(" + PetHistoryEntry.COLUMN_PET_WEIGHT + ") " +
+                "FROM " + PetHistoryEntry.TABLE_NAME + " h" +
+                " WHERE " + PetHistoryEntry.COLUMN_CHANGED_AT + " >= ?" +
+                " AND (" + PetHistoryEntry.COLUMN_OPERATION + " = " + PetHistoryEntry.OPERATION_INSERT +
+                " OR " + PetHistoryEntry.COLUMN_OPERATION + " = " + PetHistoryEntry.OPERATION_UPDATE +
+                " AND " + PetHistoryEntry.COLUMN_PET_WEIGHT + " IS NOT (SELECT previous." +
+                PetHistoryEntry.COLUMN_PET_WEIGHT + " FROM " + PetHistoryEntry.TABLE_NAME + " previous" +
+                " WHERE previous." + PetHistoryEntry.COLUMN_PET_ID + " = h." + PetHistoryEntry.COLUMN_PET_ID +
+                " AND previous." + PetHistoryEntry._ID + " < h." + PetHistoryEntry._ID +
+                " ORDER BY previous." + PetHistoryEntry._ID + " DESC LIMIT 1))" +
+                " GROUP BY 2, 3", new Object[]{since});
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * Storage of the rows of the pets table, addressed by id.
+ * <p>
+ * {@link PetProvider} resolves the selections of its callers to ids against the pets view, then
+ * writes the pet rows through its store, and the {@link PetUndoStack} captures and restores them
+ * through the same store. The provider's store is a {@link SqlitePetStore} over the pets table,
+ * since its views, history and rollups read that table. {@link MemoryPetStore} keeps the rows in
+ * columnar arrays, for tests and scratch data that do not need the views. Both pass the same
+ * conformance tests.
+ * <p>
+ * Values and columns are those of the pets table, {@link #COLUMNS}: the breed is an id, and a
+ * missing gender or weight takes the default of the table definition.
+ */
+interface PetStore {
+
+    String[] COLUMNS = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED_ID,
+            PetEntry.COLUMN_PET_GENDER, PetEntry.COLUMN_PET_WEIGHT, PetEntry.COLUMN_PET_CONTENT_HASH,
+            PetEntry.COLUMN_PET_SHELTER_ID};
+
+    /**
+     * @param values Values of the new pet, with its {@link PetEntry#_ID} to restore a pet that
+     *               was deleted, or without to get a new id
+     * @return Id of the new pet, or -1 on failure
+     */
+    long insert(ContentValues values);
+
+    /**
+     * @return Number of pets updated, ids of no pet are ignored
+     */
+    int update(long[] ids, ContentValues values);
+
+    /**
+     * @return Number of pets deleted, ids of no pet are ignored
+     */
+    int delete(long[] ids);
+
+    /**
+     * @param columns Columns among {@link #COLUMNS}, or null for all of them
+     * @param ids     Pets to read, or null for every pet
+     * @return The pets, ascending by id
+     */
+    Cursor query(String[] columns, long[] ids);
+
+    int count();
+}
@@ -0,0 +1,136 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.v4.util.AtomicFile;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Small precomputed summary of the pets: how many there are and the most recently added ones.
+ * <p>
+ * {@link PetProvider} rewrites it after every committed write, and the home screen widget reads
+ * it with a single small file read instead of opening the database. The file is replaced with
+ * {@link AtomicFile}, so a reader sees either the old or the new snapshot, never a torn one.
+ */
+public final class PetSummarySnapshot {
+
+    /**
+     * Number of recently added pets kept in the snapshot
+     */
+    public static final int RECENT_PETS = 5;
+
+    static final String FILE_NAME = "pet_summary.snapshot";
+    static final int FORMAT_VERSION = 1;
+
+    private final long mWrittenAt;
+    private final int mPetCount;
+    private final List<String> mRecentNames;
+
+    private PetSummarySnapshot(long writtenAt, int petCount, List<String> recentNames) {
+        mWrittenAt = writtenAt;
+        mPetCount = petCount;
+        mRecentNames = Collections.unmodifiableList(recentNames);
+    }
+
+    public long getWrittenAt() {
+        return mWrittenAt;
+    }
+
+    public int getPetCount() {
+        return mPetCount;
+    }
+
+    /**
+     * @return Names of the most recently added pets, newest first. Empty when the database is
+     * encrypted, the snapshot file is not.
+     */
+    public List<String> getRecentNames() {
+        return mRecentNames;
+    }
+
+    /**
+     * @return The last snapshot written, or null if there is none yet or it can not be read
+     */
+    public static PetSummarySnapshot read(Context context) {
+        byte[] bytes;
+        try {
+            bytes = getFile(context).readFully();
+        } catch (IOException e) {
+            // Not written yet, or unreadable
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            if (in.readInt() != FORMAT_VERSION) {
+                return null;
+            }
+            long writtenAt = in.readLong();
+            int petCount = in.readInt();
+            int recentCount = in.readInt();
+            List<String> recentNames = new ArrayList<>(recentCount);
+            for (int i = 0; i < recentCount; i++) {
+                recentNames.add(in.readUTF());
+            }
+            return new PetSummarySnapshot(writtenAt, petCount, recentNames);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Computes the summary from the database and replaces the snapshot file. Called by
+     * {@link PetProvider} on its background thread, after the write it reflects has committed.
+     *
+     * @param includeNames false to leave the pet names out of the file
+     */
+    static void write(Context context, PetDatabase db, boolean includeNames) throws IOException {
+        int petCount = (int) db.longForQuery("SELECT COUNT(*) FROM " + PetEntry.TABLE_NAME, null);
+        List<String> recentNames = new ArrayList<>(RECENT_PETS);
+        if (includeNames) {
+            // Ids are AUTOINCREMENT, so the highest ids are the pets added last
+            Cursor cursor = db.rawQuery("SELECT " + PetEntry.COLUMN_PET_NAME + " FROM " + PetEntry.TABLE_NAME +
+                    " ORDER BY " + PetEntry._ID + " DESC LIMIT " + RECENT_PETS, null);
+            try {
+                while (cursor.moveToNext()) {
+                    String name = cursor.getString(0);
+                    recentNames.add(name == null ? "" : name);
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+
+        AtomicFile file = getFile(context);
+        FileOutputStream stream = file.startWrite();
+        try {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(petCount);
+            out.writeInt(recentNames.size());
+            for (String name : recentNames) {
+                out.writeUTF(name);
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            file.failWrite(stream);
+            throw e;
+        }
+    }
+
+    private static AtomicFile getFile(Context context) {
+        return new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+}
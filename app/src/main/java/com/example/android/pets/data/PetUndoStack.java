@@ -0,0 +1,446 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetHistoryEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Undo and redo of the changes to the pets table, in memory.
+ * <p>
+ * Before and after each insert, update and delete, {@link PetProvider} captures the rows it
+ * changes into a {@link Rows} snapshot: one array per column, so 100k deleted pets are a handful of
+ * arrays rather than 100k objects. The snapshots of a write, or of a whole batch, become one step
+ * once its transaction commits. Undoing a step deletes the rows it produced and inserts the rows
+ * it replaced, with their original ids, in a single transaction; redoing it does the opposite.
+ * The rows are captured and restored through the {@link PetStore} of the provider.
+ * <p>
+ * At most {@link #MAX_STEPS} steps and {@link #MAX_ROWS} captured rows are kept, the oldest steps
+ * are forgotten first. Every method must be called inside a write transaction of the provider,
+ * which SQLite lets one thread into at a time, except {@link #canUndo} and {@link #canRedo}.
+ */
+final class PetUndoStack {
+
+    static final int MAX_STEPS = 20;
+    static final int MAX_ROWS = 250000;
+
+    private final Deque<Step> mUndo = new ArrayDeque<>();
+    private final Deque<Step> mRedo = new ArrayDeque<>();
+    /**
+     * Changes of the running transaction, a step once it commits
+     */
+    private Step mPending;
+    /**
+     * Set when the running transaction undoes, or redoes, the top step, moved once it commits
+     */
+    private boolean mPendingUndo;
+    private boolean mPendingRedo;
+    private volatile boolean mCanUndo;
+    private volatile boolean mCanRedo;
+
+    /**
+     * @return The rows of the given pets in the store
+     */
+    static Rows capture(PetStore store, long[] ids) {
+        Cursor cursor = store.query(PetStore.COLUMNS, ids);
+        try {
+            int id = cursor.getColumnIndexOrThrow(PetEntry._ID);
+            int name = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+            int breedId = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED_ID);
+            int gender = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER);
+            int weight = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT);
+            int hash = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_CONTENT_HASH);
+            int shelterId = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_SHELTER_ID);
+            Rows rows = new Rows(cursor.getCount());
+            int i = 0;
+            while (cursor.moveToNext()) {
+                rows.mIds[i] = cursor.getLong(id);
+                rows.mNames[i] = cursor.getString(name);
+                rows.mBreedNulls[i] = cursor.isNull(breedId);
+                rows.mBreedIds[i] = rows.mBreedNulls[i] ? 0 : cursor.getLong(breedId);
+                rows.mGenders[i] = cursor.getInt(gender);
+                rows.mWeights[i] = cursor.getInt(weight);
+                rows.mHashNulls[i] = cursor.isNull(hash);
+                rows.mHashes[i] = rows.mHashNulls[i] ? 0 : cursor.getLong(hash);
+                rows.mShelterNulls[i] = cursor.isNull(shelterId);
+                rows.mShelterIds[i] = rows.mShelterNulls[i] ? 0 : cursor.getLong(shelterId);
+                i++;
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @param values The values each pet was inserted with, by the columns of the pets table
+     * @return The rows of the newly inserted pets, without reading them back
+     */
+    static Rows inserted(long[] ids, ContentValues[] values) {
+        Rows rows = new Rows(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            Long breedId = values[i].getAsLong(PetEntry.COLUMN_PET_BREED_ID);
+            Integer gender = values[i].getAsInteger(PetEntry.COLUMN_PET_GENDER);
+            Integer weight = values[i].getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
+            Long hash = values[i].getAsLong(PetEntry.COLUMN_PET_CONTENT_HASH);
+            Long shelterId = values[i].getAsLong(PetEntry.COLUMN_PET_SHELTER_ID);
+            rows.mIds[i] = ids[i];
+            rows.mNames[i] = values[i].getAsString(PetEntry.COLUMN_PET_NAME);
+            rows.mBreedNulls[i] = breedId == null;
+            rows.mBreedIds[i] = breedId == null ? 0 : breedId;
+            // The provider inserts every pet with its defaults, so these are never missing
+            rows.mGenders[i] = gender == null ? PetEntry.GENDER_UNKNOWN : gender;
+            rows.mWeights[i] = weight == null ? 0 : weight;
+            rows.mHashNulls[i] = hash == null;
+            rows.mHashes[i] = hash == null ? 0 : hash;
+            rows.mShelterNulls[i] = shelterId == null;
+            rows.mShelterIds[i] = shelterId == null ? 0 : shelterId;
+        }
+        return rows;
+    }
+
+    /**
+     * Records a change of the running transaction.
+     *
+     * @param before The rows as they were, empty for an insert
+     * @param after  The rows as they are now, empty for a delete
+     */
+    void record(Rows before, Rows after) {
+        if (before.size() == 0 && after.size() == 0) {
+            return;
+        }
+        if (mPending == null) {
+            mPending = new Step();
+        }
+        mPending.mChanges.add(new Change(before, after));
+        mPending.mRows += before.size() + after.size();
+    }
+
+    /**
+     * The outermost transaction has committed: the step it undid or redid moves across, and its
+     * changes become a step that can be undone
+     */
+    void commit() {
+        if (mPendingUndo) {
+            mRedo.push(mUndo.pop());
+        } else if (mPendingRedo) {
+            mUndo.push(mRedo.pop());
+            trim();
+        }
+        mPendingUndo = false;
+        mPendingRedo = false;
+        Step step = mPending;
+        mPending = null;
+        if (step == null) {
+            updateState();
+            return;
+        }
+        mRedo.clear();
+        if (step.mRows > MAX_ROWS) {
+            // Too large to keep, and the older steps can not be undone across it
+            mUndo.clear();
+        } else {
+            mUndo.push(step);
+            trim();
+        }
+        updateState();
+    }
+
+    /**
+     * The outermost transaction has rolled back, forget its changes
+     */
+    void rollback() {
+        mPending = null;
+        mPendingUndo = false;
+        mPendingRedo = false;
+    }
+
+    boolean canUndo() {
+        return mCanUndo;
+    }
+
+    boolean canRedo() {
+        return mCanRedo;
+    }
+
+    /**
+     * @return The step {@link #undo} would undo, or null
+     */
+    Step peekUndo() {
+        return mUndo.peek();
+    }
+
+    /**
+     * @return The step {@link #redo} would redo, or null
+     */
+    Step peekRedo() {
+        return mRedo.peek();
+    }
+
+    /**
+     * Restores the rows the last step replaced. Must be called inside a transaction, along with
+     * {@link #recordUndo}.
+     *
+     * @param db     Written the history and the weight samples of the restored rows
+     * @param store  Store of the rows
+     * @param breeds Told the numbers of pets of the breeds the step changes
+     * @return Ids of the pets changed
+     */
+    static long[] undo(PetDatabase db, PetStore store, BreedDictionary breeds, Step step, long now) {
+        long[] changed = new long[0];
+        for (int i = step.mChanges.size() - 1; i >= 0; i--) {
+            Change change = step.mChanges.get(i);
+            changed = concat(changed, replace(db, store, breeds, change.mAfter, change.mBefore, now));
+        }
+        return changed;
+    }
+
+    /**
+     * Replays the last undone step. Must be called inside a transaction, along with
+     * {@link #recordRedo}.
+     *
+     * @param db     Written the history and the weight samples of the restored rows
+     * @param store  Store of the rows
+     * @param breeds Told the numbers of pets of the breeds the step changes
+     * @return Ids of the pets changed
+     */
+    static long[] redo(PetDatabase db, PetStore store, BreedDictionary breeds, Step step, long now) {
+        long[] changed = new long[0];
+        for (Change change : step.mChanges) {
+            changed = concat(changed, replace(db, store, breeds, change.mBefore, change.mAfter, now));
+        }
+        return changed;
+    }
+
+    /**
+     * The running transaction undoes the top step, it moves to the redo side once it commits
+     */
+    void recordUndo() {
+        mPendingUndo = true;
+    }
+
+    /**
+     * The running transaction redoes the top undone step, it moves back once it commits
+     */
+    void recordRedo() {
+        mPendingRedo = true;
+    }
+
+    private void updateState() {
+        mCanUndo = !mUndo.isEmpty();
+        mCanRedo = !mRedo.isEmpty();
+    }
+
+    private void trim() {
+        int rows = 0;
+        int steps = 0;
+        Iterator<Step> newestFirst = mUndo.iterator();
+        while (newestFirst.hasNext()) {
+            Step step = newestFirst.next();
+            rows += step.mRows;
+            steps++;
+            if (steps > MAX_STEPS || rows > MAX_ROWS) {
+                newestFirst.remove();
+            }
+        }
+    }
+
+    /**
+     * Deletes the current rows and inserts the replacements with their ids, writing the history
+     * and the weight samples as a delete, update or insert of each pet.
+     *
+     * @return Ids of the pets changed
+     * @throws IllegalStateException If the store does not take a replacement row, so the
+     *                               transaction of the caller rolls back
+     */
+    private static long[] replace(PetDatabase db, PetStore store, BreedDictionary breeds, Rows current,
+                                  Rows replacement, long now) {
+        long[] replacedIds = Arrays.copyOf(replacement.mIds, replacement.size());
+        Arrays.sort(replacedIds);
+        long[] removedIds = new long[current.size()];
+        int removed = 0;
+        for (int i = 0; i < current.size(); i++) {
+            if (Arrays.binarySearch(replacedIds, current.mIds[i]) < 0) {
+                removedIds[removed++] = current.mIds[i];
+            }
+        }
+        // The history keeps the last state of the pets that go away
+        PetHistory.recordRows(db, PetHistoryEntry.OPERATION_DELETE, now, Arrays.copyOf(removedIds, removed));
+        store.delete(current.mIds);
+
+        long[] currentIds = Arrays.copyOf(current.mIds, current.size());
+        Arrays.sort(currentIds);
+        long[] insertedIds = new long[replacement.size()];
+        long[] updatedIds = new long[replacement.size()];
+        int inserted = 0;
+        int updated = 0;
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < replacement.size(); i++) {
+            replacement.toValues(i, values);
+            if (store.insert(values) == -1) {
+                throw new IllegalStateException("Could not restore pet " + replacement.mIds[i]);
+            }
+            if (Arrays.binarySearch(currentIds, replacement.mIds[i]) < 0) {
+                insertedIds[inserted++] = replacement.mIds[i];
+            } else {
+                updatedIds[updated++] = replacement.mIds[i];
+            }
+        }
+        PetHistory.recordRows(db, PetHistoryEntry.OPERATION_INSERT, now, Arrays.copyOf(insertedIds, inserted));
+        PetHistory.recordRows(db, PetHistoryEntry.OPERATION_UPDATE, now, Arrays.copyOf(updatedIds, updated));
+        PetRollups.addSamples(db, now, replacement.weightChangedSince(current));
+        current.countBreeds(breeds, -1);
+        replacement.countBreeds(breeds, 1);
+        return concat(Arrays.copyOf(removedIds, removed), replacement.mIds);
+    }
+
+    private static long[] concat(long[] first, long[] second) {
+        long[] result = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+
+    /**
+     * The changes of one write, or of one batch of writes
+     */
+    static final class Step {
+
+        final List<Change> mChanges = new ArrayList<>(1);
+        int mRows;
+
+        /**
+         * @return true if a pet of the step is at a shelter before or after it
+         */
+        boolean hasShelter() {
+            for (Change change : mChanges) {
+                if (change.mBefore.hasShelter() || change.mAfter.hasShelter()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class Change {
+
+        final Rows mBefore;
+        final Rows mAfter;
+
+        Change(Rows before, Rows after) {
+            mBefore = before;
+            mAfter = after;
+        }
+    }
+
+    /**
+     * Rows of the pets table, one array per column of {@link PetStore#COLUMNS}, and a mask of the
+     * NULLs of the nullable numbers
+     */
+    static final class Rows {
+
+        static final Rows EMPTY = new Rows(0);
+
+        final long[] mIds;
+        final String[] mNames;
+        final long[] mBreedIds;
+        final boolean[] mBreedNulls;
+        final int[] mGenders;
+        final int[] mWeights;
+        final long[] mHashes;
+        final boolean[] mHashNulls;
+        final long[] mShelterIds;
+        final boolean[] mShelterNulls;
+
+        Rows(int size) {
+            mIds = new long[size];
+            mNames = new String[size];
+            mBreedIds = new long[size];
+            mBreedNulls = new boolean[size];
+            mGenders = new int[size];
+            mWeights = new int[size];
+            mHashes = new long[size];
+            mHashNulls = new boolean[size];
+            mShelterIds = new long[size];
+            mShelterNulls = new boolean[size];
+        }
+
+        int size() {
+            return mIds.length;
+        }
+
+        /**
+         * Puts the row into the values, by the columns of the pets table, with its id
+         */
+        void toValues(int i, ContentValues values) {
+            values.put(PetEntry._ID, mIds[i]);
+            values.put(PetEntry.COLUMN_PET_NAME, mNames[i]);
+            values.put(PetEntry.COLUMN_PET_BREED_ID, mBreedNulls[i] ? null : mBreedIds[i]);
+            values.put(PetEntry.COLUMN_PET_GENDER, mGenders[i]);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, mWeights[i]);
+            values.put(PetEntry.COLUMN_PET_CONTENT_HASH, mHashNulls[i] ? null : mHashes[i]);
+            values.put(PetEntry.COLUMN_PET_SHELTER_ID, mShelterNulls[i] ? null : mShelterIds[i]);
+        }
+
+        /**
+         * Adds the rows to the numbers of pets of their breeds, or takes them away for a sign of -1
+         */
+        void countBreeds(BreedDictionary breeds, int sign) {
+            for (int i = 0; i < size(); i++) {
+                if (!mBreedNulls[i]) {
+                    breeds.countPets(mBreedIds[i], sign);
+                }
+            }
+        }
+
+        /**
+         * @return true if one of the pets is at a shelter, and so among the pets near a location
+         */
+        boolean hasShelter() {
+            for (boolean noShelter : mShelterNulls) {
+                if (!noShelter) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return Ids of the rows whose weight is not the one of the same pet in the earlier rows,
+         * or which are not in them: the weight samples of the change
+         */
+        long[] weightChangedSince(Rows earlier) {
+            long[] ids = new long[size()];
+            int changed = 0;
+            // Captured by the same ids, the rows of both are usually in the same order
+            Map<Long, Integer> earlierWeights = null;
+            for (int i = 0; i < size(); i++) {
+                Integer earlierWeight;
+                if (i < earlier.size() && earlier.mIds[i] == mIds[i]) {
+                    earlierWeight = earlier.mWeights[i];
+                } else {
+                    if (earlierWeights == null) {
+                        earlierWeights = new HashMap<>();
+                        for (int j = 0; j < earlier.size(); j++) {
+                            earlierWeights.put(earlier.mIds[j], earlier.mWeights[j]);
+                        }
+                    }
+                    earlierWeight = earlierWeights.get(mIds[i]);
+                }
+                if (earlierWeight == null || earlierWeight != mWeights[i]) {
+                    ids[changed++] = mIds[i];
+                }
+            }
+            return Arrays.copyOf(ids, changed);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+import android.net.Uri;
+
+/**
+ * {@link CursorLoader} that hands out a {@link PrefetchingCursor}, for lists that are scrolled fast
+ * across many cursor windows.
+ */
+public class PrefetchingCursorLoader extends CursorLoader {
+
+    public PrefetchingCursorLoader(Context context, Uri uri, String[] projection, String selection,
+                                   String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        Cursor cursor = super.loadInBackground();
+        if (cursor == null) {
+            return null;
+        }
+        // The content observer of the loader stays registered on the wrapped cursor, the wrapper
+        // only changes how rows are read
+        return new PrefetchingCursor(cursor);
+    }
+}
@@ -0,0 +1,255 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Grid index of the shelter locations, and the nearest pets search on top of it.
+ * <p>
+ * The globe is cut into cells of {@link #CELL_DEGREES} by {@link #CELL_DEGREES}, and every
+ * shelter stores the number of its cell in {@link ShelterEntry#COLUMN_CELL}, which is indexed.
+ * The search reads the cells in square rings around the location, nearest ring first, each ring
+ * with a single query on the cell index. It stops as soon as the k nearest pets found so far are
+ * all closer than anything the next ring can hold, so the cost depends on how many pets are around
+ * the location rather than on how many there are in total. The R*Tree module is not available in
+ * every SQLite build the app runs on, the grid works on the framework SQLite and on SQLCipher.
+ */
+final class ShelterGrid {
+
+    /**
+     * Size of a cell, in degrees of latitude and of longitude, about 11 km from north to south
+     */
+    static final double CELL_DEGREES = 0.1;
+
+    private static final int ROWS = (int) Math.round(180 / CELL_DEGREES);
+    private static final int COLUMNS = (int) Math.round(360 / CELL_DEGREES);
+
+    /**
+     * The last ring searched, about 1100 km from north to south. Its 8 * 100 cells stay below the
+     * SQLite limit of 999 bound arguments.
+     */
+    private static final int MAX_RING = 100;
+
+    private static final double EARTH_RADIUS_KM = 6371.0;
+    private static final double KM_PER_DEGREE = Math.PI * EARTH_RADIUS_KM / 180;
+
+    private static final String SQL_PETS_WITH_SHELTER =
+            "SELECT v.*, s." + ShelterEntry.COLUMN_SHELTER_NAME + " AS " + PetEntry.COLUMN_SHELTER_NAME + ", " +
+                    "s." + ShelterEntry.COLUMN_LATITUDE + ", s." + ShelterEntry.COLUMN_LONGITUDE +
+                    " FROM " + ShelterEntry.TABLE_NAME + " s JOIN " + PetEntry.VIEW_NAME + " v ON v." +
+                    PetEntry.COLUMN_PET_SHELTER_ID + " = s." + ShelterEntry._ID +
+                    " WHERE s." + ShelterEntry.COLUMN_CELL + " IN ";
+
+    private ShelterGrid() {
+    }
+
+    /**
+     * @return The number of the cell holding the location
+     */
+    static long cell(double latitude, double longitude) {
+        return cell(row(latitude), column(longitude));
+    }
+
+    private static long cell(int row, int column) {
+        return (long) row * COLUMNS + column;
+    }
+
+    private static int row(double latitude) {
+        // The north pole belongs to the last row
+        return Math.max(0, Math.min(ROWS - 1, (int) Math.floor((latitude + 90) / CELL_DEGREES)));
+    }
+
+    private static int column(double longitude) {
+        return wrapColumn((int) Math.floor((longitude + 180) / CELL_DEGREES));
+    }
+
+    private static int wrapColumn(int column) {
+        // The grid wraps around the antimeridian
+        return ((column % COLUMNS) + COLUMNS) % COLUMNS;
+    }
+
+    /**
+     * @return The great circle distance between the two locations
+     */
+    static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double dLatitude = Math.toRadians(latitude2 - latitude1);
+        double dLongitude = Math.toRadians(longitude2 - longitude1);
+        double a = Math.sin(dLatitude / 2) * Math.sin(dLatitude / 2)
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2))
+                * Math.sin(dLongitude / 2) * Math.sin(dLongitude / 2);
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    /**
+     * @return The cells at the given Chebyshev distance from the cell of the location
+     */
+    private static List<Long> ringCells(int row, int column, int ring) {
+        List<Long> cells = new ArrayList<>(Math.max(1, 8 * ring));
+        for (int r = row - ring; r <= row + ring; r++) {
+            if (r < 0 || r >= ROWS) {
+                continue;
+            }
+            if (r == row - ring || r == row + ring) {
+                for (int c = column - ring; c <= column + ring; c++) {
+                    cells.add(cell(r, wrapColumn(c)));
+                }
+            } else {
+                cells.add(cell(r, wrapColumn(column - ring)));
+                cells.add(cell(r, wrapColumn(column + ring)));
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * @return About the shortest distance from the location to a cell outside of the rings up to
+     * the given one
+     */
+    private static double searchedRadiusKm(double latitude, int ring) {
+        double northSouth = ring * CELL_DEGREES * KM_PER_DEGREE;
+        // Cells are narrower towards the poles, take their width at the pole side of the rings
+        double poleSide = Math.min(90, Math.abs(latitude) + (ring + 1) * CELL_DEGREES);
+        double eastWest = northSouth * Math.cos(Math.toRadians(poleSide));
+        return Math.min(northSouth, eastWest);
+    }
+
+    /**
+     * Finds the pets of the shelters nearest to the location, nearest first, with the distance to
+     * their shelter in {@link PetEntry#COLUMN_DISTANCE_KM}.
+     *
+     * @param projection Columns of the pets view, {@link PetEntry#COLUMN_SHELTER_NAME} or
+     *                   {@link PetEntry#COLUMN_DISTANCE_KM}. Null for all of them.
+     * @param selection  Additional filter on the columns of the pets view, may be null
+     */
+    static Cursor queryNearestPets(PetDatabase db, double latitude, double longitude, int limit,
+                                   double radiusKm, String[] projection, String selection,
+                                   String[] selectionArgs) {
+        int row = row(latitude);
+        int column = column(longitude);
+        // Farthest candidate on top, so it is the one replaced by a nearer one
+        PriorityQueue<Candidate> nearest = new PriorityQueue<>(Math.max(1, limit), Collections.reverseOrder(Candidate.BY_DISTANCE));
+        // Ring 0 is never empty, so the columns are known by the time the result is built
+        String[] columns = projection;
+
+        for (int ring = 0; ring <= MAX_RING; ring++) {
+            List<Long> cells = ringCells(row, column, ring);
+            if (!cells.isEmpty()) {
+                String[] args = new String[cells.size() + (selectionArgs == null ? 0 : selectionArgs.length)];
+                for (int i = 0; i < cells.size(); i++) {
+                    args[i] = String.valueOf(cells.get(i));
+                }
+                if (selectionArgs != null) {
+                    System.arraycopy(selectionArgs, 0, args, cells.size(), selectionArgs.length);
+                }
+                String sql = SQL_PETS_WITH_SHELTER + "(" + TextUtils.join(",", Collections.nCopies(cells.size(), "?")) + ")"
+                        + (TextUtils.isEmpty(selection) ? "" : " AND (" + selection + ")");
+                Cursor cursor = db.rawQuery(sql, args);
+                try {
+                    if (columns == null) {
+                        columns = defaultColumns(cursor);
+                    }
+                    collect(cursor, latitude, longitude, limit, radiusKm, columns, nearest);
+                } finally {
+                    cursor.close();
+                }
+            }
+
+            double searchedKm = searchedRadiusKm(latitude, ring);
+            if (searchedKm >= radiusKm
+                    || (nearest.size() == limit && nearest.peek().mDistanceKm <= searchedKm)) {
+                break;
+            }
+        }
+
+        List<Candidate> sorted = new ArrayList<>(nearest);
+        Collections.sort(sorted, Candidate.BY_DISTANCE);
+        MatrixCursor result = new MatrixCursor(columns, sorted.size());
+        for (Candidate candidate : sorted) {
+            result.addRow(candidate.mValues);
+        }
+        return result;
+    }
+
+    private static void collect(Cursor cursor, double latitude, double longitude, int limit, double radiusKm,
+                                String[] columns, PriorityQueue<Candidate> nearest) {
+        int latitudeIndex = cursor.getColumnIndexOrThrow(ShelterEntry.COLUMN_LATITUDE);
+        int longitudeIndex = cursor.getColumnIndexOrThrow(ShelterEntry.COLUMN_LONGITUDE);
+        // Positions of the projected columns, resolved once per ring, -1 for the distance
+        int[] indices = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            indices[i] = PetEntry.COLUMN_DISTANCE_KM.equals(columns[i]) ? -1 : cursor.getColumnIndexOrThrow(columns[i]);
+        }
+
+        while (cursor.moveToNext()) {
+            double distanceKm = distanceKm(latitude, longitude,
+                    cursor.getDouble(latitudeIndex), cursor.getDouble(longitudeIndex));
+            if (distanceKm > radiusKm
+                    || (nearest.size() == limit && distanceKm >= nearest.peek().mDistanceKm)) {
+                continue;
+            }
+            Object[] values = new Object[columns.length];
+            for (int i = 0; i < columns.length; i++) {
+                values[i] = indices[i] < 0 ? distanceKm : value(cursor, indices[i]);
+            }
+            if (nearest.size() == limit) {
+                nearest.poll();
+            }
+            nearest.add(new Candidate(distanceKm, values));
+        }
+    }
+
+    /**
+     * @return The pets view columns and the shelter name of the cursor, and the distance
+     */
+    private static String[] defaultColumns(Cursor cursor) {
+        List<String> columns = new ArrayList<>(Arrays.asList(cursor.getColumnNames()));
+        columns.remove(ShelterEntry.COLUMN_LATITUDE);
+        columns.remove(ShelterEntry.COLUMN_LONGITUDE);
+        columns.add(PetEntry.COLUMN_DISTANCE_KM);
+        return columns.toArray(new String[columns.size()]);
+    }
+
+    private static Object value(Cursor cursor, int index) {
+        switch (cursor.getType(index)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(index);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(index);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(index);
+            default:
+                return cursor.getString(index);
+        }
+    }
+
+    private static final class Candidate {
+
+        static final Comparator<Candidate> BY_DISTANCE = new Comparator<Candidate>() {
+            @Override
+            public int compare(Candidate a, Candidate b) {
+                return Double.compare(a.mDistanceKm, b.mDistanceKm);
+            }
+        };
+
+        final double mDistanceKm;
+        final Object[] mValues;
+
+        Candidate(double distanceKm, Object[] values) {
+            mDistanceKm = distanceKm;
+            mValues = values;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MergeCursor;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Arrays;
+
+/**
+ * {@link PetStore} over the pets table of the database of a {@link PetDbHelper}. It writes through
+ * the writable database the helper has open at the time, inside the transaction of the caller if
+ * there is one, so one store serves the provider for its whole life.
+ */
+final class SqlitePetStore implements PetStore {
+
+    /**
+     * Upper bound of "?" arguments per statement, SQLite allows 999
+     */
+    private static final int MAX_ARGS_PER_STATEMENT = 900;
+
+    private final PetDbHelper mHelper;
+
+    SqlitePetStore(PetDbHelper helper) {
+        mHelper = helper;
+    }
+
+    @Override
+    public long insert(ContentValues values) {
+        return mHelper.getWritableDatabase().insert(PetEntry.TABLE_NAME, null, values);
+    }
+
+    @Override
+    public int update(long[] ids, ContentValues values) {
+        PetDatabase database = mHelper.getWritableDatabase();
+        int updated = 0;
+        for (int from = 0; from < ids.length; from += MAX_ARGS_PER_STATEMENT) {
+            String[] args = idArgs(ids, from);
+            updated += database.update(PetEntry.TABLE_NAME, values, idSelection(args.length), args);
+        }
+        return updated;
+    }
+
+    @Override
+    public int delete(long[] ids) {
+        PetDatabase database = mHelper.getWritableDatabase();
+        int deleted = 0;
+        for (int from = 0; from < ids.length; from += MAX_ARGS_PER_STATEMENT) {
+            String[] args = idArgs(ids, from);
+            deleted += database.delete(PetEntry.TABLE_NAME, idSelection(args.length), args);
+        }
+        return deleted;
+    }
+
+    @Override
+    public Cursor query(String[] columns, long[] ids) {
+        return query(mHelper.getWritableDatabase(), columns, ids);
+    }
+
+    @Override
+    public int count() {
+        return (int) mHelper.getWritableDatabase().longForQuery("SELECT COUNT(*) FROM " + PetEntry.TABLE_NAME, null);
+    }
+
+    /**
+     * The query of {@link #query(String[], long[])}, on the given database.
+     */
+    static Cursor query(PetDatabase database, String[] columns, long[] ids) {
+        if (ids == null) {
+            return database.query(PetEntry.TABLE_NAME, columns, null, null, null, null, PetEntry._ID);
+        }
+        if (ids.length <= MAX_ARGS_PER_STATEMENT) {
+            String[] args = idArgs(ids, 0);
+            return database.query(PetEntry.TABLE_NAME, columns, idSelection(args.length), args,
+                    null, null, PetEntry._ID);
+        }
+        // Ascending by id across the chunks too
+        long[] sorted = ids.clone();
+        Arrays.sort(sorted);
+        Cursor[] chunks = new Cursor[(sorted.length + MAX_ARGS_PER_STATEMENT - 1) / MAX_ARGS_PER_STATEMENT];
+        for (int i = 0; i < chunks.length; i++) {
+            String[] args = idArgs(sorted, i * MAX_ARGS_PER_STATEMENT);
+            chunks[i] = database.query(PetEntry.TABLE_NAME, columns, idSelection(args.length), args,
+                    null, null, PetEntry._ID);
+        }
+        return new MergeCursor(chunks);
+    }
+
+    /**
+     * @return The ids from the index on, at most {@link #MAX_ARGS_PER_STATEMENT} of them
+     */
+    private static String[] idArgs(long[] ids, int from) {
+        String[] args = new String[Math.min(ids.length - from, MAX_ARGS_PER_STATEMENT)];
+        for (int i = 0; i < args.length; i++) {
+            args[i] = String.valueOf(ids[from + i]);
+        }
+        return args;
+    }
+
+    private static String idSelection(int count) {
+        StringBuilder selection = new StringBuilder(PetEntry._ID).append(" IN (");
+        for (int i = 0; i < count; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+        }
+        return selection.append(')').toString();
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.android.pets.model;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+import com.example.android.pets.schema.Column;
+import com.example.android.pets.schema.Default;
+import com.example.android.pets.schema.Min;
+import com.example.android.pets.schema.OneOf;
+import com.example.android.pets.schema.Required;
+import com.example.android.pets.schema.Table;
+
+/**
+ * Immutable, typed row of the pets table.
+ * <p>
+ * The annotations are the single definition of the table: the schema compiler generates
+ * {@code PetSchema} from them, with the table definition, the projection and column positions
+ * the row is read with, the summary projection of the list, the cursor mapper and the defaults
+ * and validator of the provider.
+ */
+@Table(name = PetEntry.TABLE_NAME,
+        hiddenColumns = {PetEntry.COLUMN_PET_CONTENT_HASH + " INTEGER"},
+        summary = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED_ID})
+public final class Pet {
+
+    @Column(name = PetEntry._ID, definition = "INTEGER PRIMARY KEY AUTOINCREMENT")
+    private final long id;
+
+    @Required
+    @Column(name = PetEntry.COLUMN_PET_NAME, definition = "TEXT")
+    private final String name;
+
+    /**
+     * Stored as the id of a row of the breeds table, read with the name joined back in by the
+     * pets view
+     */
+    @Column(name = PetEntry.COLUMN_PET_BREED, storedName = PetEntry.COLUMN_PET_BREED_ID,
+            definition = "INTEGER REFERENCES " + BreedEntry.TABLE_NAME + "(" + BreedEntry._ID + ")")
+    private final String breed;
+
+    @Default(PetEntry.GENDER_UNKNOWN)
+    @OneOf({PetEntry.GENDER_UNKNOWN, PetEntry.GENDER_MALE, PetEntry.GENDER_FEMALE})
+    @Column(name = PetEntry.COLUMN_PET_GENDER, definition = "INTEGER NOT NULL")
+    private final int gender;
+
+    @Default(0)
+    @Min(0)
+    @Column(name = PetEntry.COLUMN_PET_WEIGHT, definition = "INTEGER NOT NULL")
+    private final int weight;
+
+    /**
+     * Id of the shelter the pet is at, or null
+     */
+    @Column(name = PetEntry.COLUMN_PET_SHELTER_ID,
+            definition = "INTEGER REFERENCES " + ShelterEntry.TABLE_NAME + "(" + ShelterEntry._ID + ")")
+    private final Long shelterId;
+
+    public Pet(long id, String name, String breed, int gender, int weight, Long shelterId) {
+        this.id = id;
+        this.name = name;
+        this.breed = breed;
+        this.gender = gender;
+        this.weight = weight;
+        this.shelterId = shelterId;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getBreed() {
+        return breed;
+    }
+
+    public int getGender() {
+        return gender;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public Long getShelterId() {
+        return shelterId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Pet)) {
+            return false;
+        }
+        Pet pet = (Pet) o;
+        return id == pet.id
+                && gender == pet.gender
+                && weight == pet.weight
+                && (name == null ? pet.name == null : name.equals(pet.name))
+                && (breed == null ? pet.breed == null : breed.equals(pet.breed))
+                && (shelterId == null ? pet.shelterId == null : shelterId.equals(pet.shelterId));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        result = 31 * result + (breed != null ? breed.hashCode() : 0);
+        result = 31 * result + gender;
+        result = 31 * result + weight;
+        result = 31 * result + (shelterId != null ? shelterId.hashCode() : 0);
+        return result;
+    }
+}
@@ -0,0 +1,82 @@
+package com.example.android.pets.model;
+
+import com.example.android.pets.data.PetContract.ShelterEntry;
+import com.example.android.pets.schema.Column;
+import com.example.android.pets.schema.Range;
+import com.example.android.pets.schema.Required;
+import com.example.android.pets.schema.Table;
+
+/**
+ * Immutable, typed row of the shelters table. The schema compiler generates {@code ShelterSchema}
+ * from the annotations.
+ */
+@Table(name = ShelterEntry.TABLE_NAME,
+        hiddenColumns = {ShelterEntry.COLUMN_CELL + " INTEGER NOT NULL"})
+public final class Shelter {
+
+    @Column(name = ShelterEntry._ID, definition = "INTEGER PRIMARY KEY")
+    private final long id;
+
+    @Required
+    @Column(name = ShelterEntry.COLUMN_SHELTER_NAME, definition = "TEXT NOT NULL")
+    private final String name;
+
+    @Required
+    @Range(min = -90, max = 90)
+    @Column(name = ShelterEntry.COLUMN_LATITUDE, definition = "REAL NOT NULL")
+    private final double latitude;
+
+    @Required
+    @Range(min = -180, max = 180)
+    @Column(name = ShelterEntry.COLUMN_LONGITUDE, definition = "REAL NOT NULL")
+    private final double longitude;
+
+    public Shelter(long id, String name, double latitude, double longitude) {
+        this.id = id;
+        this.name = name;
+        this.latitude = latitude;
+        this.longitude = longitude;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Shelter)) {
+            return false;
+        }
+        Shelter shelter = (Shelter) o;
+        return id == shelter.id
+                && Double.compare(shelter.latitude, latitude) == 0
+                && Double.compare(shelter.longitude, longitude) == 0
+                && (name == null ? shelter.name == null : name.equals(shelter.name));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (id ^ (id >>> 32));
+        result = 31 * result + (name != null ? name.hashCode() : 0);
+        long bits = Double.doubleToLongBits(latitude);
+        result = 31 * result + (int) (bits ^ (bits >>> 32));
+        bits = Double.doubleToLongBits(longitude);
+        result = 31 * result + (int) (bits ^ (bits >>> 32));
+        return result;
+    }
+}
@@ -15,25 +15,46 @@
  */
 package com.example.android.pets.ui.activities;
 
+import android.Manifest;
 import android.app.AlertDialog;
+import android.content.ContentProviderOperation;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.content.OperationApplicationException;
+import android.content.pm.PackageManager;
 import android.database.Cursor;
+import android.location.Location;
+import android.location.LocationManager;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.app.ActivityCompat;
+import android.support.v4.content.ContextCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.text.TextUtils;
+import android.util.Log;
+import android.view.ActionMode;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
+import android.widget.EditText;
 import android.widget.ListView;
+import android.widget.Toast;
 
 import com.example.android.pets.R;
 import com.example.android.pets.adapter.PetCursorAdapter;
 import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetDetailCache;
+import com.example.android.pets.data.PrefetchingCursorLoader;
+
+import java.util.ArrayList;
 
 /**
  * Displays list of pets that were entered and stored in the app.
@@ -42,7 +63,36 @@ public class CatalogActivity extends AppCompatActivity
         implements android.app.LoaderManager.LoaderCallbacks<Cursor> {
 
     private static final int PET_LOADER = 1;
+    private static final int REQUEST_LOCATION_PERMISSION = 1;
+
+    /**
+     * Loader arguments of the "near me" list, the location in degrees
+     */
+    private static final String ARG_LATITUDE = "latitude";
+    private static final String ARG_LONGITUDE = "longitude";
+
+    private static final String STATE_SHOWING_PETS_NEAR_ME = "showing_pets_near_me";
+
+    /**
+     * Ids bound into one {@code _id IN (...)} selection, well below the SQLite limit of 999
+     * bound arguments per statement
+     */
+    private static final int MAX_IDS_PER_OPERATION = 500;
+
+    /**
+     * Pets whose details are kept, a few screens of rows
+     */
+    private static final int DETAIL_CACHE_SIZE = 100;
+
     private PetCursorAdapter petCursorAdapter;
+    private PetDetailCache petDetailCache;
+    private ListView petListView;
+    private boolean showingPetsNearMe;
+    /**
+     * What the provider can undo and redo, as of the last load of the list
+     */
+    private boolean canUndo;
+    private boolean canRedo;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -61,7 +111,7 @@ public class CatalogActivity extends AppCompatActivity
 
 
         // Note: 11/25/2018 by sagar  Finding the list view and setting up the adapter to it
-        ListView petListView = (ListView) findViewById(R.id.list_view);
+        petListView = (ListView) findViewById(R.id.list_view);
         petListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
             public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
@@ -77,12 +127,51 @@ public class CatalogActivity extends AppCompatActivity
         petCursorAdapter = new PetCursorAdapter(this, null);
         petListView.setAdapter(petCursorAdapter);
 
+        // The list is loaded with the summary columns only, the rows on screen load the rest
+        petDetailCache = new PetDetailCache(getContentResolver(), DETAIL_CACHE_SIZE, new PetDetailCache.Listener() {
+            @Override
+            public void onDetailsChanged() {
+                petCursorAdapter.notifyDataSetChanged();
+            }
+        });
+        petDetailCache.start();
+        petCursorAdapter.setDetailCache(petDetailCache);
+        petListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+                petDetailCache.setPaused(scrollState == SCROLL_STATE_FLING);
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+            }
+        });
+
         // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
         View emptyView = findViewById(R.id.empty_view);
         petListView.setEmptyView(emptyView);
 
+        // A long press starts selecting pets, to delete or edit all of them at once
+        petListView.setChoiceMode(ListView.CHOICE_MODE_MULTIPLE_MODAL);
+        petListView.setMultiChoiceModeListener(new SelectionModeListener());
+
         // Note: 11/25/2018 by sagar  Initializing the loader
+        // After a configuration change this reconnects to the running loader, near me or not
         getLoaderManager().initLoader(PET_LOADER, null, this);
+        showingPetsNearMe = savedInstanceState != null
+                && savedInstanceState.getBoolean(STATE_SHOWING_PETS_NEAR_ME);
+    }
+
+    @Override
+    protected void onDestroy() {
+        petDetailCache.stop();
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putBoolean(STATE_SHOWING_PETS_NEAR_ME, showingPetsNearMe);
     }
 
     @Override
@@ -93,6 +182,14 @@ public class CatalogActivity extends AppCompatActivity
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_pets_near_me).setChecked(showingPetsNearMe);
+        menu.findItem(R.id.action_undo).setEnabled(canUndo);
+        menu.findItem(R.id.action_redo).setEnabled(canRedo);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
@@ -102,14 +199,81 @@ public class CatalogActivity extends AppCompatActivity
                 // Do nothing for now
                 insertDummyData();
                 return true;
+            // Respond to a click on the "Undo" and "Redo" menu options
+            case R.id.action_undo:
+                new UndoTask(getApplicationContext(), false).execute();
+                return true;
+            case R.id.action_redo:
+                new UndoTask(getApplicationContext(), true).execute();
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 showDeleteConfirmationDialog();
                 return true;
+            // Respond to a click on the "Pets near me" menu option, which toggles the list
+            case R.id.action_pets_near_me:
+                if (showingPetsNearMe) {
+                    showingPetsNearMe = false;
+                    getLoaderManager().restartLoader(PET_LOADER, null, this);
+                    invalidateOptionsMenu();
+                } else {
+                    showPetsNearMe();
+                }
+                return true;
         }
         return super.onOptionsItemSelected(item);
     }
 
+    private void showPetsNearMe() {
+        if (ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.ACCESS_COARSE_LOCATION}, REQUEST_LOCATION_PERMISSION);
+            return;
+        }
+        Location location = getLastKnownLocation();
+        if (location == null) {
+            Toast.makeText(this, R.string.msg_location_unavailable, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        Bundle args = new Bundle();
+        args.putDouble(ARG_LATITUDE, location.getLatitude());
+        args.putDouble(ARG_LONGITUDE, location.getLongitude());
+        showingPetsNearMe = true;
+        getLoaderManager().restartLoader(PET_LOADER, args, this);
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * @return The most recent location any enabled provider knows, without waiting for a fix.
+     * Null if there is none.
+     */
+    @SuppressWarnings("MissingPermission")
+    private Location getLastKnownLocation() {
+        LocationManager locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
+        Location best = null;
+        for (String provider : locationManager.getProviders(true)) {
+            Location location = locationManager.getLastKnownLocation(provider);
+            if (location != null && (best == null || location.getTime() > best.getTime())) {
+                best = location;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public void onRequestPermissionsResult(int requestCode, String[] permissions, int[] grantResults) {
+        super.onRequestPermissionsResult(requestCode, permissions, grantResults);
+        if (requestCode != REQUEST_LOCATION_PERMISSION) {
+            return;
+        }
+        if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+            showPetsNearMe();
+        } else {
+            Toast.makeText(this, R.string.msg_location_permission_denied, Toast.LENGTH_SHORT).show();
+        }
+    }
+
     private void showDeleteConfirmationDialog() {
         // Create an AlertDialog.Builder and set the message, and click listeners
         // for the positive and negative buttons on the dialog.
@@ -137,7 +301,85 @@ public class CatalogActivity extends AppCompatActivity
     }
 
     private void deleteAllEntries() {
-        getContentResolver().delete(PetContract.PetEntry.CONTENT_URI, null, null);
+        new DeleteAllTask(getApplicationContext()).execute();
+    }
+
+    private void showDeleteSelectedConfirmationDialog(final ActionMode mode, final long[] ids) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setMessage(getResources().getQuantityString(R.plurals.msg_delete_selected_pets, ids.length, ids.length));
+        builder.setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                applyToPets(ids, null);
+                mode.finish();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    private void showSetGenderDialog(final ActionMode mode, final long[] ids) {
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_set_gender);
+        // The options are in the order of the gender constants
+        builder.setItems(R.array.array_gender_options, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                ContentValues values = new ContentValues();
+                values.put(PetContract.PetEntry.COLUMN_PET_GENDER, which);
+                applyToPets(ids, values);
+                mode.finish();
+            }
+        });
+        builder.create().show();
+    }
+
+    private void showSetBreedDialog(final ActionMode mode, final long[] ids) {
+        final EditText breedEditText = new EditText(this);
+        breedEditText.setHint(R.string.hint_pet_breed);
+        breedEditText.setSingleLine();
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.action_set_breed);
+        builder.setView(breedEditText);
+        builder.setPositiveButton(R.string.apply, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int id) {
+                String breed = breedEditText.getText().toString().trim();
+                ContentValues values = new ContentValues();
+                if (TextUtils.isEmpty(breed)) {
+                    values.putNull(PetContract.PetEntry.COLUMN_PET_BREED);
+                } else {
+                    values.put(PetContract.PetEntry.COLUMN_PET_BREED, breed);
+                }
+                applyToPets(ids, values);
+                mode.finish();
+            }
+        });
+        builder.setNegativeButton(R.string.cancel, null);
+        builder.create().show();
+    }
+
+    /**
+     * Updates the pets with the values, or deletes them if the values are null, in one batch.
+     * <p>
+     * The provider applies the batch in one transaction and notifies the list once, so the list
+     * reloads once however many pets were selected.
+     */
+    private void applyToPets(long[] ids, ContentValues values) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int from = 0; from < ids.length; from += MAX_IDS_PER_OPERATION) {
+            int to = Math.min(ids.length, from + MAX_IDS_PER_OPERATION);
+            StringBuilder selection = new StringBuilder(PetContract.PetEntry._ID).append(" IN (");
+            String[] selectionArgs = new String[to - from];
+            for (int i = from; i < to; i++) {
+                selection.append(i == from ? "?" : ",?");
+                selectionArgs[i - from] = String.valueOf(ids[i]);
+            }
+            selection.append(')');
+
+            ContentProviderOperation.Builder builder = values == null
+                    ? ContentProviderOperation.newDelete(PetContract.PetEntry.CONTENT_URI)
+                    : ContentProviderOperation.newUpdate(PetContract.PetEntry.CONTENT_URI).withValues(values);
+            operations.add(builder.withSelection(selection.toString(), selectionArgs).build());
+        }
+        new ApplyBatchTask(getApplicationContext(), operations).execute();
     }
 
     private void insertDummyData() {
@@ -153,15 +395,24 @@ public class CatalogActivity extends AppCompatActivity
 
     @Override
     public android.content.Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        String projection[] = new String[]
-                {PetContract.PetEntry._ID, PetContract.PetEntry.COLUMN_PET_NAME, PetContract.PetEntry.COLUMN_PET_BREED};
+        // The pets of the shelters nearest to the location, nearest first
+        Uri uri = args != null && args.containsKey(ARG_LATITUDE)
+                ? PetContract.PetEntry.buildNearUri(args.getDouble(ARG_LATITUDE), args.getDouble(ARG_LONGITUDE),
+                PetContract.PetEntry.DEFAULT_NEAR_LIMIT)
+                : PetContract.PetEntry.CONTENT_URI;
 
-        return new CursorLoader(this, PetContract.PetEntry.CONTENT_URI, projection, null, null, null);
+        // Note: The catalog can hold a lot of pets, rows are filled ahead of the scroll position
+        return new PetListLoader(this, uri);
     }
 
     @Override
     public void onLoadFinished(android.content.Loader<Cursor> loader, Cursor cursor) {
         petCursorAdapter.swapCursor(cursor);
+        // The pets changed, so may what can be undone
+        Bundle undoState = ((PetListLoader) loader).getUndoState();
+        canUndo = undoState != null && undoState.getBoolean(PetContract.EXTRA_CAN_UNDO);
+        canRedo = undoState != null && undoState.getBoolean(PetContract.EXTRA_CAN_REDO);
+        invalidateOptionsMenu();
     }
 
     @Override
@@ -169,5 +420,154 @@ public class CatalogActivity extends AppCompatActivity
         petCursorAdapter.swapCursor(null);
     }
 
+    /**
+     * Loads the pets of the list and, on the same background thread, what can be undone, which
+     * only changes along with the pets.
+     */
+    private static class PetListLoader extends PrefetchingCursorLoader {
+
+        private volatile Bundle undoState;
+
+        PetListLoader(Context context, Uri uri) {
+            super(context, uri, PetContract.PetEntry.SUMMARY_PROJECTION, null, null, null);
+        }
+
+        @Override
+        public Cursor loadInBackground() {
+            Cursor cursor = super.loadInBackground();
+            undoState = getContext().getContentResolver().call(PetContract.PetEntry.CONTENT_URI,
+                    PetContract.METHOD_GET_UNDO_STATE, null, null);
+            return cursor;
+        }
+
+        /**
+         * @return The undo state read with the last loaded pets, null before the first load
+         */
+        Bundle getUndoState() {
+            return undoState;
+        }
+    }
+
+    /**
+     * Contextual action bar shown while pets are selected in the list.
+     */
+    private class SelectionModeListener implements AbsListView.MultiChoiceModeListener {
+
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_catalog_selection, menu);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public void onItemCheckedStateChanged(ActionMode mode, int position, long id, boolean checked) {
+            int count = petListView.getCheckedItemCount();
+            mode.setTitle(getResources().getQuantityString(R.plurals.catalog_selected_count, count, count));
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            // The adapter has stable ids, so these are the ids of the selected pets
+            long[] ids = petListView.getCheckedItemIds();
+            if (ids.length == 0) {
+                return false;
+            }
+            switch (item.getItemId()) {
+                case R.id.action_delete_selected:
+                    showDeleteSelectedConfirmationDialog(mode, ids);
+                    return true;
+                case R.id.action_set_gender:
+                    showSetGenderDialog(mode, ids);
+                    return true;
+                case R.id.action_set_breed:
+                    showSetBreedDialog(mode, ids);
+                    return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+        }
+    }
+
+    /**
+     * Applies a batch of operations to the provider off the main thread.
+     */
+    private static class ApplyBatchTask extends AsyncTask<Void, Void, Boolean> {
+
+        private final Context context;
+        private final ArrayList<ContentProviderOperation> operations;
+
+        ApplyBatchTask(Context context, ArrayList<ContentProviderOperation> operations) {
+            this.context = context;
+            this.operations = operations;
+        }
+
+        @Override
+        protected Boolean doInBackground(Void... params) {
+            try {
+                context.getContentResolver().applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+                return true;
+            } catch (RemoteException | OperationApplicationException | IllegalArgumentException e) {
+                Log.e(CatalogActivity.class.getSimpleName(), "Batch of " + operations.size() + " operations failed", e);
+                return false;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(Boolean successful) {
+            if (!successful) {
+                Toast.makeText(context, R.string.msg_pets_batch_failed, Toast.LENGTH_SHORT).show();
+            }
+        }
+    }
+
+    /**
+     * Deletes every pet off the main thread. The provider notifies the loader, which empties the
+     * list, and the delete can be undone like any other.
+     */
+    private static class DeleteAllTask extends AsyncTask<Void, Void, Void> {
+
+        private final Context context;
+
+        DeleteAllTask(Context context) {
+            this.context = context;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            context.getContentResolver().delete(PetContract.PetEntry.CONTENT_URI, null, null);
+            return null;
+        }
+    }
+
+    /**
+     * Undoes, or redoes, the last change to the pets off the main thread. The provider notifies
+     * the loader of the restored rows, nothing is requeried here.
+     */
+    private static class UndoTask extends AsyncTask<Void, Void, Void> {
+
+        private final Context context;
+        private final boolean redo;
+
+        UndoTask(Context context, boolean redo) {
+            this.context = context;
+            this.redo = redo;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            context.getContentResolver().call(PetContract.PetEntry.CONTENT_URI,
+                    redo ? PetContract.METHOD_REDO : PetContract.METHOD_UNDO, null, null);
+            return null;
+        }
+    }
+
 }
 
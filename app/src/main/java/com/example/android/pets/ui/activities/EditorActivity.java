@@ -16,12 +16,9 @@
 package com.example.android.pets.ui.activities;
 
 import android.app.AlertDialog;
-import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
-import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
@@ -33,22 +30,28 @@ import android.view.MenuItem;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
+import android.widget.FilterQueryProvider;
+import android.widget.SimpleCursorAdapter;
 import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.R;
+import com.example.android.pets.data.ObservableQuery;
 import com.example.android.pets.data.PetContract;
+import com.example.android.pets.model.Pet;
+import com.example.android.pets.model.PetSchema;
 import com.example.android.pets.utils.EditTextUtils;
 import com.example.android.pets.utils.StringUtils;
 import com.example.android.pets.utils.ValidationUtil;
 
+import java.util.List;
+
 /**
  * Allows user to create a new pet or edit an existing one.
  */
-public class EditorActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
-
-    private static final int PET_LOADER = 1;
+public class EditorActivity extends AppCompatActivity implements ObservableQuery.Observer<Pet> {
 
     /**
      * EditText field to enter the pet's name
@@ -56,9 +59,9 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private EditText mNameEditText;
 
     /**
-     * EditText field to enter the pet's breed
+     * EditText field to enter the pet's breed, with suggestions of the known breeds
      */
-    private EditText mBreedEditText;
+    private AutoCompleteTextView mBreedEditText;
 
     /**
      * EditText field to enter the pet's weight
@@ -80,6 +83,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private String currentWeight;
     private String currentBreed;
     private String currentName;
+    private ObservableQuery.Subscription petSubscription;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -88,17 +92,18 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
 
         // Find all relevant views that we will need to read user input from
         mNameEditText = (EditText) findViewById(R.id.edit_pet_name);
-        mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
+        mBreedEditText = (AutoCompleteTextView) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
 
         setupSpinner();
+        setupBreedAutocomplete();
 
         if (getIntent() != null) {
             if (getIntent().getData() != null) {
                 contentUri = getIntent().getData();
                 setTitle(getString(R.string.label_edit_data));
-                initLoader();
+                subscribeToPet();
             } else {
                 setTitle(getString(R.string.label_add_data));
                 // Note: 11/26/2018 by sagar  No need to show delete option for blank pet entry
@@ -194,8 +199,49 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         });
     }
 
-    private void initLoader() {
-        getLoaderManager().initLoader(PET_LOADER, null, this);
+    /**
+     * Setup the breed field to suggest the breeds already entered, so the same breed is spelled
+     * the same way on every pet.
+     */
+    private void setupBreedAutocomplete() {
+        SimpleCursorAdapter breedAdapter = new SimpleCursorAdapter(this,
+                android.R.layout.simple_dropdown_item_1line, null,
+                new String[]{PetContract.BreedEntry.COLUMN_BREED_NAME},
+                new int[]{android.R.id.text1}, 0);
+
+        // The adapter runs the query on its filter thread, it is served from memory by the provider
+        breedAdapter.setFilterQueryProvider(new FilterQueryProvider() {
+            @Override
+            public Cursor runQuery(CharSequence constraint) {
+                String prefix = constraint == null ? "" : constraint.toString();
+                return getContentResolver().query(PetContract.BreedEntry.buildSuggestionsUri(prefix),
+                        null, null, null, null);
+            }
+        });
+
+        // Picking a suggestion puts the breed name (second column, after _id) into the field
+        breedAdapter.setStringConversionColumn(1);
+        mBreedEditText.setAdapter(breedAdapter);
+    }
+
+    private void subscribeToPet() {
+        // The generated mapper reads the columns by their position in the generated projection
+        ObservableQuery<Pet> query = new ObservableQuery<>(getContentResolver(), contentUri,
+                PetSchema.PROJECTION, null, null, null, new ObservableQuery.RowMapper<Pet>() {
+            @Override
+            public Pet map(Cursor cursor) {
+                return PetSchema.fromCursor(cursor);
+            }
+        });
+        petSubscription = query.subscribe(this);
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (petSubscription != null) {
+            petSubscription.unsubscribe();
+        }
+        super.onDestroy();
     }
 
     @Override
@@ -306,34 +352,17 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        String projection[] = new String[]
-                {PetContract.PetEntry._ID,
-                        PetContract.PetEntry.COLUMN_PET_NAME,
-                        PetContract.PetEntry.COLUMN_PET_BREED,
-                        PetContract.PetEntry.COLUMN_PET_GENDER,
-                        PetContract.PetEntry.COLUMN_PET_WEIGHT};
-        return new CursorLoader(this, contentUri, projection, null, null, null);
-    }
-
-    @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
-        if (cursor == null || cursor.getCount() < 1) {
+    public void onChanged(List<Pet> results) {
+        if (results.isEmpty()) {
             return;
         }
 
-        cursor.moveToFirst();
-        // Note: 11/26/2018 by sagar  Get column indices
-        int columnName = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_NAME);
-        int columnBreed = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_BREED);
-        int columnGender = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_GENDER);
-        int columnWeight = cursor.getColumnIndex(PetContract.PetEntry.COLUMN_PET_WEIGHT);
-
+        Pet pet = results.get(0);
         // Note: 11/26/2018 by sagar  Take a reference to existing values
-        currentGender = cursor.getInt(columnGender);
-        currentWeight = cursor.getString(columnWeight);
-        currentBreed = cursor.getString(columnBreed);
-        currentName = cursor.getString(columnName);
+        currentGender = pet.getGender();
+        currentWeight = String.valueOf(pet.getWeight());
+        currentBreed = pet.getBreed();
+        currentName = pet.getName();
 
         // Note: 11/26/2018 by sagar  Set values
         mNameEditText.setText(currentName);
@@ -342,12 +371,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mGenderSpinner.setSelection(currentGender);
     }
 
-    @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
-        EditTextUtils.clearEditText(mNameEditText, mBreedEditText, mWeightEditText);
-        mGenderSpinner.setSelection(0);
-    }
-
     @Override
     public void onBackPressed() {
         if (!hasChanges()){
@@ -0,0 +1,71 @@
+package com.example.android.pets.ui.widget;
+
+import android.app.PendingIntent;
+import android.appwidget.AppWidgetManager;
+import android.appwidget.AppWidgetProvider;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.text.TextUtils;
+import android.widget.RemoteViews;
+
+import com.example.android.pets.R;
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetSummarySnapshot;
+import com.example.android.pets.ui.activities.CatalogActivity;
+
+/**
+ * Home screen widget with the number of pets and the most recently added ones.
+ * <p>
+ * It never queries the database: it renders the {@link PetSummarySnapshot} file, which the
+ * provider rewrites after every write and then announces with
+ * {@link PetContract#ACTION_SUMMARY_CHANGED}. The widget has no update period, it only
+ * refreshes on those broadcasts.
+ */
+public class PetSummaryWidget extends AppWidgetProvider {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        if (PetContract.ACTION_SUMMARY_CHANGED.equals(intent.getAction())) {
+            AppWidgetManager manager = AppWidgetManager.getInstance(context);
+            onUpdate(context, manager, manager.getAppWidgetIds(new ComponentName(context, PetSummaryWidget.class)));
+        } else {
+            super.onReceive(context, intent);
+        }
+    }
+
+    @Override
+    public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
+        if (appWidgetIds.length == 0) {
+            return;
+        }
+        PetSummarySnapshot snapshot = PetSummarySnapshot.read(context);
+        if (snapshot == null) {
+            // No write since the app was installed, have the provider write the first snapshot.
+            // It broadcasts ACTION_SUMMARY_CHANGED once done.
+            context.getContentResolver().call(PetContract.PetEntry.CONTENT_URI,
+                    PetContract.METHOD_REFRESH_SUMMARY, null, null);
+        }
+        RemoteViews views = buildViews(context, snapshot);
+        for (int appWidgetId : appWidgetIds) {
+            appWidgetManager.updateAppWidget(appWidgetId, views);
+        }
+    }
+
+    private static RemoteViews buildViews(Context context, PetSummarySnapshot snapshot) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_pet_summary);
+        if (snapshot == null) {
+            views.setTextViewText(R.id.widget_pet_count, context.getString(R.string.widget_loading));
+            views.setTextViewText(R.id.widget_recent_pets, "");
+        } else {
+            int count = snapshot.getPetCount();
+            views.setTextViewText(R.id.widget_pet_count,
+                    context.getResources().getQuantityString(R.plurals.widget_pet_count, count, count));
+            views.setTextViewText(R.id.widget_recent_pets, TextUtils.join("\n", snapshot.getRecentNames()));
+        }
+        PendingIntent openCatalog = PendingIntent.getActivity(context, 0,
+                new Intent(context, CatalogActivity.class), 0);
+        views.setOnClickPendingIntent(R.id.widget_root, openCatalog);
+        return views;
+    }
+}
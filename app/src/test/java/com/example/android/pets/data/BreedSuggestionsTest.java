@@ -0,0 +1,178 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * The breed autocomplete, and its benchmark over 10k distinct breeds.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class BreedSuggestionsTest {
+
+    private static final int BREEDS = 10000;
+    private static final int LOOKUPS = 20000;
+
+    @Test
+    public void suggestsTheBreedsPetsHave() {
+        PetTestUtils.startProvider();
+        Uri beagle = PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                PetTestUtils.pet("Rex", "Beagle", PetEntry.GENDER_MALE, 10));
+        PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                PetTestUtils.pet("Tom", "Bearded Collie", PetEntry.GENDER_MALE, 20));
+        assertEquals(Arrays.asList("Beagle", "Bearded Collie"), suggestions("be", null));
+
+        ContentValues boxer = new ContentValues();
+        boxer.put(PetEntry.COLUMN_PET_BREED, "Boxer");
+        PetTestUtils.resolver().update(beagle, boxer, null, null);
+
+        assertEquals(Arrays.asList("Bearded Collie"), suggestions("be", null));
+        assertEquals(Arrays.asList("Bearded Collie", "Boxer"), suggestions("B", null));
+    }
+
+    @Test
+    public void countsThePetsOfEachBreedThroughDeletesUndoAndRollbacks() throws Exception {
+        PetTestUtils.startProvider();
+        Uri rex = PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                PetTestUtils.pet("Rex", "Beagle", PetEntry.GENDER_MALE, 10));
+        Uri max = PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                PetTestUtils.pet("Max", "Beagle", PetEntry.GENDER_MALE, 12));
+
+        PetTestUtils.resolver().delete(rex, null, null);
+        assertEquals(Arrays.asList("Beagle"), suggestions("be", null));
+        PetTestUtils.resolver().delete(max, null, null);
+        assertEquals(Arrays.<String>asList(), suggestions("be", null));
+
+        PetTestUtils.resolver().call(PetEntry.CONTENT_URI, PetContract.METHOD_UNDO, null, null);
+        assertEquals(Arrays.asList("Beagle"), suggestions("be", null));
+        PetTestUtils.resolver().call(PetEntry.CONTENT_URI, PetContract.METHOD_REDO, null, null);
+        assertEquals(Arrays.<String>asList(), suggestions("be", null));
+
+        // A batch that fails rolls back the pet it inserted, and its count
+        ArrayList<ContentProviderOperation> batch = new ArrayList<>();
+        batch.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                .withValues(PetTestUtils.pet("Kit", "Boxer", PetEntry.GENDER_FEMALE, 4)).build());
+        batch.add(ContentProviderOperation.newAssertQuery(PetEntry.CONTENT_URI).withExpectedCount(100).build());
+        try {
+            PetTestUtils.resolver().applyBatch(PetContract.CONTENT_AUTHORITY, batch);
+            fail("The assertion of the batch fails");
+        } catch (OperationApplicationException expected) {
+        }
+        assertEquals(Arrays.<String>asList(), suggestions("b", null));
+    }
+
+    @Test
+    public void clampsTheLimit() {
+        PetTestUtils.startProvider();
+        PetTestUtils.resolver().insert(PetEntry.CONTENT_URI, PetTestUtils.pet("Rex", "Beagle", PetEntry.GENDER_MALE, 10));
+        PetTestUtils.resolver().insert(PetEntry.CONTENT_URI, PetTestUtils.pet("Tom", "Boxer", PetEntry.GENDER_MALE, 20));
+
+        assertEquals(1, suggestions("b", "0").size());
+        assertEquals(1, suggestions("b", "-5").size());
+        try {
+            suggestions("b", "many");
+            fail("A limit that is not a number is rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void suggestsInUnderAMillisecond() {
+        String name = "suggestions-test.db";
+        PetDbHelper helper = new PetDbHelper(RuntimeEnvironment.application, name, "suggestions-test-encrypted.db",
+                false, null);
+        BreedDictionary breeds = BreedDictionary.getInstance();
+        breeds.clear();
+        try {
+            PetDatabase database = helper.getWritableDatabase();
+            database.beginTransaction();
+            try {
+                for (int i = 0; i < BREEDS; i++) {
+                    ContentValues pet = new ContentValues();
+                    pet.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+                    long breedId = breeds.getOrCreateId(database, breedName(i));
+                    pet.put(PetEntry.COLUMN_PET_BREED_ID, breedId);
+                    database.insertOrThrow(PetEntry.TABLE_NAME, null, pet);
+                    // As the provider counts the pets it inserts
+                    breeds.countPets(breedId, 1);
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+            breeds.commit();
+            breeds.suggest(database, "", BreedEntry.DEFAULT_SUGGESTION_LIMIT);
+
+            String[] prefixes = new String[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                String breed = breedName(i * 7919 % BREEDS);
+                prefixes[i] = breed.substring(0, 1 + i % breed.length());
+            }
+            for (int i = 0; i < LOOKUPS; i++) {
+                breeds.suggest(database, prefixes[i], BreedEntry.DEFAULT_SUGGESTION_LIMIT);
+            }
+            long[] nanos = new long[LOOKUPS];
+            for (int i = 0; i < LOOKUPS; i++) {
+                long start = System.nanoTime();
+                List<String> suggestions = breeds.suggest(database, prefixes[i], BreedEntry.DEFAULT_SUGGESTION_LIMIT);
+                nanos[i] = System.nanoTime() - start;
+                assertTrue(!suggestions.isEmpty());
+            }
+
+            Arrays.sort(nanos);
+            long p50 = nanos[LOOKUPS / 2];
+            long p99 = nanos[LOOKUPS * 99 / 100];
+            System.out.println("suggestions over " + BREEDS + " breeds, p50 " + p50 / 1000 + "us, p99 " + p99 / 1000 + "us");
+            assertTrue(p99 < 1000000);
+        } finally {
+            breeds.clear();
+            helper.close();
+            RuntimeEnvironment.application.deleteDatabase(name);
+        }
+    }
+
+    /**
+     * @return Distinct names that share prefixes, like real breeds do
+     */
+    private static String breedName(int i) {
+        return "Breed " + (char) ('A' + i % 26) + (char) ('a' + i / 26 % 26) + " " + i;
+    }
+
+    private static List<String> suggestions(String prefix, String limit) {
+        Uri uri = BreedEntry.buildSuggestionsUri(prefix);
+        if (limit != null) {
+            uri = uri.buildUpon().appendQueryParameter(BreedEntry.PARAM_LIMIT, limit).build();
+        }
+        Cursor cursor = PetTestUtils.resolver().query(uri, null, null, null, null);
+        try {
+            List<String> names = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                names.add(cursor.getString(cursor.getColumnIndexOrThrow(BreedEntry.COLUMN_BREED_NAME)));
+            }
+            return names;
+        } finally {
+            cursor.close();
+        }
+    }
+}
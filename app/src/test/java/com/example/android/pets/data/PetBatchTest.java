@@ -0,0 +1,140 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.database.Cursor;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Bulk deletes and edits of selected pets, applied the way the catalog does: one batch of
+ * {@code _id IN (...)} operations, in one transaction with one change notification.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetBatchTest {
+
+    private static final int PETS = 1000;
+    /**
+     * As the catalog splits the selection, below the SQLite limit of bound arguments
+     */
+    private static final int MAX_IDS_PER_OPERATION = 500;
+
+    private PetProvider mProvider;
+    private CountingObserver mObserver;
+    private long[] mIds;
+
+    @Before
+    public void setUp() {
+        mProvider = PetTestUtils.startProvider();
+        ContentValues[] pets = new ContentValues[PETS];
+        for (int i = 0; i < PETS; i++) {
+            pets[i] = PetTestUtils.pet("Pet " + i, "Breed " + i % 10, PetEntry.GENDER_MALE, i % 50);
+        }
+        assertEquals(PETS, PetTestUtils.resolver().bulkInsert(PetEntry.CONTENT_URI, pets));
+        mIds = queryIds(null);
+        mObserver = new CountingObserver();
+        PetTestUtils.resolver().registerContentObserver(PetEntry.CONTENT_URI, true, mObserver);
+    }
+
+    @After
+    public void tearDown() {
+        PetTestUtils.resolver().unregisterContentObserver(mObserver);
+    }
+
+    @Test
+    public void deletesTheSelectionInOneTransactionWithOneNotification() throws Exception {
+        ContentProviderResult[] results = PetTestUtils.resolver().applyBatch(PetContract.CONTENT_AUTHORITY,
+                batch(mIds, null));
+
+        assertEquals(PETS / MAX_IDS_PER_OPERATION, results.length);
+        assertEquals(0, PetTestUtils.count(PetEntry.CONTENT_URI));
+        assertEquals(1, mObserver.mChanges);
+        // One transaction is one step of the undo stack
+        assertEquals(PETS, undo());
+        assertEquals(PETS, PetTestUtils.count(PetEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void setsTheGenderOfTheSelectionInOneTransactionWithOneNotification() throws Exception {
+        ContentValues female = new ContentValues();
+        female.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE);
+        PetTestUtils.resolver().applyBatch(PetContract.CONTENT_AUTHORITY, batch(mIds, female));
+
+        assertEquals(PETS, queryIds(PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_FEMALE).length);
+        assertEquals(1, mObserver.mChanges);
+        assertEquals(PETS, undo());
+        assertEquals(PETS, queryIds(PetEntry.COLUMN_PET_GENDER + " = " + PetEntry.GENDER_MALE).length);
+    }
+
+    /**
+     * @param values The values to set, or null to delete the pets
+     */
+    private static ArrayList<ContentProviderOperation> batch(long[] ids, ContentValues values) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+        for (int from = 0; from < ids.length; from += MAX_IDS_PER_OPERATION) {
+            int to = Math.min(ids.length, from + MAX_IDS_PER_OPERATION);
+            StringBuilder selection = new StringBuilder(PetEntry._ID).append(" IN (");
+            String[] selectionArgs = new String[to - from];
+            for (int i = from; i < to; i++) {
+                selection.append(i == from ? "?" : ",?");
+                selectionArgs[i - from] = String.valueOf(ids[i]);
+            }
+            selection.append(')');
+            ContentProviderOperation.Builder builder = values == null
+                    ? ContentProviderOperation.newDelete(PetEntry.CONTENT_URI)
+                    : ContentProviderOperation.newUpdate(PetEntry.CONTENT_URI).withValues(values);
+            operations.add(builder.withSelection(selection.toString(), selectionArgs).build());
+        }
+        return operations;
+    }
+
+    /**
+     * @return Number of pets the undo changed
+     */
+    private int undo() {
+        return mProvider.call(PetContract.METHOD_UNDO, null, null).getInt(PetContract.EXTRA_PET_COUNT);
+    }
+
+    private static long[] queryIds(String selection) {
+        Cursor cursor = PetTestUtils.resolver().query(PetEntry.CONTENT_URI, new String[]{PetEntry._ID},
+                selection, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static final class CountingObserver extends ContentObserver {
+
+        int mChanges;
+
+        CountingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges++;
+        }
+    }
+}
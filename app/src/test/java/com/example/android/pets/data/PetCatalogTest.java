@@ -0,0 +1,94 @@
+package com.example.android.pets.data;
+
+import android.database.MatrixCursor;
+import android.support.v4.util.AtomicFile;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Opening and reading catalog files that do not come from {@link PetCatalog#write}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetCatalogTest {
+
+    /**
+     * Position of the name offset of the first record of a catalog of one pet
+     */
+    private static final int FIRST_NAME_OFFSET = 16 + 8;
+
+    private AtomicFile mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = new AtomicFile(new File(RuntimeEnvironment.application.getFilesDir(), PetCatalog.FILE_NAME));
+        MatrixCursor pets = new MatrixCursor(PetCatalog.COLUMNS);
+        pets.addRow(new Object[]{1, "Zo\u00e9", null, PetEntry.GENDER_FEMALE, 4});
+        assertEquals(1, PetCatalog.write(pets, mFile));
+    }
+
+    @Test
+    public void readsTheStringsItWrote() throws IOException {
+        PetCatalog catalog = PetCatalog.open(mFile);
+        char[] chars = new char[catalog.getUtf8Length(0, PetCatalog.COLUMN_NAME)];
+        int count = catalog.getChars(0, PetCatalog.COLUMN_NAME, chars);
+        assertEquals("Zo\u00e9", new String(chars, 0, count));
+    }
+
+    @Test
+    public void rejectsAStringOutOfThePool() throws IOException {
+        patch(FIRST_NAME_OFFSET, 1000);
+        assertCorrupt();
+        patch(FIRST_NAME_OFFSET, -4);
+        assertCorrupt();
+    }
+
+    @Test
+    public void rejectsAStringLongerThanThePool() throws IOException {
+        patch(FIRST_NAME_OFFSET + 4, Integer.MAX_VALUE);
+        assertCorrupt();
+    }
+
+    @Test
+    public void decodesATruncatedSequenceWithoutReadingPastTheString() throws IOException {
+        // The name ends in the first byte of the 2 byte sequence of its last char
+        patch(FIRST_NAME_OFFSET + 4, 3);
+        PetCatalog catalog = PetCatalog.open(mFile);
+        char[] chars = new char[catalog.getUtf8Length(0, PetCatalog.COLUMN_NAME)];
+        int count = catalog.getChars(0, PetCatalog.COLUMN_NAME, chars);
+        assertEquals("Zo\ufffd", new String(chars, 0, count));
+    }
+
+    private void patch(int position, int value) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(mFile.getBaseFile(), "rw");
+        try {
+            file.seek(position);
+            file.writeInt(value);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void assertCorrupt() {
+        try {
+            PetCatalog.open(mFile);
+            fail("The catalog is corrupt");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The storage mode the helper reports, and the upgrade of an old database.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetDbHelperTest {
+
+    private static final String SCRATCH_NAME = "helper-test.db";
+    private static final String SCRATCH_ENCRYPTED_NAME = "helper-test-encrypted.db";
+    private static final String FRESH_NAME = "helper-test-fresh.db";
+
+    @After
+    public void tearDown() {
+        RuntimeEnvironment.application.deleteDatabase(SCRATCH_NAME);
+        RuntimeEnvironment.application.deleteDatabase(SCRATCH_ENCRYPTED_NAME);
+        RuntimeEnvironment.application.deleteDatabase(FRESH_NAME);
+    }
+
+    @Test
+    public void reportsEncryptionWithoutAKeyAsUnavailable() {
+        PetDbHelper helper = new PetDbHelper(RuntimeEnvironment.application, SCRATCH_NAME, SCRATCH_ENCRYPTED_NAME,
+                true, new PetDbKeyProvider() {
+                    @Override
+                    public byte[] getKey(Context context) {
+                        // What the keystore provider returns below Marshmallow
+                        return null;
+                    }
+                });
+        try {
+            helper.getWritableDatabase();
+            assertFalse(helper.isEncrypted());
+            assertTrue(helper.isEncryptionUnavailable());
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void plaintextModeIsNotUnavailableEncryption() {
+        PetDbHelper helper = new PetDbHelper(RuntimeEnvironment.application, SCRATCH_NAME, SCRATCH_ENCRYPTED_NAME,
+                false, null);
+        try {
+            helper.getWritableDatabase();
+            assertFalse(helper.isEncrypted());
+            assertFalse(helper.isEncryptionUnavailable());
+        } finally {
+            helper.close();
+        }
+    }
+
+    @Test
+    public void upgradesAVersion1DatabaseToTheSchemaOfANewOne() {
+        SQLiteDatabase old = RuntimeEnvironment.application.openOrCreateDatabase(SCRATCH_NAME,
+                Context.MODE_PRIVATE, null);
+        try {
+            // The pets table of version 1, breeds inline
+            old.execSQL("CREATE TABLE pets (_id INTEGER PRIMARY KEY AUTOINCREMENT, name TEXT, breed TEXT, " +
+                    "gender INTEGER NOT NULL DEFAULT 0, weight INTEGER NOT NULL DEFAULT 0)");
+            old.execSQL("INSERT INTO pets (name, breed, gender, weight) VALUES ('Rex', 'Beagle', 1, 10)");
+            old.execSQL("INSERT INTO pets (name, breed, gender, weight) VALUES ('Tom', NULL, 0, 4)");
+            old.setVersion(1);
+        } finally {
+            old.close();
+        }
+
+        PetDbHelper upgraded = new PetDbHelper(RuntimeEnvironment.application, SCRATCH_NAME, SCRATCH_ENCRYPTED_NAME,
+                false, null);
+        PetDbHelper fresh = new PetDbHelper(RuntimeEnvironment.application, FRESH_NAME, SCRATCH_ENCRYPTED_NAME,
+                false, null);
+        try {
+            PetDatabase db = upgraded.getWritableDatabase();
+            assertEquals(columns(fresh.getWritableDatabase()), columns(db));
+            assertEquals(1, db.longForQuery("SELECT COUNT(*) FROM " + PetEntry.VIEW_NAME + " WHERE "
+                    + PetEntry.COLUMN_PET_NAME + " = 'Rex' AND " + PetEntry.COLUMN_PET_BREED + " = 'Beagle'", null));
+            assertEquals(1, db.longForQuery("SELECT COUNT(*) FROM " + PetEntry.VIEW_NAME + " WHERE "
+                    + PetEntry.COLUMN_PET_BREED + " IS NULL AND " + PetEntry.COLUMN_PET_SHELTER_ID + " IS NULL", null));
+            assertEquals(0, db.longForQuery("SELECT COUNT(*) FROM " + PetEntry.TABLE_NAME + " WHERE "
+                    + PetEntry.COLUMN_PET_CONTENT_HASH + " IS NULL", null));
+        } finally {
+            upgraded.close();
+            fresh.close();
+        }
+    }
+
+    /**
+     * @return The columns of the pets table, by name
+     */
+    private static Set<String> columns(PetDatabase db) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + PetEntry.TABLE_NAME + ")", null);
+        try {
+            Set<String> columns = new TreeSet<>();
+            int nameIndex = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                columns.add(cursor.getString(nameIndex));
+            }
+            return columns;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Duplicate detection of inserts, including those that leave columns to their defaults.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetDuplicatesTest {
+
+    @Before
+    public void setUp() {
+        PetTestUtils.startProvider();
+    }
+
+    @Test
+    public void findsAPetInsertedWithoutGenderAndWeight() {
+        Uri first = insert(nameOnly("Rex"));
+        assertEquals(first, insert(nameOnly(" rex ")));
+        // The defaults are what the first insert stored
+        assertEquals(first, insert(PetTestUtils.pet("Rex", null, PetEntry.GENDER_UNKNOWN, 0)));
+        assertNotEquals(first, insert(PetTestUtils.pet("Rex", null, PetEntry.GENDER_UNKNOWN, 1)));
+        assertEquals(2, PetTestUtils.count(PetEntry.CONTENT_URI));
+    }
+
+    @Test
+    public void bulkInsertSkipsDuplicatesWithoutGenderAndWeight() {
+        ContentValues[] values = {nameOnly("Rex"), nameOnly("Rex"), nameOnly("Tom")};
+        assertEquals(2, PetTestUtils.resolver().bulkInsert(PetEntry.CONTENT_URI, values));
+    }
+
+    private static ContentValues nameOnly(String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        return values;
+    }
+
+    private static Uri insert(ContentValues values) {
+        return PetTestUtils.resolver().insert(PetEntry.buildInsertUri(true), values);
+    }
+}
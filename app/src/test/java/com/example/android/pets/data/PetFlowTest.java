@@ -0,0 +1,191 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.R;
+import com.example.android.pets.adapter.PetCursorAdapter;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.model.Pet;
+import com.example.android.pets.model.PetSchema;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scripted catalog and editor flows through the content resolver, with budgets of the provider
+ * queries each flow makes, to catch regressions of the list and the editor.
+ * <p>
+ * The provider is seeded with {@link #ROWS} pets, one in {@link #NULL_BREED_EVERY} without a
+ * breed. The scroll flow binds every row of the catalog through a {@link PetCursorAdapter} over a
+ * {@link PrefetchingCursor}, recycling {@link #VISIBLE_ROWS} views as a list would. The editor
+ * flows read sample pets with the editor's projection and mapper, and save them back through
+ * {@link PetProvider#update} the way the editor does.
+ * <p>
+ * The queries are counted by the provider's metrics, which are reset before each flow, and a flow
+ * fails once it makes more than the pets_flow_*_queries budgets of config.xml. Robolectric does
+ * not count allocations, so the allocation budgets of the same flows are checked on a device by
+ * PetFlowAllocationTest.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetFlowTest {
+
+    private static final int ROWS = 1000;
+    private static final int NULL_BREED_EVERY = 10;
+    private static final int BREEDS = 50;
+    private static final int EDITOR_SAMPLES = 50;
+    /**
+     * Views a list recycles, about one screen of rows
+     */
+    private static final int VISIBLE_ROWS = 12;
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = PetTestUtils.startProvider();
+        ContentValues[] pets = new ContentValues[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            pets[i] = PetTestUtils.pet("Pet " + i, i % NULL_BREED_EVERY == 0 ? null : "Breed " + i % BREEDS,
+                    i % 3, i % 50);
+        }
+        assertEquals(ROWS, PetTestUtils.resolver().bulkInsert(PetEntry.CONTENT_URI, pets));
+        mProvider.call(PetContract.METHOD_RESET_METRICS, null, null);
+    }
+
+    @Test
+    public void scrollBindsEveryRowFromOneQuery() {
+        final int[] counts = new int[2];
+        Context context = RuntimeEnvironment.application;
+        Cursor cursor = new PrefetchingCursor(PetTestUtils.resolver().query(PetEntry.CONTENT_URI,
+                PetEntry.SUMMARY_PROJECTION, null, null, null));
+        try {
+            PetCursorAdapter adapter = new PetCursorAdapter(context, cursor) {
+                @Override
+                public View newView(Context context, Cursor cursor, ViewGroup parent) {
+                    counts[1]++;
+                    return super.newView(context, cursor, parent);
+                }
+
+                @Override
+                public void bindView(View view, Context context, Cursor cursor) {
+                    counts[0]++;
+                    super.bindView(view, context, cursor);
+                }
+            };
+            View[] recycled = new View[VISIBLE_ROWS];
+            for (int position = 0; position < adapter.getCount(); position++) {
+                int slot = position % VISIBLE_ROWS;
+                recycled[slot] = adapter.getView(position, recycled[slot], null);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        assertEquals(ROWS, counts[0]);
+        assertEquals(VISIBLE_ROWS, counts[1]);
+        assertWithinBudget("scroll queries", operationCount("query"), budget(R.integer.pets_flow_scroll_queries));
+    }
+
+    @Test
+    public void bindsAPetWithoutABreedAsUnknown() {
+        Context context = RuntimeEnvironment.application;
+        Cursor cursor = PetTestUtils.resolver().query(PetEntry.CONTENT_URI, PetEntry.SUMMARY_PROJECTION,
+                PetEntry.COLUMN_PET_BREED_ID + " IS NULL", null, null);
+        try {
+            assertEquals(ROWS / NULL_BREED_EVERY, cursor.getCount());
+            cursor.moveToFirst();
+            PetCursorAdapter adapter = new PetCursorAdapter(context, cursor);
+            View view = adapter.newView(context, cursor, null);
+            adapter.bindView(view, context, cursor);
+            assertEquals(context.getString(R.string.label_unknown_breed),
+                    ((TextView) view.findViewById(R.id.summary)).getText().toString());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void openEditorReadsEachPetOnce() {
+        long[] ids = samples();
+        for (long id : ids) {
+            assertNotNull(read(id));
+        }
+        assertWithinBudget("open editor queries", operationCount("query"),
+                ids.length * budget(R.integer.pets_flow_editor_queries_per_pet));
+    }
+
+    @Test
+    public void saveUpdatesThroughTheProviderAndReadsEachPetBackOnce() {
+        long[] ids = samples();
+        ContentValues values = new ContentValues();
+        for (int i = 0; i < ids.length; i++) {
+            values.put(PetEntry.COLUMN_PET_NAME, "Saved pet " + i);
+            values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_UNKNOWN);
+            values.put(PetEntry.COLUMN_PET_WEIGHT, i);
+            assertEquals(1, PetTestUtils.resolver().update(petUri(ids[i]), values, null, null));
+            // As the editor's observer does
+            Pet saved = read(ids[i]);
+            assertEquals("Saved pet " + i, saved.getName());
+            assertEquals(i, saved.getWeight());
+        }
+        assertEquals(ids.length, operationCount("update"));
+        assertWithinBudget("save queries", operationCount("query"),
+                ids.length * budget(R.integer.pets_flow_editor_queries_per_pet));
+    }
+
+    /**
+     * @return The pet as the editor shows it, or null if there is none with the id
+     */
+    private static Pet read(long id) {
+        Cursor cursor = PetTestUtils.resolver().query(petUri(id), PetSchema.PROJECTION, null, null, null);
+        try {
+            return cursor.moveToFirst() ? PetSchema.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return Ids of pets spread over the whole table, which the provider numbers from 1
+     */
+    private static long[] samples() {
+        long[] ids = new long[EDITOR_SAMPLES];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1 + i * (ROWS / EDITOR_SAMPLES);
+        }
+        return ids;
+    }
+
+    private static Uri petUri(long id) {
+        return ContentUris.withAppendedId(PetEntry.CONTENT_URI, id);
+    }
+
+    private long operationCount(String operation) {
+        return mProvider.call(PetContract.METHOD_GET_METRICS, null, null).getBundle(operation).getLong("count");
+    }
+
+    private static long budget(int id) {
+        return RuntimeEnvironment.application.getResources().getInteger(id);
+    }
+
+    private static void assertWithinBudget(String counter, long count, long budget) {
+        assertTrue(counter + " " + count + " over the budget of " + budget, count <= budget);
+    }
+}
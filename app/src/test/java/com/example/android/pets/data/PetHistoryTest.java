@@ -0,0 +1,157 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetHistoryEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The history compaction, and the metrics of the history the writes record.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetHistoryTest {
+
+    private static final String SCRATCH_NAME = "history-test.db";
+    private static final long DAY = PetHistory.COMPACTION_BUCKET_MILLIS;
+    private static final long HOUR = DAY / 24;
+
+    private PetDbHelper mHelper;
+    private PetDatabase mDatabase;
+    private long mNow;
+
+    @Before
+    public void setUp() {
+        mHelper = new PetDbHelper(RuntimeEnvironment.application, SCRATCH_NAME, "history-test-encrypted.db", false, null);
+        mDatabase = mHelper.getWritableDatabase();
+        // Midnight, so the buckets of the test days start on a whole day
+        mNow = System.currentTimeMillis() / DAY * DAY;
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        RuntimeEnvironment.application.deleteDatabase(SCRATCH_NAME);
+    }
+
+    @Test
+    public void compactionKeepsTheLastEntryPerPetAndDay() {
+        long oldDay = mNow - PetHistory.RETENTION_FULL_MILLIS - 10 * DAY;
+        addEntry(1, oldDay + HOUR, PetHistoryEntry.OPERATION_INSERT);
+        addEntry(1, oldDay + 2 * HOUR, PetHistoryEntry.OPERATION_UPDATE);
+        long lastOfDay = addEntry(1, oldDay + 3 * HOUR, PetHistoryEntry.OPERATION_UPDATE);
+        long nextDay = addEntry(1, oldDay + DAY, PetHistoryEntry.OPERATION_UPDATE);
+        long deletion = addEntry(2, oldDay + HOUR, PetHistoryEntry.OPERATION_DELETE);
+        long afterDeletion = addEntry(2, oldDay + 2 * HOUR, PetHistoryEntry.OPERATION_INSERT);
+        long recent = addEntry(1, mNow - HOUR, PetHistoryEntry.OPERATION_UPDATE);
+        long alsoRecent = addEntry(1, mNow - HOUR / 2, PetHistoryEntry.OPERATION_UPDATE);
+
+        assertEquals(2, compactAll());
+
+        assertEquals(6, historyCount(null));
+        for (long kept : new long[]{lastOfDay, nextDay, deletion, afterDeletion, recent, alsoRecent}) {
+            assertEquals(1, historyCount(PetHistoryEntry._ID + " = " + kept));
+        }
+        assertEquals(0, compactAll());
+    }
+
+    @Test
+    public void compactionRunsInBoundedChunks() {
+        long oldDay = mNow - PetHistory.RETENTION_FULL_MILLIS - 10 * DAY;
+        int perPet = PetHistory.COMPACTION_CHUNK_SIZE;
+        mDatabase.beginTransaction();
+        try {
+            for (int i = 0; i < perPet; i++) {
+                for (int pet = 1; pet <= 3; pet++) {
+                    addEntry(pet, oldDay + i, PetHistoryEntry.OPERATION_UPDATE);
+                }
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+
+        long[] first = PetHistory.queryCompactable(mDatabase, mNow, 0);
+        assertEquals(PetHistory.COMPACTION_CHUNK_SIZE, first.length);
+        assertEquals(3 * perPet - 3, compactAll());
+        assertEquals(3, historyCount(null));
+    }
+
+    @Test
+    public void historyWritesAreTimedInsideTheWrites() {
+        PetProvider provider = PetTestUtils.startProvider();
+        provider.call(PetContract.METHOD_RESET_METRICS, null, null);
+        int pets = 200;
+        for (int i = 0; i < pets; i++) {
+            Uri uri = PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                    PetTestUtils.pet("Pet " + i, "Breed " + (i % 10), PetEntry.GENDER_MALE, i));
+            ContentValues heavier = new ContentValues();
+            heavier.put(PetEntry.COLUMN_PET_WEIGHT, i + 1);
+            PetTestUtils.resolver().update(uri, heavier, null, null);
+        }
+
+        // The overhead itself is measured on a device, by PetHistoryBenchmarkTest
+        Bundle metrics = provider.call(PetContract.METHOD_GET_METRICS, null, null);
+        Bundle history = metrics.getBundle("history");
+        assertEquals(2 * pets, history.getLong("count"));
+        assertTrue(history.getLong("total_exec_nanos") > 0);
+        // Part of the write transactions, never time of its own
+        assertEquals(0, history.getLong("total_wait_nanos"));
+        assertTrue(history.getLong("total_exec_nanos") <= metrics.getBundle("insert").getLong("total_exec_nanos")
+                + metrics.getBundle("update").getLong("total_exec_nanos"));
+    }
+
+    /**
+     * Compacts the way the provider does, a transaction per chunk.
+     *
+     * @return Number of entries removed
+     */
+    private int compactAll() {
+        long afterId = 0;
+        int removed = 0;
+        long[] ids;
+        do {
+            mDatabase.beginTransaction();
+            try {
+                ids = PetHistory.queryCompactable(mDatabase, mNow, afterId);
+                assertTrue(ids.length <= PetHistory.COMPACTION_CHUNK_SIZE);
+                removed += PetHistory.deleteEntries(mDatabase, ids);
+                mDatabase.setTransactionSuccessful();
+            } finally {
+                mDatabase.endTransaction();
+            }
+            if (ids.length > 0) {
+                afterId = ids[ids.length - 1];
+            }
+        } while (ids.length == PetHistory.COMPACTION_CHUNK_SIZE);
+        return removed;
+    }
+
+    private long addEntry(long petId, long changedAt, int operation) {
+        ContentValues values = new ContentValues();
+        values.put(PetHistoryEntry.COLUMN_PET_ID, petId);
+        values.put(PetHistoryEntry.COLUMN_PET_NAME, "Pet " + petId);
+        values.put(PetHistoryEntry.COLUMN_CHANGED_AT, changedAt);
+        values.put(PetHistoryEntry.COLUMN_OPERATION, operation);
+        return mDatabase.insertOrThrow(PetHistoryEntry.TABLE_NAME, null, values);
+    }
+
+    private int historyCount(String selection) {
+        return (int) mDatabase.longForQuery("SELECT COUNT(*) FROM " + PetHistoryEntry.TABLE_NAME
+                + (selection == null ? "" : " WHERE " + selection), null);
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.os.Bundle;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ANALYZE within the lock budget of the maintenance.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetMaintenanceTest {
+
+    private static final String SCRATCH_NAME = "maintenance-test.db";
+    private static final int PETS = 5000;
+    private static final long RUN_BUDGET_MILLIS = 60000;
+
+    private PetDbHelper mHelper;
+    private PetDatabase mDatabase;
+
+    @Before
+    public void setUp() {
+        mHelper = new PetDbHelper(RuntimeEnvironment.application, SCRATCH_NAME, "maintenance-test-encrypted.db",
+                false, null);
+        mDatabase = mHelper.getWritableDatabase();
+        mDatabase.beginTransaction();
+        try {
+            ContentValues pet = new ContentValues();
+            for (int i = 0; i < PETS; i++) {
+                pet.put(PetEntry.COLUMN_PET_NAME, "Pet " + i);
+                pet.put(PetEntry.COLUMN_PET_WEIGHT, i % 50);
+                mDatabase.insertOrThrow(PetEntry.TABLE_NAME, null, pet);
+            }
+            mDatabase.setTransactionSuccessful();
+        } finally {
+            mDatabase.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+        RuntimeEnvironment.application.deleteDatabase(SCRATCH_NAME);
+    }
+
+    @Test
+    public void analyzesEveryTableWithinALargeBudget() {
+        Bundle report = run(RUN_BUDGET_MILLIS);
+
+        assertEquals(0, report.getLong(PetMaintenance.KEY_SKIPPED_TABLES));
+        assertTrue(report.getBoolean(PetMaintenance.KEY_COMPLETED));
+        assertTrue(isAnalyzed(PetEntry.TABLE_NAME));
+    }
+
+    @Test
+    public void boundsOrSkipsTablesLargerThanTheBudget() {
+        Bundle report = run(1);
+
+        if (supportsAnalysisLimit()) {
+            // Bounded by the limit, however large the table is
+            assertEquals(0, report.getLong(PetMaintenance.KEY_SKIPPED_TABLES));
+            assertTrue(isAnalyzed(PetEntry.TABLE_NAME));
+        } else {
+            assertTrue(report.getLong(PetMaintenance.KEY_SKIPPED_TABLES) > 0);
+            assertTrue(!isAnalyzed(PetEntry.TABLE_NAME));
+        }
+        // Skipping a table is no reason to leave the rest of the run undone
+        assertTrue(report.getBoolean(PetMaintenance.KEY_COMPLETED));
+    }
+
+    private Bundle run(long lockBudgetMillis) {
+        return new PetMaintenance(mHelper, new PetDbMetrics(), lockBudgetMillis, RUN_BUDGET_MILLIS,
+                new AtomicBoolean()).run(RuntimeEnvironment.application);
+    }
+
+    private boolean supportsAnalysisLimit() {
+        Cursor cursor = mDatabase.rawQuery("PRAGMA analysis_limit", null);
+        try {
+            return cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private boolean isAnalyzed(String table) {
+        if (mDatabase.longForQuery("SELECT COUNT(*) FROM sqlite_master WHERE name = 'sqlite_stat1'", null) == 0) {
+            return false;
+        }
+        return mDatabase.longForQuery("SELECT COUNT(*) FROM sqlite_stat1 WHERE tbl = ?", new String[]{table}) > 0;
+    }
+}
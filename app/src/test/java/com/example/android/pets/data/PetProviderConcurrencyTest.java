@@ -0,0 +1,276 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetHistoryEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Readers and a writer hammering the {@link PetProvider} at the same time.
+ * <p>
+ * The stress test runs {@link #READERS} reader threads, set with the pets.stress.readers system
+ * property, against one writer, and logs the p50 and p99 latency of the reads.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetProviderConcurrencyTest {
+
+    private static final String LOG_TAG = PetProviderConcurrencyTest.class.getSimpleName();
+
+    private static final int READERS = Integer.getInteger("pets.stress.readers", 4);
+    private static final int READS_PER_READER = 50;
+    private static final int PETS = 200;
+    private static final int BREEDS = 7;
+    /**
+     * Processes writing at once, the app, the widget and the sync service
+     */
+    private static final int CONCURRENT_WRITERS = 3;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = PetTestUtils.startProvider();
+        mProvider.call(PetContract.METHOD_RESET_METRICS, null, null);
+    }
+
+    @Test
+    public void readersRunAlongsideOneWriter() throws Exception {
+        final ContentResolver resolver = PetTestUtils.resolver();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final List<long[]> readerLatencies = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for (int i = 0; i < PETS; i++) {
+                        Uri uri = resolver.insert(PetEntry.CONTENT_URI, PetTestUtils.pet(
+                                "Pet " + i, "Breed " + (i % BREEDS), PetEntry.GENDER_MALE, i));
+                        ContentValues heavier = new ContentValues();
+                        heavier.put(PetEntry.COLUMN_PET_WEIGHT, i + 1);
+                        assertEquals(1, resolver.update(uri, heavier, null, null));
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    stop.set(true);
+                }
+            }
+        });
+        threads.add(writer);
+        for (int r = 0; r < READERS; r++) {
+            final long[] latencies = new long[READS_PER_READER];
+            readerLatencies.add(latencies);
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        // At least the reads of the latencies, more while the writer runs
+                        for (int read = 0; read < READS_PER_READER || !stop.get(); read++) {
+                            long begin = System.nanoTime();
+                            Cursor cursor = resolver.query(PetEntry.CONTENT_URI,
+                                    PetEntry.SUMMARY_PROJECTION, null, null, null);
+                            try {
+                                assertTrue(cursor.getCount() <= PETS);
+                            } finally {
+                                cursor.close();
+                            }
+                            latencies[read % READS_PER_READER] = System.nanoTime() - begin;
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(String.valueOf(failure.get()), failure.get());
+        assertEquals(PETS, PetTestUtils.count(PetEntry.CONTENT_URI));
+        // An insert and an update per pet
+        assertEquals(2, PetTestUtils.count(PetHistoryEntry.buildHistoryUri(firstPetId())));
+
+        long[] all = new long[READERS * READS_PER_READER];
+        for (int r = 0; r < READERS; r++) {
+            System.arraycopy(readerLatencies.get(r), 0, all, r * READS_PER_READER, READS_PER_READER);
+        }
+        Arrays.sort(all);
+        Bundle queries = mProvider.call(PetContract.METHOD_GET_METRICS, null, null).getBundle("query");
+        Log.i(LOG_TAG, READERS + " readers against 1 writer: p50 " + all[all.length / 2] / 1000 + "us, p99 "
+                + all[all.length * 99 / 100] / 1000 + "us; provider p50 " + queries.getLong("p50_nanos") / 1000
+                + "us, p99 " + queries.getLong("p99_nanos") / 1000 + "us");
+        // Reads measure their execution, they never wait for the writer
+        assertEquals(0, queries.getLong("total_wait_nanos"));
+    }
+
+    @Test
+    public void readsDoNotWaitOnAnOpenWriteTransaction() throws Exception {
+        final ContentResolver resolver = PetTestUtils.resolver();
+        resolver.insert(PetEntry.CONTENT_URI, PetTestUtils.pet("Rex", "Beagle", PetEntry.GENDER_MALE, 10));
+        final CountDownLatch writing = new CountDownLatch(1);
+        final CountDownLatch readersDone = new CountDownLatch(READERS);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        // The writer holds the write lock of the database until every reader is done
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                PetDbHelper helper = new PetDbHelper(RuntimeEnvironment.application);
+                try {
+                    PetDatabase db = helper.getWritableDatabase();
+                    db.beginTransaction();
+                    try {
+                        ContentValues pet = new ContentValues();
+                        pet.put(PetEntry.COLUMN_PET_NAME, "Uncommitted");
+                        db.insertOrThrow(PetEntry.TABLE_NAME, null, pet);
+                        writing.countDown();
+                        readersDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                    } finally {
+                        // Rolled back
+                        db.endTransaction();
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                } finally {
+                    helper.close();
+                }
+            }
+        });
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < READERS; r++) {
+            readers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        writing.await();
+                        for (int read = 0; read < READS_PER_READER; read++) {
+                            // The committed pet only
+                            assertEquals(1, PetTestUtils.count(PetEntry.CONTENT_URI));
+                        }
+                        readersDone.countDown();
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+
+        assertTrue("Reads waited on the writer", readersDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        writer.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(String.valueOf(failure.get()), failure.get());
+    }
+
+    @Test
+    public void concurrentWritesAreAllKept() throws Exception {
+        final ContentResolver resolver = PetTestUtils.resolver();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < CONCURRENT_WRITERS; w++) {
+            final int writer = w;
+            writers.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < PETS / CONCURRENT_WRITERS; i++) {
+                            // New breeds from several writers at once go through the dictionary
+                            resolver.insert(PetEntry.CONTENT_URI, PetTestUtils.pet(
+                                    "Pet " + writer + "-" + i, "Breed " + (i % BREEDS), PetEntry.GENDER_MALE, i));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            }));
+        }
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        assertNull(String.valueOf(failure.get()), failure.get());
+        assertEquals(PETS / CONCURRENT_WRITERS * CONCURRENT_WRITERS, PetTestUtils.count(PetEntry.CONTENT_URI));
+        assertEquals(BREEDS, PetTestUtils.count(BreedEntry.buildSuggestionsUri("Breed")
+                .buildUpon().appendQueryParameter(BreedEntry.PARAM_LIMIT, "100").build()));
+    }
+
+    @Test
+    public void metricsTimeEveryWriteAndRead() {
+        for (int i = 0; i < PETS; i++) {
+            PetTestUtils.resolver().insert(PetEntry.CONTENT_URI, PetTestUtils.pet(
+                    "Pet " + i, null, PetEntry.GENDER_FEMALE, i));
+        }
+        PetTestUtils.count(PetEntry.CONTENT_URI);
+
+        Bundle metrics = mProvider.call(PetContract.METHOD_GET_METRICS, null, null);
+        Bundle inserts = metrics.getBundle("insert");
+        assertEquals(PETS, inserts.getLong("count"));
+        assertTrue(inserts.getLong("total_exec_nanos") > 0);
+        Bundle queries = metrics.getBundle("query");
+        assertEquals(1, queries.getLong("count"));
+        // Reads measure their execution, not a wait that is always about 0
+        assertEquals(0, queries.getLong("total_wait_nanos"));
+        assertTrue(queries.getLong("total_exec_nanos") > 0);
+    }
+
+    private static long firstPetId() {
+        Cursor cursor = PetTestUtils.resolver().query(PetEntry.CONTENT_URI, new String[]{PetEntry._ID},
+                null, null, PetEntry._ID);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
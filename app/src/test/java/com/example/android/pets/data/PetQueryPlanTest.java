@@ -0,0 +1,131 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetHistoryEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+import com.example.android.pets.data.PetContract.WeightRollupEntry;
+import com.example.android.pets.model.PetSchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The plans of every query shape of the app, over tables larger than the row threshold of the
+ * {@link PetQueryPlanGuard}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetQueryPlanTest {
+
+    private static final int PETS = 2000;
+    private static final int BREEDS = 10;
+    private static final long ROW_THRESHOLD = 1000;
+
+    private PetProvider mProvider;
+    private PetQueryPlanGuard mGuard;
+    private PetDbHelper mHelper;
+    private PetDatabase mDatabase;
+    private long mPetId;
+
+    @Before
+    public void setUp() {
+        mProvider = PetTestUtils.startProvider();
+        long shelter = insertShelter();
+        ContentValues[] pets = new ContentValues[PETS];
+        for (int i = 0; i < PETS; i++) {
+            pets[i] = PetTestUtils.pet("Pet " + i, "Breed " + i % BREEDS, PetEntry.GENDER_UNKNOWN, i % 50);
+            if (i % 2 == 0) {
+                pets[i].put(PetEntry.COLUMN_PET_SHELTER_ID, shelter);
+            }
+        }
+        assertEquals(PETS, PetTestUtils.resolver().bulkInsert(PetEntry.CONTENT_URI, pets));
+        mPetId = PETS / 2;
+
+        mGuard = new PetQueryPlanGuard(ROW_THRESHOLD, false);
+        mProvider.setQueryPlanGuard(mGuard);
+        mHelper = new PetDbHelper(RuntimeEnvironment.application);
+        mDatabase = mGuard.wrap(mHelper.getReadableDatabase());
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void providerQueriesUseIndices() {
+        // Catalog and its details, pets near me, editor and breed autocomplete
+        close(mProvider.query(PetEntry.CONTENT_URI, PetEntry.SUMMARY_PROJECTION, null, null, null));
+        close(mProvider.query(PetEntry.buildDetailsUri(new long[]{1, 2, 3}), null, null, null, null));
+        close(mProvider.query(PetEntry.buildNearUri(52.5, 13.4, PetEntry.DEFAULT_NEAR_LIMIT),
+                PetEntry.SUMMARY_PROJECTION, null, null, null));
+        close(mProvider.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, mPetId), PetSchema.PROJECTION,
+                null, null, null));
+        close(mProvider.query(BreedEntry.buildSuggestionsUri("Bre"), null, null, null, null));
+        // Default queries of the other URIs
+        close(mProvider.query(PetHistoryEntry.buildHistoryUri(mPetId), null, null, null, null));
+        close(mProvider.query(WeightRollupEntry.CONTENT_URI, null, null, null, null));
+        close(mProvider.query(ShelterEntry.CONTENT_URI, null, null, null, null));
+
+        assertEquals(Collections.emptyMap(), mGuard.getProblems());
+    }
+
+    @Test
+    public void duplicateCatalogAndHistoryQueriesUseIndices() {
+        ContentValues pet = PetTestUtils.pet("Pet 7", "Breed 7", PetEntry.GENDER_UNKNOWN, 7);
+        assertTrue(PetDuplicates.findDuplicate(mDatabase, PetDuplicates.hash(pet), pet) != -1);
+        close(PetCatalog.queryPets(mDatabase));
+        PetHistory.queryCompactable(mDatabase, System.currentTimeMillis(), 0);
+        long[] ids = PetHistory.queryIds(mDatabase, PetEntry._ID + " = ?", new String[]{String.valueOf(mPetId)});
+        // As the undo stack captures the pets through the provider's store
+        Cursor pets = SqlitePetStore.query(mDatabase, PetStore.COLUMNS, ids);
+        try {
+            assertEquals(1, pets.getCount());
+        } finally {
+            pets.close();
+        }
+
+        assertEquals(Collections.emptyMap(), mGuard.getProblems());
+    }
+
+    @Test
+    public void countsTheRowsOfAnAliasByItsTable() {
+        // A scan of the small breeds table is fine, one of the large pets table is not
+        close(mDatabase.rawQuery("SELECT b." + BreedEntry.COLUMN_BREED_NAME + " FROM " + BreedEntry.TABLE_NAME
+                + " b WHERE b." + BreedEntry.COLUMN_BREED_NAME + " || '' = ?", new String[]{"Breed 1"}));
+        assertEquals(Collections.emptyMap(), mGuard.getProblems());
+
+        close(mDatabase.rawQuery("SELECT p." + PetEntry._ID + " FROM " + PetEntry.TABLE_NAME + " AS p WHERE p."
+                + PetEntry.COLUMN_PET_WEIGHT + " + 0 = ?", new String[]{"7"}));
+        assertEquals(1, mGuard.getProblems().size());
+    }
+
+    private static long insertShelter() {
+        ContentValues shelter = new ContentValues();
+        shelter.put(ShelterEntry.COLUMN_SHELTER_NAME, "North");
+        shelter.put(ShelterEntry.COLUMN_LATITUDE, 52.5);
+        shelter.put(ShelterEntry.COLUMN_LONGITUDE, 13.4);
+        return ContentUris.parseId(PetTestUtils.resolver().insert(ShelterEntry.CONTENT_URI, shelter));
+    }
+
+    private static void close(Cursor cursor) {
+        assertTrue(cursor != null);
+        cursor.close();
+    }
+}
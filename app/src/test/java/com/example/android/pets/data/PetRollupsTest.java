@@ -0,0 +1,159 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetHistoryEntry;
+import com.example.android.pets.data.PetContract.WeightRollupEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The incremental weight rollups against a recomputation from the history.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetRollupsTest {
+
+    @Test
+    public void incrementalRollupsMatchTheRecomputation() {
+        PetProvider provider = PetTestUtils.startProvider();
+        List<Uri> pets = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            pets.add(PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                    PetTestUtils.pet("Pet " + i, i % 2 == 0 ? "Beagle" : null, PetEntry.GENDER_FEMALE, 10 + i)));
+        }
+        for (int i = 0; i < 10; i++) {
+            ContentValues heavier = new ContentValues();
+            heavier.put(PetEntry.COLUMN_PET_WEIGHT, 40 + i);
+            PetTestUtils.resolver().update(pets.get(i), heavier, null, null);
+        }
+        for (int i = 10; i < 15; i++) {
+            ContentValues renamed = new ContentValues();
+            renamed.put(PetEntry.COLUMN_PET_NAME, "Renamed " + i);
+            PetTestUtils.resolver().update(pets.get(i), renamed, null, null);
+        }
+        ContentValues sameWeight = new ContentValues();
+        sameWeight.put(PetEntry.COLUMN_PET_WEIGHT, 40);
+        PetTestUtils.resolver().update(pets.get(0), sameWeight, null, null);
+        PetTestUtils.resolver().delete(pets.get(19), null, null);
+        // Puts the deleted pet back, an insert in the history
+        provider.call(PetContract.METHOD_UNDO, null, null);
+        PetTestUtils.resolver().delete(pets.get(1), null, null);
+
+        List<String> daily = rollups(WeightRollupEntry.BUCKET_NAME_DAILY);
+        List<String> weekly = rollups(WeightRollupEntry.BUCKET_NAME_WEEKLY);
+        // 20 inserts, 10 weight changes and the undone delete, renames are no samples
+        assertEquals(31, sampleCount(WeightRollupEntry.BUCKET_NAME_DAILY));
+
+        provider.call(PetContract.METHOD_REBUILD_ROLLUPS, null, null);
+
+        assertEquals(daily, rollups(WeightRollupEntry.BUCKET_NAME_DAILY));
+        assertEquals(weekly, rollups(WeightRollupEntry.BUCKET_NAME_WEEKLY));
+    }
+
+    @Test
+    public void rebuildKeepsTheBucketsOfCompactedHistory() {
+        String name = "rollups-test.db";
+        PetDbHelper helper = new PetDbHelper(RuntimeEnvironment.application, name, "rollups-test-encrypted.db", false, null);
+        try {
+            PetDatabase database = helper.getWritableDatabase();
+            long now = System.currentTimeMillis();
+            long horizon = PetRollups.rebuildHorizon(now);
+            long compacted = now - PetHistory.RETENTION_FULL_MILLIS - PetRollups.WEEK_MILLIS;
+            // Samples that the compaction has already removed from the history
+            ContentValues folded = new ContentValues();
+            folded.put(WeightRollupEntry.COLUMN_BUCKET, WeightRollupEntry.BUCKET_DAILY);
+            folded.put(WeightRollupEntry.COLUMN_BREED, "Beagle");
+            folded.put(WeightRollupEntry.COLUMN_BUCKET_START, PetRollups.bucketStart(WeightRollupEntry.BUCKET_DAILY, compacted));
+            folded.put(WeightRollupEntry.COLUMN_SAMPLE_COUNT, 5);
+            folded.put(WeightRollupEntry.COLUMN_WEIGHT_SUM, 50);
+            folded.put(WeightRollupEntry.COLUMN_WEIGHT_MIN, 8);
+            folded.put(WeightRollupEntry.COLUMN_WEIGHT_MAX, 12);
+            database.insertOrThrow(WeightRollupEntry.TABLE_NAME, null, folded);
+            addHistory(database, compacted, 10);
+            addHistory(database, horizon, 11);
+            addHistory(database, horizon + 1, 11);
+            addHistory(database, horizon + 2, 14);
+
+            PetRollups.rebuild(database, horizon);
+
+            assertEquals(5, database.longForQuery("SELECT " + WeightRollupEntry.COLUMN_SAMPLE_COUNT + " FROM " +
+                    WeightRollupEntry.TABLE_NAME + " WHERE " + WeightRollupEntry.COLUMN_BUCKET_START + " < ?",
+                    new String[]{String.valueOf(horizon)}));
+            // The repeated weight is no sample
+            assertEquals(2, database.longForQuery("SELECT " + WeightRollupEntry.COLUMN_SAMPLE_COUNT + " FROM " +
+                    WeightRollupEntry.TABLE_NAME + " WHERE " + WeightRollupEntry.COLUMN_BUCKET + " = ? AND " +
+                    WeightRollupEntry.COLUMN_BUCKET_START + " = ?", new String[]{
+                    String.valueOf(WeightRollupEntry.BUCKET_DAILY), String.valueOf(horizon)}));
+        } finally {
+            helper.close();
+            RuntimeEnvironment.application.deleteDatabase(name);
+        }
+    }
+
+    private static void addHistory(PetDatabase database, long changedAt, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetHistoryEntry.COLUMN_PET_ID, 1);
+        values.put(PetHistoryEntry.COLUMN_PET_BREED, "Beagle");
+        values.put(PetHistoryEntry.COLUMN_PET_WEIGHT, weight);
+        values.put(PetHistoryEntry.COLUMN_CHANGED_AT, changedAt);
+        values.put(PetHistoryEntry.COLUMN_OPERATION, PetHistoryEntry.OPERATION_UPDATE);
+        database.insertOrThrow(PetHistoryEntry.TABLE_NAME, null, values);
+    }
+
+    /**
+     * @return Every rollup of the bucket, one string per row in a stable order
+     */
+    private static List<String> rollups(String bucket) {
+        Cursor cursor = PetTestUtils.resolver().query(rollupsUri(bucket), new String[]{
+                        WeightRollupEntry.COLUMN_BREED, WeightRollupEntry.COLUMN_BUCKET_START,
+                        WeightRollupEntry.COLUMN_SAMPLE_COUNT, WeightRollupEntry.COLUMN_WEIGHT_SUM,
+                        WeightRollupEntry.COLUMN_WEIGHT_MIN, WeightRollupEntry.COLUMN_WEIGHT_MAX}, null, null,
+                WeightRollupEntry.COLUMN_BREED + ", " + WeightRollupEntry.COLUMN_BUCKET_START);
+        try {
+            List<String> rows = new ArrayList<>();
+            while (cursor.moveToNext()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 0; i < cursor.getColumnCount(); i++) {
+                    row.append(cursor.getString(i)).append('|');
+                }
+                rows.add(row.toString());
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static long sampleCount(String bucket) {
+        Cursor cursor = PetTestUtils.resolver().query(rollupsUri(bucket),
+                new String[]{WeightRollupEntry.COLUMN_SAMPLE_COUNT}, null, null, null);
+        try {
+            long count = 0;
+            while (cursor.moveToNext()) {
+                count += cursor.getLong(0);
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static Uri rollupsUri(String bucket) {
+        return WeightRollupEntry.CONTENT_URI.buildUpon()
+                .appendQueryParameter(WeightRollupEntry.PARAM_BUCKET, bucket).build();
+    }
+}
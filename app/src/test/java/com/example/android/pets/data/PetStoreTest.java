@@ -0,0 +1,270 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The {@link PetStore} contract, run against the {@link SqlitePetStore} of the provider and the
+ * {@link MemoryPetStore}.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetStoreTest {
+
+    private static final String SQLITE = "sqlite";
+    private static final String MEMORY = "memory";
+
+    private static final String SCRATCH_NAME = "store-test.db";
+
+    private final String mStoreName;
+    private PetDbHelper mHelper;
+    private PetStore mStore;
+
+    public PetStoreTest(String storeName) {
+        mStoreName = storeName;
+    }
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0}")
+    public static Collection<Object[]> stores() {
+        return Arrays.asList(new Object[]{SQLITE}, new Object[]{MEMORY});
+    }
+
+    @Before
+    public void setUp() {
+        if (SQLITE.equals(mStoreName)) {
+            mHelper = new PetDbHelper(RuntimeEnvironment.application, SCRATCH_NAME, "store-test-encrypted.db",
+                    false, null);
+            mStore = new SqlitePetStore(mHelper);
+        } else {
+            mStore = new MemoryPetStore();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        if (mHelper != null) {
+            mHelper.close();
+            RuntimeEnvironment.application.deleteDatabase(SCRATCH_NAME);
+        }
+    }
+
+    @Test
+    public void insertsWithAscendingIds() {
+        assertEquals(0, mStore.count());
+        long rex = mStore.insert(pet("Rex", 7L, PetEntry.GENDER_MALE, 12));
+        long tom = mStore.insert(pet("Tom", null, PetEntry.GENDER_UNKNOWN, 3));
+        assertTrue(rex > 0 && tom > rex);
+        assertEquals(2, mStore.count());
+    }
+
+    @Test
+    public void rejectsUnknownColumns() {
+        ContentValues ghost = pet("Ghost", null, PetEntry.GENDER_FEMALE, 1);
+        ghost.put("no_such_column", 1);
+        assertEquals(-1, mStore.insert(ghost));
+    }
+
+    @Test
+    public void readsByAscendingIdWithTheValues() {
+        long rex = mStore.insert(pet("Rex", 7L, PetEntry.GENDER_MALE, 12));
+        long tom = mStore.insert(pet("Tom", null, PetEntry.GENDER_UNKNOWN, 3));
+
+        Cursor cursor = mStore.query(null, new long[]{tom, rex});
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(rex, cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID)));
+            assertEquals("Rex", cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME)));
+            assertEquals(7, cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED_ID)));
+            assertEquals(12, cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT)));
+            cursor.moveToNext();
+            assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED_ID)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void readsEveryColumnInTheOrderAsked() {
+        ContentValues values = pet("Rex", 7L, PetEntry.GENDER_MALE, 12);
+        values.put(PetEntry.COLUMN_PET_CONTENT_HASH, 42L);
+        values.put(PetEntry.COLUMN_PET_SHELTER_ID, 3L);
+        long rex = mStore.insert(values);
+        String[] reversed = new String[PetStore.COLUMNS.length];
+        for (int i = 0; i < reversed.length; i++) {
+            reversed[i] = PetStore.COLUMNS[reversed.length - 1 - i];
+        }
+
+        Cursor cursor = mStore.query(reversed, new long[]{rex});
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(3, cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_SHELTER_ID)));
+            assertEquals(42, cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_CONTENT_HASH)));
+            assertEquals(12, cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT)));
+            assertEquals(PetEntry.GENDER_MALE, cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER)));
+            assertEquals(7, cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED_ID)));
+            assertEquals("Rex", cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME)));
+            assertEquals(rex, cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID)));
+            assertEquals(PetEntry.COLUMN_PET_SHELTER_ID, cursor.getColumnName(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void fillsTheDefaultsOfMissingValues() {
+        ContentValues name = new ContentValues();
+        name.put(PetEntry.COLUMN_PET_NAME, "Tom");
+        long tom = mStore.insert(name);
+
+        Cursor cursor = mStore.query(null, new long[]{tom});
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(PetEntry.GENDER_UNKNOWN, cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER)));
+            assertEquals(0, cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT)));
+            assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED_ID)));
+            assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_CONTENT_HASH)));
+            assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_SHELTER_ID)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void keepsNullAndNegativeValuesApart() {
+        ContentValues nulls = pet("Tom", null, PetEntry.GENDER_UNKNOWN, 3);
+        nulls.putNull(PetEntry.COLUMN_PET_CONTENT_HASH);
+        nulls.putNull(PetEntry.COLUMN_PET_SHELTER_ID);
+        long tom = mStore.insert(nulls);
+        // -1 is an id like any other to the store, and 0 a hash
+        ContentValues negatives = pet("Rex", -1L, PetEntry.GENDER_MALE, 12);
+        negatives.put(PetEntry.COLUMN_PET_CONTENT_HASH, 0L);
+        negatives.put(PetEntry.COLUMN_PET_SHELTER_ID, -1L);
+        long rex = mStore.insert(negatives);
+
+        Cursor cursor = mStore.query(new String[]{PetEntry.COLUMN_PET_BREED_ID, PetEntry.COLUMN_PET_CONTENT_HASH,
+                PetEntry.COLUMN_PET_SHELTER_ID}, new long[]{tom, rex});
+        try {
+            cursor.moveToFirst();
+            assertTrue(cursor.isNull(0));
+            assertTrue(cursor.isNull(1));
+            assertTrue(cursor.isNull(2));
+            cursor.moveToNext();
+            assertFalse(cursor.isNull(0) || cursor.isNull(1) || cursor.isNull(2));
+            assertEquals(-1, cursor.getLong(0));
+            assertEquals(0, cursor.getLong(1));
+            assertEquals(-1, cursor.getLong(2));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void updatesValuesToAndFromNull() {
+        long rex = mStore.insert(pet("Rex", 7L, PetEntry.GENDER_MALE, 12));
+        ContentValues nulls = new ContentValues();
+        nulls.putNull(PetEntry.COLUMN_PET_BREED_ID);
+        nulls.put(PetEntry.COLUMN_PET_SHELTER_ID, 0L);
+        assertEquals(1, mStore.update(new long[]{rex}, nulls));
+
+        String[] columns = {PetEntry.COLUMN_PET_BREED_ID, PetEntry.COLUMN_PET_SHELTER_ID};
+        Cursor cursor = mStore.query(columns, new long[]{rex});
+        try {
+            cursor.moveToFirst();
+            assertTrue(cursor.isNull(0));
+            assertFalse(cursor.isNull(1));
+            assertEquals(0, cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void updatesAndDeletesExistingIdsOnly() {
+        long rex = mStore.insert(pet("Rex", 7L, PetEntry.GENDER_MALE, 12));
+        long tom = mStore.insert(pet("Tom", null, PetEntry.GENDER_UNKNOWN, 3));
+
+        ContentValues heavier = new ContentValues();
+        heavier.put(PetEntry.COLUMN_PET_WEIGHT, 13);
+        assertEquals(1, mStore.update(new long[]{rex, Long.MAX_VALUE}, heavier));
+        assertEquals(13, weightOf(rex));
+        assertEquals(3, weightOf(tom));
+
+        assertEquals(1, mStore.delete(new long[]{rex, Long.MAX_VALUE}));
+        assertEquals(1, mStore.count());
+        assertEquals(-1, weightOf(rex));
+    }
+
+    @Test
+    public void restoresADeletedPetWithItsIdAndNeverReusesIds() {
+        ContentValues rexValues = pet("Rex", 7L, PetEntry.GENDER_MALE, 12);
+        long rex = mStore.insert(rexValues);
+        long tom = mStore.insert(pet("Tom", null, PetEntry.GENDER_UNKNOWN, 3));
+        mStore.delete(new long[]{rex});
+
+        ContentValues restored = new ContentValues(rexValues);
+        restored.put(PetEntry._ID, rex);
+        assertEquals(rex, mStore.insert(restored));
+        assertEquals(-1, mStore.insert(restored));
+        mStore.delete(new long[]{tom});
+        assertTrue(mStore.insert(pet("Kit", null, PetEntry.GENDER_FEMALE, 2)) > tom);
+    }
+
+    @Test
+    public void readsMoreIdsThanOneStatementTakes() {
+        long[] ids = new long[2000];
+        for (int i = 0; i < ids.length; i++) {
+            ids[ids.length - 1 - i] = mStore.insert(pet("Pet " + i, null, PetEntry.GENDER_UNKNOWN, i % 50));
+        }
+        Cursor cursor = mStore.query(new String[]{PetEntry._ID}, ids);
+        try {
+            assertEquals(ids.length, cursor.getCount());
+            long previous = 0;
+            while (cursor.moveToNext()) {
+                assertTrue(cursor.getLong(0) > previous);
+                previous = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues pet(String name, Long breedId, int gender, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED_ID, breedId);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+
+    /**
+     * @return The weight of the pet, or -1 if there is none with the id
+     */
+    private int weightOf(long id) {
+        Cursor cursor = mStore.query(new String[]{PetEntry.COLUMN_PET_WEIGHT}, new long[]{id});
+        try {
+            return cursor.moveToFirst() ? cursor.getInt(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
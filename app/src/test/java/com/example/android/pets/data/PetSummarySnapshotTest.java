@@ -0,0 +1,139 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.support.v4.util.AtomicFile;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The {@link PetSummarySnapshot} the provider writes after its writes, and the files it refuses
+ * to read.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetSummarySnapshotTest {
+
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private Context mContext;
+    private AtomicFile mFile;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        mFile = new AtomicFile(new File(mContext.getFilesDir(), PetSummarySnapshot.FILE_NAME));
+        mFile.delete();
+    }
+
+    @Test
+    public void countsThePetsAndNamesTheNewestAfterEachCommit() throws InterruptedException {
+        PetTestUtils.startProvider();
+        for (int i = 0; i < 7; i++) {
+            PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                    PetTestUtils.pet("Pet " + i, "Beagle", PetEntry.GENDER_MALE, i));
+        }
+        PetSummarySnapshot snapshot = awaitSnapshot(7, "Pet 6");
+        assertEquals(Arrays.asList("Pet 6", "Pet 5", "Pet 4", "Pet 3", "Pet 2"), snapshot.getRecentNames());
+
+        Uri kit = PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                PetTestUtils.pet("Kit", null, PetEntry.GENDER_FEMALE, 2));
+        awaitSnapshot(8, "Kit");
+
+        ContentValues renamed = new ContentValues();
+        renamed.put(PetEntry.COLUMN_PET_NAME, "Kat");
+        PetTestUtils.resolver().update(kit, renamed, null, null);
+        PetTestUtils.resolver().delete(PetEntry.CONTENT_URI, PetEntry.COLUMN_PET_NAME + " = ?", new String[]{"Pet 6"});
+        snapshot = awaitSnapshot(7, "Kat");
+        assertEquals(Arrays.asList("Kat", "Pet 5", "Pet 4", "Pet 3", "Pet 2"), snapshot.getRecentNames());
+    }
+
+    @Test
+    public void leavesTheNamesOutOfTheSnapshotOfAnEncryptedDatabase() throws IOException {
+        // SQLCipher does not run on the JVM, the provider writes the snapshot of an encrypted
+        // database without names
+        String name = "snapshot-test.db";
+        PetDbHelper helper = new PetDbHelper(mContext, name, "snapshot-test-encrypted.db", false, null);
+        try {
+            PetDatabase db = helper.getWritableDatabase();
+            ContentValues pet = new ContentValues();
+            pet.put(PetEntry.COLUMN_PET_NAME, "Rex");
+            db.insertOrThrow(PetEntry.TABLE_NAME, null, pet);
+            db.insertOrThrow(PetEntry.TABLE_NAME, null, pet);
+
+            PetSummarySnapshot.write(mContext, db, false);
+        } finally {
+            helper.close();
+            mContext.deleteDatabase(name);
+        }
+        PetSummarySnapshot snapshot = PetSummarySnapshot.read(mContext);
+        assertEquals(2, snapshot.getPetCount());
+        assertTrue(snapshot.getRecentNames().isEmpty());
+    }
+
+    @Test
+    public void readsNothingWithoutAFileOrFromAnotherVersion() throws IOException {
+        assertNull(PetSummarySnapshot.read(mContext));
+
+        writeVersion(PetSummarySnapshot.FORMAT_VERSION - 1);
+        assertNull(PetSummarySnapshot.read(mContext));
+        writeVersion(PetSummarySnapshot.FORMAT_VERSION + 1);
+        assertNull(PetSummarySnapshot.read(mContext));
+    }
+
+    /**
+     * @return The snapshot once it reflects the last write, the provider writes it in the background
+     */
+    private PetSummarySnapshot awaitSnapshot(int petCount, String newestName) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        PetSummarySnapshot snapshot = PetSummarySnapshot.read(mContext);
+        while (!reflects(snapshot, petCount, newestName) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+            snapshot = PetSummarySnapshot.read(mContext);
+        }
+        assertNotNull(snapshot);
+        assertEquals(petCount, snapshot.getPetCount());
+        assertEquals(newestName, snapshot.getRecentNames().get(0));
+        return snapshot;
+    }
+
+    private static boolean reflects(PetSummarySnapshot snapshot, int petCount, String newestName) {
+        return snapshot != null && snapshot.getPetCount() == petCount
+                && !snapshot.getRecentNames().isEmpty() && snapshot.getRecentNames().get(0).equals(newestName);
+    }
+
+    /**
+     * Writes a snapshot of one pet in the format of the given version
+     */
+    private void writeVersion(int version) throws IOException {
+        FileOutputStream stream = mFile.startWrite();
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(version);
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(1);
+        out.writeInt(1);
+        out.writeUTF("Rex");
+        out.flush();
+        mFile.finishWrite(stream);
+    }
+}
@@ -0,0 +1,49 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+
+/**
+ * Shared setup of the tests that go through the {@link PetProvider}.
+ */
+final class PetTestUtils {
+
+    private PetTestUtils() {
+    }
+
+    /**
+     * @return A provider over a new, empty database, registered with the content resolver
+     */
+    static PetProvider startProvider() {
+        return Robolectric.buildContentProvider(PetProvider.class).create(PetContract.CONTENT_AUTHORITY).get();
+    }
+
+    static ContentResolver resolver() {
+        return RuntimeEnvironment.application.getContentResolver();
+    }
+
+    static ContentValues pet(String name, String breed, int gender, int weight) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, breed);
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        return values;
+    }
+
+    static int count(Uri uri) {
+        Cursor cursor = resolver().query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
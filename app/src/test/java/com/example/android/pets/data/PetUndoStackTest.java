@@ -0,0 +1,151 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.model.Pet;
+import com.example.android.pets.model.PetSchema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Undo and redo through the {@link PetProvider} restore the rows as they were, and so does the
+ * {@link PetUndoStack} through any {@link PetStore}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetUndoStackTest {
+
+    private PetProvider mProvider;
+    private PetDbHelper mHelper;
+
+    @Before
+    public void setUp() {
+        mProvider = PetTestUtils.startProvider();
+        mHelper = new PetDbHelper(RuntimeEnvironment.application);
+    }
+
+    @After
+    public void tearDown() {
+        mHelper.close();
+    }
+
+    @Test
+    public void redoesAnInsertWithTheValuesItWasInsertedWith() {
+        ContentValues values = PetTestUtils.pet("Rex", "Beagle", PetEntry.GENDER_MALE, 10);
+        Uri pet = PetTestUtils.resolver().insert(PetEntry.CONTENT_URI, values);
+        Pet inserted = read(pet);
+
+        mProvider.call(PetContract.METHOD_UNDO, null, null);
+        assertEquals(0, PetTestUtils.count(PetEntry.CONTENT_URI));
+        mProvider.call(PetContract.METHOD_REDO, null, null);
+        assertEquals(inserted, read(pet));
+        assertEquals(PetDuplicates.hash(PetSchema.withDefaults(values)), contentHash(pet));
+    }
+
+    @Test
+    public void restoresANullContentHash() {
+        Uri pet = PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                PetTestUtils.pet("Rex", "Beagle", PetEntry.GENDER_MALE, 10));
+        // As the rows written before the hash column was, until the duplicates job fills them in
+        ContentValues noHash = new ContentValues();
+        noHash.putNull(PetEntry.COLUMN_PET_CONTENT_HASH);
+        mHelper.getWritableDatabase().update(PetEntry.TABLE_NAME, noHash, PetEntry._ID + " = ?",
+                new String[]{pet.getLastPathSegment()});
+
+        PetTestUtils.resolver().delete(pet, null, null);
+        mProvider.call(PetContract.METHOD_UNDO, null, null);
+
+        assertTrue(isContentHashNull(pet));
+    }
+
+    @Test
+    public void undoesAndRedoesTheRowsOfAMemoryStore() {
+        PetStore store = new MemoryPetStore();
+        ContentValues rex = new ContentValues();
+        rex.put(PetEntry.COLUMN_PET_NAME, "Rex");
+        rex.put(PetEntry.COLUMN_PET_BREED_ID, 7L);
+        rex.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
+        rex.put(PetEntry.COLUMN_PET_WEIGHT, 10);
+        rex.putNull(PetEntry.COLUMN_PET_CONTENT_HASH);
+        // Not a NULL shelter to the store
+        rex.put(PetEntry.COLUMN_PET_SHELTER_ID, -1L);
+        long[] ids = {store.insert(rex)};
+        PetUndoStack stack = new PetUndoStack();
+        stack.record(PetUndoStack.capture(store, ids), PetUndoStack.Rows.EMPTY);
+        store.delete(ids);
+        stack.commit();
+
+        replay(stack, store, false);
+        assertEquals(1, store.count());
+        Cursor cursor = store.query(null, ids);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals("Rex", cursor.getString(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME)));
+            assertEquals(7, cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED_ID)));
+            assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_CONTENT_HASH)));
+            assertEquals(-1, cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_SHELTER_ID)));
+        } finally {
+            cursor.close();
+        }
+        replay(stack, store, true);
+        assertEquals(0, store.count());
+    }
+
+    /**
+     * Undoes, or redoes, the top step of the stack in a transaction, as the provider does
+     */
+    private void replay(PetUndoStack stack, PetStore store, boolean redo) {
+        PetDatabase db = mHelper.getWritableDatabase();
+        BreedDictionary breeds = BreedDictionary.getInstance();
+        db.beginTransaction();
+        try {
+            if (redo) {
+                PetUndoStack.redo(db, store, breeds, stack.peekRedo(), System.currentTimeMillis());
+                stack.recordRedo();
+            } else {
+                PetUndoStack.undo(db, store, breeds, stack.peekUndo(), System.currentTimeMillis());
+                stack.recordUndo();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        stack.commit();
+        // The breed of the scratch pet is not one of the database
+        breeds.rollback();
+    }
+
+    private static Pet read(Uri pet) {
+        Cursor cursor = PetTestUtils.resolver().query(pet, PetSchema.PROJECTION, null, null, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return PetSchema.fromCursor(cursor);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long contentHash(Uri pet) {
+        return mHelper.getReadableDatabase().longForQuery("SELECT " + PetEntry.COLUMN_PET_CONTENT_HASH + " FROM "
+                + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + " = ?", new String[]{pet.getLastPathSegment()});
+    }
+
+    private boolean isContentHashNull(Uri pet) {
+        return mHelper.getReadableDatabase().longForQuery("SELECT " + PetEntry.COLUMN_PET_CONTENT_HASH
+                + " IS NULL FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + " = ?",
+                new String[]{pet.getLastPathSegment()}) == 1;
+    }
+}
@@ -0,0 +1,102 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * The change notifications of the list of pets near a location, which is not below the URI of a
+ * single pet.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetsNearNotificationTest {
+
+    private PetProvider mProvider;
+    private CountingObserver mNearObserver;
+
+    @Before
+    public void setUp() {
+        mProvider = PetTestUtils.startProvider();
+        mNearObserver = new CountingObserver();
+        PetTestUtils.resolver().registerContentObserver(PetEntry.NEAR_URI, false, mNearObserver);
+    }
+
+    @After
+    public void tearDown() {
+        PetTestUtils.resolver().unregisterContentObserver(mNearObserver);
+    }
+
+    @Test
+    public void notifiesWhenAPetMovesToAShelter() {
+        long shelter = insertShelter("North");
+        Uri pet = PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                PetTestUtils.pet("Rex", "Beagle", PetEntry.GENDER_MALE, 10));
+        assertEquals(0, mNearObserver.mChanges);
+
+        update(pet, shelter);
+        assertEquals(1, mNearObserver.mChanges);
+        // Moved out of the shelter
+        update(pet, null);
+        assertEquals(2, mNearObserver.mChanges);
+        // Undone, back at the shelter
+        mProvider.call(PetContract.METHOD_UNDO, null, null);
+        assertEquals(3, mNearObserver.mChanges);
+
+        PetTestUtils.resolver().delete(pet, null, null);
+        assertEquals(4, mNearObserver.mChanges);
+    }
+
+    @Test
+    public void doesNotNotifyForPetsWithoutAShelter() {
+        Uri pet = PetTestUtils.resolver().insert(PetEntry.CONTENT_URI,
+                PetTestUtils.pet("Rex", "Beagle", PetEntry.GENDER_MALE, 10));
+        ContentValues heavier = new ContentValues();
+        heavier.put(PetEntry.COLUMN_PET_WEIGHT, 11);
+        PetTestUtils.resolver().update(pet, heavier, null, null);
+        PetTestUtils.resolver().delete(pet, null, null);
+        assertEquals(0, mNearObserver.mChanges);
+    }
+
+    private static long insertShelter(String name) {
+        ContentValues shelter = new ContentValues();
+        shelter.put(ShelterEntry.COLUMN_SHELTER_NAME, name);
+        shelter.put(ShelterEntry.COLUMN_LATITUDE, 52.5);
+        shelter.put(ShelterEntry.COLUMN_LONGITUDE, 13.4);
+        return ContentUris.parseId(PetTestUtils.resolver().insert(ShelterEntry.CONTENT_URI, shelter));
+    }
+
+    private static void update(Uri pet, Long shelter) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_SHELTER_ID, shelter);
+        PetTestUtils.resolver().update(pet, values, null, null);
+    }
+
+    private static final class CountingObserver extends ContentObserver {
+
+        int mChanges;
+
+        CountingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges++;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.android.pets.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.ShelterEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * The parameters of the list of pets near a location, which come from other apps as text.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetsNearQueryTest {
+
+    @Before
+    public void setUp() {
+        PetTestUtils.startProvider();
+        ContentValues shelter = new ContentValues();
+        shelter.put(ShelterEntry.COLUMN_SHELTER_NAME, "North");
+        shelter.put(ShelterEntry.COLUMN_LATITUDE, 52.5);
+        shelter.put(ShelterEntry.COLUMN_LONGITUDE, 13.4);
+        long shelterId = ContentUris.parseId(PetTestUtils.resolver().insert(ShelterEntry.CONTENT_URI, shelter));
+        ContentValues pet = PetTestUtils.pet("Rex", "Beagle", PetEntry.GENDER_MALE, 10);
+        pet.put(PetEntry.COLUMN_PET_SHELTER_ID, shelterId);
+        PetTestUtils.resolver().insert(PetEntry.CONTENT_URI, pet);
+    }
+
+    @Test
+    public void findsThePetsOfAShelterInRange() {
+        assertEquals(1, PetTestUtils.count(PetEntry.buildNearUri(52.5, 13.4, 10)));
+        assertEquals(1, PetTestUtils.count(near("52.5", "13.4", "10", "5")));
+    }
+
+    @Test
+    public void rejectsParametersThatAreNotNumbers() {
+        assertRejected(near("north", "13.4", null, null));
+        assertRejected(near("52.5", "", null, null));
+        assertRejected(near("52.5", "13.4", "ten", null));
+        assertRejected(near("52.5", "13.4", null, "far"));
+    }
+
+    @Test
+    public void rejectsLocationsOffTheGlobe() {
+        assertRejected(near("NaN", "13.4", null, null));
+        assertRejected(near("52.5", "NaN", null, null));
+        assertRejected(near("90.5", "13.4", null, null));
+        assertRejected(near("-91", "13.4", null, null));
+        assertRejected(near("52.5", "180.5", null, null));
+        assertRejected(near("52.5", "-Infinity", null, null));
+    }
+
+    @Test
+    public void rejectsARadiusThatIsNotAPositiveDistance() {
+        assertRejected(near("52.5", "13.4", null, "0"));
+        assertRejected(near("52.5", "13.4", null, "-5"));
+        assertRejected(near("52.5", "13.4", null, "NaN"));
+        assertRejected(near("52.5", "13.4", null, "Infinity"));
+    }
+
+    private static Uri near(String latitude, String longitude, String limit, String radiusKm) {
+        Uri.Builder builder = PetEntry.NEAR_URI.buildUpon()
+                .appendQueryParameter(PetEntry.PARAM_LATITUDE, latitude)
+                .appendQueryParameter(PetEntry.PARAM_LONGITUDE, longitude);
+        if (limit != null) {
+            builder.appendQueryParameter(PetEntry.PARAM_LIMIT, limit);
+        }
+        if (radiusKm != null) {
+            builder.appendQueryParameter(PetEntry.PARAM_RADIUS_KM, radiusKm);
+        }
+        return builder.build();
+    }
+
+    private static void assertRejected(Uri uri) {
+        try {
+            Cursor cursor = PetTestUtils.resolver().query(uri, null, null, null, null);
+            if (cursor != null) {
+                cursor.close();
+            }
+            fail("Queried " + uri);
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.SystemClock;
+
+import com.example.android.pets.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The rows the {@link PrefetchingCursor} reads across its windows, scrolling and jumping through a
+ * 100k-row catalog. The frame times of the scroll are measured on a device, over a real pets table,
+ * by PrefetchingCursorBenchmarkTest.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PrefetchingCursorTest {
+
+    private static final int ROWS = 100000;
+    /**
+     * A fling, about 25k rows a second
+     */
+    private static final int ROWS_PER_FRAME = 400;
+    private static final long FRAME_MILLIS = 16;
+
+    @Test
+    public void flingReadsEveryRow() {
+        Cursor cursor = new PrefetchingCursor(catalog(ROWS));
+        try {
+            for (int position = 0; position < ROWS; position++) {
+                assertTrue(cursor.moveToPosition(position));
+                checkRow(cursor, position);
+                if (position % ROWS_PER_FRAME == ROWS_PER_FRAME - 1) {
+                    // Robolectric's clock only moves on SystemClock.sleep, the scroll speed and
+                    // so the window size are measured on it
+                    SystemClock.sleep(FRAME_MILLIS);
+                }
+            }
+            assertFalse(cursor.moveToNext());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void readsEveryRowBackwardsAndAfterJumps() {
+        Cursor cursor = new PrefetchingCursor(catalog(ROWS));
+        try {
+            for (int position = ROWS - 1; position >= ROWS - 10000; position--) {
+                assertTrue(cursor.moveToPosition(position));
+                checkRow(cursor, position);
+            }
+            int[] jumps = {0, 99999, 50000, 50001, 49999, 12345, 77777, 1};
+            for (int position : jumps) {
+                assertTrue(cursor.moveToPosition(position));
+                checkRow(cursor, position);
+            }
+            assertFalse(cursor.moveToPosition(ROWS));
+            assertTrue(cursor.isAfterLast());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return Rows like those of the catalog, every tenth without a breed
+     */
+    private static Cursor catalog(int rows) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "name", "breed", "weight"}, rows);
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{i, "Pet " + i, i % 10 == 0 ? null : "Breed " + i % 50, i % 40});
+        }
+        return cursor;
+    }
+
+    private static void checkRow(Cursor cursor, int position) {
+        assertEquals(position, cursor.getLong(0));
+        assertEquals("Pet " + position, cursor.getString(1));
+        assertEquals(position % 10 == 0, cursor.isNull(2));
+        assertEquals(position % 40, cursor.getInt(3));
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.android.pets.model;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+
+import com.example.android.pets.BuildConfig;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * The schema generated from the annotations of {@link Pet}.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class PetSchemaTest {
+
+    @Test
+    public void insertTakesTheColumnDefaults() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Rex");
+        values.putNull(PetEntry.COLUMN_PET_WEIGHT);
+
+        ContentValues withDefaults = PetSchema.withDefaults(values);
+        PetSchema.validate(withDefaults, true);
+
+        assertEquals(PetEntry.GENDER_UNKNOWN, (int) withDefaults.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+        assertEquals(0, (int) withDefaults.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+        // The values of the caller are left as they are
+        assertFalse(values.containsKey(PetEntry.COLUMN_PET_GENDER));
+    }
+
+    @Test
+    public void updateCannotClearAColumnWithADefault() {
+        ContentValues values = new ContentValues();
+        values.putNull(PetEntry.COLUMN_PET_GENDER);
+        try {
+            PetSchema.validate(values, false);
+            fail("A gender can not be set to null");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void readsTheShelterIdOrNull() {
+        MatrixCursor cursor = new MatrixCursor(PetSchema.PROJECTION);
+        cursor.addRow(new Object[]{1, "Rex", "Beagle", PetEntry.GENDER_MALE, 10, 7});
+        cursor.addRow(new Object[]{2, "Tom", null, PetEntry.GENDER_UNKNOWN, 0, null});
+
+        cursor.moveToFirst();
+        assertEquals(new Pet(1, "Rex", "Beagle", PetEntry.GENDER_MALE, 10, 7L), PetSchema.fromCursor(cursor));
+        cursor.moveToNext();
+        Pet tom = PetSchema.fromCursor(cursor);
+        assertNull(tom.getShelterId());
+        assertNull(tom.getBreed());
+    }
+
+    @Test
+    public void summaryIndicesMatchTheSummaryProjection() {
+        assertEquals(Arrays.asList(PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED_ID),
+                Arrays.asList(PetEntry.SUMMARY_PROJECTION));
+        assertEquals(PetSchema.SUMMARY_INDEX_ID, Arrays.asList(PetSchema.SUMMARY_PROJECTION).indexOf(PetEntry._ID));
+        assertEquals(PetSchema.SUMMARY_INDEX_NAME,
+                Arrays.asList(PetSchema.SUMMARY_PROJECTION).indexOf(PetEntry.COLUMN_PET_NAME));
+        assertEquals(PetSchema.SUMMARY_INDEX_BREED_ID,
+                Arrays.asList(PetSchema.SUMMARY_PROJECTION).indexOf(PetEntry.COLUMN_PET_BREED_ID));
+    }
+}
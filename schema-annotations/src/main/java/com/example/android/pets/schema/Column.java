@@ -0,0 +1,32 @@
+package com.example.android.pets.schema;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A column of a {@link Table} row type.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Column {
+
+    /**
+     * Name of the column the row is read from, and the key of the value in the content values
+     * that are validated
+     */
+    String name();
+
+    /**
+     * Type and constraints of the stored column in the table definition, e.g.
+     * {@code "INTEGER NOT NULL DEFAULT 0"}
+     */
+    String definition();
+
+    /**
+     * Name of the stored column, when it differs from the column the row is read from. For
+     * example a value that is stored as a reference and read joined back in through a view.
+     */
+    String storedName() default "";
+}
@@ -0,0 +1,17 @@
+package com.example.android.pets.schema;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Value of the integer column when an insert leaves it out. It is added to the table definition,
+ * and filled in by the generated {@code withDefaults}; the column can not be set to null.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Default {
+
+    long value();
+}
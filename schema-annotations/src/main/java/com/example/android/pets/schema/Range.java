@@ -0,0 +1,18 @@
+package com.example.android.pets.schema;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * A non null value of the numeric column must be between the given bounds, inclusive.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.FIELD)
+public @interface Range {
+
+    double min();
+
+    double max();
+}
@@ -0,0 +1,32 @@
+package com.example.android.pets.schema;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a row type whose table definition, cursor mapper and validator are generated by the
+ * schema compiler, into a class named after the row type with a {@code Schema} suffix.
+ * <p>
+ * Every field annotated with {@link Column} is a column, in declaration order. The row type needs
+ * a constructor taking the columns in that order.
+ */
+@Retention(RetentionPolicy.SOURCE)
+@Target(ElementType.TYPE)
+public @interface Table {
+
+    String name();
+
+    /**
+     * Columns of the table that the row type does not carry, as {@code "name TYPE constraints"}.
+     * They are added to the end of the table definition.
+     */
+    String[] hiddenColumns() default {};
+
+    /**
+     * Names of the columns, read or stored, that lists query instead of the whole row. A
+     * {@code SUMMARY_PROJECTION} and its SUMMARY_INDEX_* positions are generated from them.
+     */
+    String[] summary() default {};
+}
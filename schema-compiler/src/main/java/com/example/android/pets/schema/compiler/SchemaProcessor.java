@@ -0,0 +1,476 @@
+package com.example.android.pets.schema.compiler;
+
+import com.example.android.pets.schema.Column;
+import com.example.android.pets.schema.Default;
+import com.example.android.pets.schema.Min;
+import com.example.android.pets.schema.OneOf;
+import com.example.android.pets.schema.Range;
+import com.example.android.pets.schema.Required;
+import com.example.android.pets.schema.Table;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates the schema class of every {@link Table} row type.
+ * <p>
+ * The schema class holds the table definition, the projection the row is read with and the
+ * position of each column in it, the summary projection of lists, a mapper from a cursor row to
+ * the row type, and the defaults and a validator of content values. The mapper reads the columns by their position in the projection, so nothing
+ * is looked up by name or by reflection at runtime.
+ */
+public class SchemaProcessor extends AbstractProcessor {
+
+    private static final String SCHEMA_SUFFIX = "Schema";
+
+    /**
+     * The column annotations are read along with their {@link Table}, claiming them as well keeps
+     * javac from warning that no processor claimed them
+     */
+    @Override
+    public Set<String> getSupportedAnnotationTypes() {
+        return new LinkedHashSet<>(Arrays.asList(
+                Table.class.getCanonicalName(),
+                Column.class.getCanonicalName(),
+                Default.class.getCanonicalName(),
+                Min.class.getCanonicalName(),
+                OneOf.class.getCanonicalName(),
+                Range.class.getCanonicalName(),
+                Required.class.getCanonicalName()));
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(Table.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                error(element, "@Table is only allowed on classes");
+                continue;
+            }
+            TypeElement rowType = (TypeElement) element;
+            List<ColumnField> columns = readColumns(rowType);
+            if (columns == null) {
+                continue;
+            }
+            if (!hasColumnsConstructor(rowType, columns)) {
+                error(rowType, rowType.getSimpleName() + " needs a constructor taking its columns in declaration order");
+                continue;
+            }
+            Table table = rowType.getAnnotation(Table.class);
+            if (!hasSummaryColumns(rowType, table, columns)) {
+                continue;
+            }
+            try {
+                writeSchema(rowType, table, columns);
+            } catch (IOException e) {
+                error(rowType, "Could not write the schema of " + rowType.getSimpleName() + ": " + e.getMessage());
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The columns in declaration order, or null if one of them is invalid
+     */
+    private List<ColumnField> readColumns(TypeElement rowType) {
+        List<ColumnField> columns = new ArrayList<>();
+        boolean valid = true;
+        for (Element member : rowType.getEnclosedElements()) {
+            Column column = member.getAnnotation(Column.class);
+            if (column == null) {
+                continue;
+            }
+            VariableElement field = (VariableElement) member;
+            String getter = cursorGetter(field.asType());
+            if (getter == null) {
+                error(field, "Unsupported column type " + field.asType());
+                valid = false;
+                continue;
+            }
+            boolean integral = isIntegral(field.asType());
+            if (!integral && (field.getAnnotation(OneOf.class) != null || field.getAnnotation(Min.class) != null
+                    || field.getAnnotation(Default.class) != null)) {
+                error(field, "@OneOf, @Min and @Default are only allowed on integer columns");
+                valid = false;
+                continue;
+            }
+            if (!integral && !isFloating(field.asType()) && field.getAnnotation(Range.class) != null) {
+                error(field, "@Range is only allowed on numeric columns");
+                valid = false;
+                continue;
+            }
+            columns.add(new ColumnField(field, column, getter));
+        }
+        if (columns.isEmpty()) {
+            error(rowType, rowType.getSimpleName() + " has no @Column field");
+            return null;
+        }
+        return valid ? columns : null;
+    }
+
+    private boolean hasColumnsConstructor(TypeElement rowType, List<ColumnField> columns) {
+        for (Element member : rowType.getEnclosedElements()) {
+            if (member.getKind() != ElementKind.CONSTRUCTOR || member.getModifiers().contains(Modifier.PRIVATE)) {
+                continue;
+            }
+            List<? extends VariableElement> parameters = ((ExecutableElement) member).getParameters();
+            if (parameters.size() != columns.size()) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < parameters.size() && matches; i++) {
+                matches = processingEnv.getTypeUtils().isSameType(parameters.get(i).asType(),
+                        columns.get(i).mField.asType());
+            }
+            if (matches) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasSummaryColumns(TypeElement rowType, Table table, List<ColumnField> columns) {
+        boolean valid = true;
+        for (String name : table.summary()) {
+            boolean found = false;
+            for (ColumnField column : columns) {
+                found |= name.equals(column.mColumn.name()) || name.equals(column.storedName());
+            }
+            if (!found) {
+                error(rowType, "Summary column " + name + " is not a column of " + rowType.getSimpleName());
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    private void writeSchema(TypeElement rowType, Table table, List<ColumnField> columns) throws IOException {
+        PackageElement packageElement = processingEnv.getElementUtils().getPackageOf(rowType);
+        String packageName = packageElement.getQualifiedName().toString();
+        String rowName = rowType.getSimpleName().toString();
+        String schemaName = rowName + SCHEMA_SUFFIX;
+        String rowLabel = rowName.toLowerCase(Locale.US);
+
+        StringBuilder out = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("import android.content.ContentValues;\n");
+        out.append("import android.database.Cursor;\n\n");
+        out.append("/**\n");
+        out.append(" * Schema of {@link ").append(rowName).append("}, generated from its annotations. Do not edit.\n");
+        out.append(" */\n");
+        out.append("public final class ").append(schemaName).append(" {\n\n");
+
+        out.append("    public static final String TABLE_NAME = ").append(literal(table.name())).append(";\n\n");
+
+        StringBuilder ddl = new StringBuilder("CREATE TABLE ").append(table.name()).append(" (");
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnField column = columns.get(i);
+            ddl.append(i == 0 ? "" : ", ").append(column.storedName()).append(' ').append(column.mColumn.definition());
+            Default defaultValue = column.mField.getAnnotation(Default.class);
+            if (defaultValue != null) {
+                ddl.append(" DEFAULT ").append(defaultValue.value());
+            }
+        }
+        for (String hiddenColumn : table.hiddenColumns()) {
+            ddl.append(", ").append(hiddenColumn);
+        }
+        ddl.append(')');
+        out.append("    public static final String SQL_CREATE_TABLE = ").append(literal(ddl.toString())).append(";\n\n");
+
+        out.append("    /**\n");
+        out.append("     * Columns to query for {@link #fromCursor}, in the order of the INDEX_* constants\n");
+        out.append("     */\n");
+        out.append("    public static final String[] PROJECTION = {");
+        for (int i = 0; i < columns.size(); i++) {
+            out.append(i == 0 ? "" : ", ").append(literal(columns.get(i).mColumn.name()));
+        }
+        out.append("};\n\n");
+        for (int i = 0; i < columns.size(); i++) {
+            out.append("    public static final int ").append(columns.get(i).indexConstant()).append(" = ").append(i).append(";\n");
+        }
+        out.append("\n");
+
+        if (table.summary().length > 0) {
+            out.append("    /**\n");
+            out.append("     * Columns lists query instead of the whole row, in the order of the SUMMARY_INDEX_* constants\n");
+            out.append("     */\n");
+            out.append("    public static final String[] SUMMARY_PROJECTION = {");
+            for (int i = 0; i < table.summary().length; i++) {
+                out.append(i == 0 ? "" : ", ").append(literal(table.summary()[i]));
+            }
+            out.append("};\n\n");
+            for (int i = 0; i < table.summary().length; i++) {
+                out.append("    public static final int ").append(summaryIndexConstant(table.summary()[i]))
+                        .append(" = ").append(i).append(";\n");
+            }
+            out.append("\n");
+        }
+
+        out.append("    private ").append(schemaName).append("() {\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * Reads the row at the current position of a cursor queried with {@link #PROJECTION}.\n");
+        out.append("     */\n");
+        out.append("    public static ").append(rowName).append(" fromCursor(Cursor cursor) {\n");
+        out.append("        return new ").append(rowName).append("(");
+        for (int i = 0; i < columns.size(); i++) {
+            ColumnField column = columns.get(i);
+            out.append(i == 0 ? "\n                " : ",\n                ")
+                    .append(String.format(column.mGetter, "cursor", column.indexConstant()));
+        }
+        out.append(");\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * @return A copy of the values of an insert, with the default of each column it leaves out\n");
+        out.append("     * or sets to null\n");
+        out.append("     */\n");
+        out.append("    public static ContentValues withDefaults(ContentValues values) {\n");
+        out.append("        ContentValues withDefaults = new ContentValues(values);\n");
+        for (ColumnField column : columns) {
+            Default defaultValue = column.mField.getAnnotation(Default.class);
+            if (defaultValue == null) {
+                continue;
+            }
+            String key = literal(column.mColumn.name());
+            out.append("        if (withDefaults.get(").append(key).append(") == null) {\n");
+            out.append("            withDefaults.put(").append(key).append(", ")
+                    .append(defaultLiteral(column.mField.asType(), defaultValue.value())).append(");\n");
+            out.append("        }\n");
+        }
+        out.append("        return withDefaults;\n");
+        out.append("    }\n\n");
+
+        out.append("    /**\n");
+        out.append("     * Checks the values of an insert, or of an update when insert is false, against the column\n");
+        out.append("     * constraints. Values of other keys are ignored.\n");
+        out.append("     *\n");
+        out.append("     * @throws IllegalArgumentException If a value breaks a constraint\n");
+        out.append("     */\n");
+        out.append("    public static void validate(ContentValues values, boolean insert) {\n");
+        for (ColumnField column : columns) {
+            writeValidation(out, rowName, rowLabel, column);
+        }
+        out.append("    }\n");
+        out.append("}\n");
+
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(
+                packageName.isEmpty() ? schemaName : packageName + "." + schemaName, rowType);
+        Writer writer = file.openWriter();
+        try {
+            writer.write(out.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void writeValidation(StringBuilder out, String rowName, String rowLabel, ColumnField column) {
+        String key = literal(column.mColumn.name());
+        boolean required = column.mField.getAnnotation(Required.class) != null;
+        boolean hasDefault = column.mField.getAnnotation(Default.class) != null;
+        OneOf oneOf = column.mField.getAnnotation(OneOf.class);
+        Min min = column.mField.getAnnotation(Min.class);
+        Range range = column.mField.getAnnotation(Range.class);
+
+        if (required) {
+            out.append("        if ((insert || values.containsKey(").append(key).append(")) && values.get(")
+                    .append(key).append(") == null) {\n");
+            out.append("            throw new IllegalArgumentException(")
+                    .append(literal(rowName + " requires a " + column.mColumn.name())).append(");\n");
+            out.append("        }\n");
+        } else if (hasDefault) {
+            // Left out, the column takes its default, but it can not be set to null
+            out.append("        if (values.containsKey(").append(key).append(") && values.get(").append(key)
+                    .append(") == null) {\n");
+            out.append("            throw new IllegalArgumentException(")
+                    .append(literal(rowName + " requires a " + column.mColumn.name())).append(");\n");
+            out.append("        }\n");
+        }
+        if (oneOf == null && min == null && range == null) {
+            return;
+        }
+
+        String variable = column.mField.getSimpleName().toString();
+        if (isFloating(column.mField.asType())) {
+            out.append("        Double ").append(variable).append(" = values.getAsDouble(").append(key).append(");\n");
+        } else {
+            out.append("        Long ").append(variable).append(" = values.getAsLong(").append(key).append(");\n");
+        }
+        // A value that is not a number reads as null
+        out.append("        if (").append(variable).append(" == null && values.get(").append(key).append(") != null) {\n");
+        out.append("            throw new IllegalArgumentException(")
+                .append(literal("Invalid " + rowLabel + " " + column.mColumn.name() + ": "))
+                .append(" + values.get(").append(key).append("));\n");
+        out.append("        }\n");
+        if (oneOf != null) {
+            out.append("        if (").append(variable).append(" != null");
+            for (long allowed : oneOf.value()) {
+                out.append("\n                && ").append(variable).append(" != ").append(allowed).append("L");
+            }
+            out.append(") {\n");
+            out.append("            throw new IllegalArgumentException(")
+                    .append(literal("Invalid " + rowLabel + " " + column.mColumn.name() + ": "))
+                    .append(" + ").append(variable).append(");\n");
+            out.append("        }\n");
+        }
+        if (min != null) {
+            out.append("        if (").append(variable).append(" != null && ").append(variable).append(" < ")
+                    .append(min.value()).append("L) {\n");
+            out.append("            throw new IllegalArgumentException(")
+                    .append(literal(rowName + " " + column.mColumn.name() + " cannot be less than " + min.value() + ": "))
+                    .append(" + ").append(variable).append(");\n");
+            out.append("        }\n");
+        }
+        if (range != null) {
+            out.append("        if (").append(variable).append(" != null && (").append(variable).append(" < ")
+                    .append(range.min()).append(" || ").append(variable).append(" > ").append(range.max()).append(")) {\n");
+            out.append("            throw new IllegalArgumentException(")
+                    .append(literal("Invalid " + rowLabel + " " + column.mColumn.name() + ": "))
+                    .append(" + ").append(variable).append(");\n");
+            out.append("        }\n");
+        }
+    }
+
+    /**
+     * @return The format of the cursor read of a column of the type, taking the cursor and the
+     * index, or null if the type is not supported
+     */
+    private static String cursorGetter(TypeMirror type) {
+        switch (type.getKind()) {
+            case LONG:
+                return "%s.getLong(%s)";
+            case INT:
+                return "%s.getInt(%s)";
+            case SHORT:
+                return "%s.getShort(%s)";
+            case DOUBLE:
+                return "%s.getDouble(%s)";
+            case FLOAT:
+                return "%s.getFloat(%s)";
+            case BOOLEAN:
+                return "%s.getInt(%s) != 0";
+            case ARRAY:
+                return "byte[]".equals(type.toString()) ? "%s.getBlob(%s)" : null;
+            case DECLARED:
+                if ("java.lang.String".equals(type.toString())) {
+                    return "%s.getString(%s)";
+                } else if ("java.lang.Long".equals(type.toString())) {
+                    // A nullable integer column
+                    return "%1$s.isNull(%2$s) ? null : %1$s.getLong(%2$s)";
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private static boolean isIntegral(TypeMirror type) {
+        TypeKind kind = type.getKind();
+        return kind == TypeKind.LONG || kind == TypeKind.INT || kind == TypeKind.SHORT;
+    }
+
+    private static boolean isFloating(TypeMirror type) {
+        TypeKind kind = type.getKind();
+        return kind == TypeKind.DOUBLE || kind == TypeKind.FLOAT;
+    }
+
+    private static String defaultLiteral(TypeMirror type, long value) {
+        switch (type.getKind()) {
+            case LONG:
+                return value + "L";
+            case SHORT:
+                return "(short) " + value;
+            default:
+                return String.valueOf(value);
+        }
+    }
+
+    /**
+     * @return SUMMARY_INDEX_ followed by the column name in upper case, without leading
+     * underscores, e.g. SUMMARY_INDEX_ID for _id
+     */
+    private static String summaryIndexConstant(String columnName) {
+        int start = 0;
+        while (start < columnName.length() - 1 && columnName.charAt(start) == '_') {
+            start++;
+        }
+        return "SUMMARY_INDEX_" + columnName.substring(start).toUpperCase(Locale.US);
+    }
+
+    private static String literal(String value) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                literal.append('\\');
+            }
+            literal.append(c);
+        }
+        return literal.append('"').toString();
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+
+    private static final class ColumnField {
+
+        final VariableElement mField;
+        final Column mColumn;
+        final String mGetter;
+
+        ColumnField(VariableElement field, Column column, String getter) {
+            mField = field;
+            mColumn = column;
+            mGetter = getter;
+        }
+
+        String storedName() {
+            return mColumn.storedName().isEmpty() ? mColumn.name() : mColumn.storedName();
+        }
+
+        /**
+         * @return INDEX_ followed by the field name in upper snake case, e.g. INDEX_BIRTH_DATE
+         */
+        String indexConstant() {
+            String name = mField.getSimpleName().toString();
+            StringBuilder constant = new StringBuilder("INDEX_");
+            for (int i = 0; i < name.length(); i++) {
+                char c = name.charAt(i);
+                if (Character.isUpperCase(c) && i > 0) {
+                    constant.append('_');
+                }
+                constant.append(Character.toUpperCase(c));
+            }
+            return constant.toString();
+        }
+    }
+}